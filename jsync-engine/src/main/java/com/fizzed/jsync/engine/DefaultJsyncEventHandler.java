@@ -3,6 +3,7 @@ package com.fizzed.jsync.engine;
 import com.fizzed.jsync.vfs.StatUpdateOption;
 import com.fizzed.jsync.vfs.VirtualFileSystem;
 import com.fizzed.jsync.vfs.VirtualPath;
+import com.fizzed.jsync.vfs.util.BufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,20 +68,33 @@ public class DefaultJsyncEventHandler implements JsyncEventHandler {
         }
     }
 
+    @Override
+    public void willCopyFile(VirtualPath sourcePath, VirtualPath duplicatePath, VirtualPath targetPath, JsyncPathChanges changes) {
+        log.debug("Creating file {} by copying duplicate {} ({})", targetPath, duplicatePath, changes);
+    }
+
+    @Override
+    public void willMoveFile(VirtualPath sourcePath, VirtualPath movedPath, VirtualPath targetPath, JsyncPathChanges changes) {
+        log.debug("Creating file {} by moving {} ({})", targetPath, movedPath, changes);
+    }
+
     @Override
     public void willUpdateStat(VirtualPath sourcePath, VirtualPath targetPath, JsyncPathChanges changes, Collection<StatUpdateOption> options, boolean associatedWithFileModifiedOrDirCreated) {
         String message = options.stream().map(v -> v.name().toLowerCase()).collect(joining(", "));
         log.debug("Updating stat {} ({})", targetPath, message);
     }
 
-    static private final int BUFFER_SIZE = 8192;
-
     @Override
     public void doCopy(InputStream input, OutputStream output, long knownContentLength) throws IOException {
-        byte[] buf = new byte[BUFFER_SIZE];
-        int n;
-        while ((n = input.read(buf)) >= 0) {
-            output.write(buf, 0, n);
+        // a pooled buffer sized to the content (up to 1 MB), so large files need fewer reads and writes
+        final byte[] buf = BufferPool.shared().acquire(BufferPool.sizeFor(knownContentLength));
+        try {
+            int n;
+            while ((n = input.read(buf)) >= 0) {
+                output.write(buf, 0, n);
+            }
+        } finally {
+            BufferPool.shared().release(buf);
         }
     }
 
@@ -0,0 +1,184 @@
+package com.fizzed.jsync.engine;
+
+import com.fizzed.jsync.vfs.VirtualFileSystem;
+import com.fizzed.jsync.vfs.VirtualPath;
+import com.fizzed.jsync.vfs.util.BufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides if a file is worth compressing while its transferred. Files that are too small, or have an extension of a
+ * format that is already compressed, are never compressed. Otherwise, the first block of a local file is compressed as
+ * a sample, and only if that sample shrinks enough is the file compressed. A remote file is never sampled, since
+ * reading the sample over the wire would cost about as much as compression could save, so it is decided by its
+ * extension and size alone.
+ */
+public class JsyncCompressionPolicy {
+    static private final Logger log = LoggerFactory.getLogger(JsyncCompressionPolicy.class);
+
+    static public final Set<String> DEFAULT_SKIP_EXTENSIONS = new HashSet<>(Arrays.asList(
+        // archives
+        "7z", "apk", "br", "bz2", "deb", "gz", "jar", "lz", "lz4", "lzma", "rar", "rpm", "tbz2", "tgz", "txz", "war",
+        "whl", "xz", "z", "zip", "zst",
+        // images, audio and video
+        "avif", "flac", "gif", "heic", "jpeg", "jpg", "m4a", "m4v", "mkv", "mov", "mp3", "mp4", "ogg", "opus",
+        "png", "webm", "webp",
+        // documents
+        "docx", "epub", "odt", "pdf", "pptx", "xlsx"));
+
+    private Set<String> skipExtensions;
+    private long minSize;
+    private int sampleSize;
+    private double maxRatio;
+
+    public JsyncCompressionPolicy() {
+        this.skipExtensions = new HashSet<>(DEFAULT_SKIP_EXTENSIONS);
+        this.minSize = 64L * 1024L;
+        this.sampleSize = 64 * 1024;
+        this.maxRatio = 0.8d;
+    }
+
+    public Set<String> getSkipExtensions() {
+        return skipExtensions;
+    }
+
+    /**
+     * The extensions (lowercase and without the dot) of files that are already compressed, and are never worth
+     * compressing again.
+     *
+     * @param skipExtensions the extensions to skip
+     * @return this policy
+     */
+    public JsyncCompressionPolicy setSkipExtensions(Set<String> skipExtensions) {
+        this.skipExtensions = skipExtensions;
+        return this;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * The minimum size of a file to compress, since small files take longer to start compressing than to send.
+     *
+     * @param minSize the minimum size in bytes
+     * @return this policy
+     */
+    public JsyncCompressionPolicy setMinSize(long minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * The number of bytes at the start of a file to compress as a sample, or 0 to compress every file that is not
+     * skipped by its extension or size.
+     *
+     * @param sampleSize the sample size in bytes
+     * @return this policy
+     */
+    public JsyncCompressionPolicy setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+        return this;
+    }
+
+    public double getMaxRatio() {
+        return maxRatio;
+    }
+
+    /**
+     * The maximum ratio of the compressed size to the original size of the sample for a file to be compressed (e.g.
+     * 0.8 means the sample must shrink by at least 20%).
+     *
+     * @param maxRatio the maximum ratio
+     * @return this policy
+     */
+    public JsyncCompressionPolicy setMaxRatio(double maxRatio) {
+        this.maxRatio = maxRatio;
+        return this;
+    }
+
+    public boolean isSkippedExtension(String name) {
+        final int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1) {
+            return false;
+        }
+        return this.skipExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Decides if the file is worth compressing, which may read the first block of the file as a sample (only if the
+     * filesystem is not remote).
+     *
+     * @param vfs the filesystem of the file
+     * @param file the file, with its stat
+     * @return true if the file should be compressed, otherwise false
+     * @throws IOException if an I/O error occurs while sampling the file
+     */
+    public boolean isCompressible(VirtualFileSystem vfs, VirtualPath file) throws IOException {
+        if (file.getStat() == null || file.getStat().getSize() < this.minSize) {
+            return false;
+        }
+
+        if (this.isSkippedExtension(file.getName())) {
+            return false;
+        }
+
+        if (this.sampleSize <= 0 || vfs.isRemote()) {
+            return true;
+        }
+
+        final int sampleLength = (int)Math.min(this.sampleSize, file.getStat().getSize());
+        final byte[] sample = BufferPool.shared().acquire(sampleLength);
+        final double ratio;
+        try {
+            int sampled = 0;
+            try (InputStream input = vfs.readFile(file)) {
+                int n;
+                while (sampled < sampleLength && (n = input.read(sample, sampled, sampleLength - sampled)) > 0) {
+                    sampled += n;
+                }
+            }
+            ratio = compressionRatio(sample, sampled);
+        } finally {
+            BufferPool.shared().release(sample);
+        }
+
+        log.trace("Compression sample of {} has ratio {}", file, ratio);
+
+        return ratio <= this.maxRatio;
+    }
+
+    static double compressionRatio(byte[] sample, int length) {
+        if (length <= 0) {
+            return 1.0d;
+        }
+
+        // the fastest level is a good enough predictor of whether gzip will help
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            final byte[] buf = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buf);
+            }
+            return (double)compressed / (double)length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.fizzed.jsync.engine;
+
+import com.fizzed.jsync.vfs.VirtualFileStat;
+import com.fizzed.jsync.vfs.VirtualPath;
+import com.fizzed.jsync.vfs.VirtualPathPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The source and target files whose changes can't be determined until their checksums are calculated, which are
+ * deferred so that checksums can be calculated in bulk. Once the engine's memory budget is exceeded, pairs are spilled
+ * to a temporary file and streamed back in chunks by {@link #poll()}, in the order they were added.
+ */
+public class JsyncDeferredFiles implements Closeable {
+    static private final Logger log = LoggerFactory.getLogger(JsyncDeferredFiles.class);
+
+    private final JsyncMemoryBudget budget;
+    private final Path tempDir;
+    private final List<VirtualPathPair> pairs;
+    private Path spillFile;
+    private DataOutputStream spillOutput;
+    private DataInputStream spillInput;
+    private int spilled;
+    private int chunkSize;
+
+    public JsyncDeferredFiles(JsyncMemoryBudget budget, Path tempDir) {
+        this.budget = budget;
+        this.tempDir = tempDir;
+        this.pairs = new ArrayList<>();
+    }
+
+    public int size() {
+        return this.spilled + this.pairs.size();
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    public boolean isSpilled() {
+        return this.spilled > 0;
+    }
+
+    public void add(VirtualPathPair pair) throws IOException {
+        this.pairs.add(pair);
+        this.budget.reserve(2);
+        // never spill while the spilled pairs are being streamed back
+        if (this.spillInput == null && this.budget.isExceeded() && this.pairs.size() >= JsyncMemoryBudget.MIN_SPILL_PATHS) {
+            this.spill();
+        }
+    }
+
+    /**
+     * Removes the next chunk of pairs, in the order they were added. Spilled pairs come back in chunks as large as
+     * were held in memory before they were spilled, otherwise every pair is returned at once.
+     *
+     * @return the next chunk of pairs, which is empty if there are no more
+     * @throws IOException if an I/O error occurs reading the spilled pairs
+     */
+    public List<VirtualPathPair> poll() throws IOException {
+        if (this.spilled > 0) {
+            if (this.spillInput == null) {
+                this.spillOutput.close();
+                this.spillOutput = null;
+                this.spillInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.spillFile), 64 * 1024));
+            }
+            final int n = Math.min(this.chunkSize, this.spilled);
+            final List<VirtualPathPair> chunk = new ArrayList<>(n);
+            // pairs from the same directory are together, so consecutive paths can share the same parent path
+            String sourceParentPath = null;
+            String targetParentPath = null;
+            for (int i = 0; i < n; i++) {
+                final VirtualPath source = readPath(this.spillInput, sourceParentPath);
+                final VirtualPath target = readPath(this.spillInput, targetParentPath);
+                sourceParentPath = source.getParentPath();
+                targetParentPath = target.getParentPath();
+                chunk.add(new VirtualPathPair(source, target));
+            }
+            this.spilled -= n;
+            if (this.spilled == 0) {
+                this.deleteSpillFile();
+            }
+            return chunk;
+        }
+
+        final List<VirtualPathPair> chunk = new ArrayList<>(this.pairs);
+        this.budget.release(2L * this.pairs.size());
+        this.pairs.clear();
+        return chunk;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.budget.release(2L * this.pairs.size());
+        this.pairs.clear();
+        this.spilled = 0;
+        this.deleteSpillFile();
+    }
+
+    private void spill() throws IOException {
+        if (this.spillOutput == null) {
+            this.spillFile = JsyncSpillFiles.create(this.tempDir, "jsync-deferred-");
+            this.spillOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.spillFile), 64 * 1024));
+        }
+        for (VirtualPathPair pair : this.pairs) {
+            writePath(this.spillOutput, pair.getSource());
+            writePath(this.spillOutput, pair.getTarget());
+        }
+        log.debug("Spilled {} deferred files to {} ({} spilled in total)", this.pairs.size(), this.spillFile, this.spilled + this.pairs.size());
+        this.spilled += this.pairs.size();
+        this.chunkSize = Math.max(this.chunkSize, this.pairs.size());
+        this.budget.release(2L * this.pairs.size());
+        this.pairs.clear();
+    }
+
+    private void deleteSpillFile() throws IOException {
+        try {
+            if (this.spillOutput != null) {
+                this.spillOutput.close();
+            }
+            if (this.spillInput != null) {
+                this.spillInput.close();
+            }
+        } finally {
+            this.spillOutput = null;
+            this.spillInput = null;
+            if (this.spillFile != null) {
+                Files.deleteIfExists(this.spillFile);
+                this.spillFile = null;
+            }
+        }
+    }
+
+    static private void writePath(DataOutputStream output, VirtualPath path) throws IOException {
+        output.writeBoolean(path.getParentPath() != null);
+        if (path.getParentPath() != null) {
+            output.writeUTF(path.getParentPath());
+        }
+        output.writeUTF(path.getName());
+        output.writeBoolean(Boolean.TRUE.equals(path.isDirectory()));
+        JsyncSpillFiles.writeStat(output, path.getStat());
+    }
+
+    static private VirtualPath readPath(DataInputStream input, String previousParentPath) throws IOException {
+        String parentPath = input.readBoolean() ? input.readUTF() : null;
+        if (parentPath != null && parentPath.equals(previousParentPath)) {
+            parentPath = previousParentPath;
+        }
+        final String name = input.readUTF();
+        final boolean directory = input.readBoolean();
+        final VirtualFileStat stat = JsyncSpillFiles.readStat(input);
+        return new VirtualPath(parentPath, name, directory, stat);
+    }
+
+}
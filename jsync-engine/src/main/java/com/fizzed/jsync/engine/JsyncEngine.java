@@ -1,16 +1,31 @@
 package com.fizzed.jsync.engine;
 
 import com.fizzed.jsync.vfs.*;
+import com.fizzed.jsync.vfs.util.BoundedInputStream;
+import com.fizzed.jsync.vfs.util.DeviceLimiter;
 import com.fizzed.jsync.vfs.util.Permissions;
+import com.fizzed.jsync.vfs.util.VirtualPathMatcher;
 import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import static com.fizzed.jsync.vfs.util.Permissions.isOwnerPermissionEqual;
 import static java.util.Arrays.asList;
@@ -18,6 +33,10 @@ import static java.util.stream.Collectors.toList;
 
 public class JsyncEngine {
     static private final Logger log = LoggerFactory.getLogger(JsyncEngine.class);
+    static protected final long MAX_DELTA_BLOCKS = 16384L;
+    static protected final String PARTIAL_SUFFIX = ".jsync-partial";
+    // sizes like 4096 are common, so only the most recently visited files of a size are kept as duplicate candidates
+    static protected final int MAX_DUPLICATE_CANDIDATES = 8;
 
     // options for syncing, try to mimic defaults for how rsync works
     private JsyncEventHandler eventHandler;
@@ -27,15 +46,54 @@ public class JsyncEngine {
     private boolean parents;
     private boolean ignoreTimes;
     private boolean skipPermissions;
+    private boolean copyDuplicates;
+    private boolean detectRenames;
+    private boolean appendVerify;
+    private boolean resume;
+    private boolean delta;
+    private boolean bulkListing;
+    private boolean fastDelete;
+    private boolean archive;
+    private boolean compress;
+    private boolean directCopy;
+    private boolean inodeOrder;
+    private DeviceLimiter deviceLimiter;
+    private JsyncCompressionPolicy compressionPolicy;
+    private int archiveMinFiles;
+    private long archiveMaxFileSize;
+    private int prefetchDepth;
+    private long resumeMinSize;
+    private long deltaMinSize;
+    private long deltaBlockSize;
     private int maxFilesMaybeModifiedLimit;
+    private int batchSize;
+    private int listingSpillThreshold;
+    private long memoryBudget;
+    private Path tempDir;
     private List<String> excludes;
     private List<String> ignores;
     // when running a sync
     private Checksum negotiatedChecksum;
+    private Checksum deltaChecksum;
     private VirtualPathMatchers excludeMatchers;
     private VirtualPathMatchers ignoreMatchers;
     private VirtualPath sourceRootPath;
     private VirtualPath targetRootPath;
+    private VirtualFileTree sourceTree;
+    private VirtualFileTree targetTree;
+    private JsyncListingPrefetcher sourcePrefetcher;
+    private JsyncListingPrefetcher targetPrefetcher;
+    private Map<Long,List<VirtualPath>> targetFilesBySize;
+    private Map<Long,List<VirtualPath>> renameCandidatesBySize;
+    private Set<String> movedTargetPaths;
+    private Set<String> createdTargetDirs;
+    private List<VirtualStatUpdate> pendingStatUpdates;
+    private Set<String> archivedTargetPaths;
+    private VirtualFileTree archiveSourceTree;
+    private VirtualPath archiveCheckedSourcePath;
+    private boolean listingCaseSensitive;
+    private JsyncMemoryBudget budget;
+    private boolean defaultCopy;
 
     public JsyncEngine() {
         this.eventHandler = new DefaultJsyncEventHandler();
@@ -44,8 +102,28 @@ public class JsyncEngine {
         this.parents = false;
         this.ignoreTimes = false;
         this.skipPermissions = false;
+        this.copyDuplicates = false;
+        this.detectRenames = false;
+        this.appendVerify = false;
+        this.resume = false;
+        this.delta = false;
+        this.bulkListing = false;
+        this.fastDelete = false;
+        this.archive = false;
+        this.archiveMinFiles = 100;
+        this.archiveMaxFileSize = 256L * 1024L;
+        this.compress = false;
+        this.directCopy = true;
+        this.inodeOrder = false;
+        this.compressionPolicy = new JsyncCompressionPolicy();
+        this.prefetchDepth = 0;
+        this.resumeMinSize = 16L * 1024L * 1024L;
+        this.deltaMinSize = 16L * 1024L * 1024L;
+        this.deltaBlockSize = 1024L * 1024L;
         this.preferredChecksums = new ArrayList<>(asList(Checksum.CK, Checksum.MD5));
         this.maxFilesMaybeModifiedLimit = 256;
+        this.batchSize = 1000;
+        this.listingSpillThreshold = 250000;
     }
 
     public JsyncEventHandler getEventHandler() {
@@ -103,6 +181,306 @@ public class JsyncEngine {
         return this;
     }
 
+    public boolean isCopyDuplicates() {
+        return copyDuplicates;
+    }
+
+    /**
+     * If enabled, a new file whose content already exists somewhere on the target (e.g. a file that was copied or
+     * duplicated on the source) will be copied on the target itself, rather than transferring the content again. Files
+     * are only considered duplicates if their sizes and checksums are equal. Only filesystems that support server-side
+     * copies will use this, and it works best when the duplicate was already visited earlier in the sync (only the
+     * most recently visited files of each size are remembered, within the memory budget).
+     *
+     * @param copyDuplicates true to copy duplicate content on the target, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setCopyDuplicates(boolean copyDuplicates) {
+        this.copyDuplicates = copyDuplicates;
+        return this;
+    }
+
+    public boolean isDetectRenames() {
+        return detectRenames;
+    }
+
+    /**
+     * If enabled (and only when 'delete' is also enabled), files on the target that are about to be deleted will first
+     * be paired up with new files on the source by size, modified time, and checksum. Any pairs will be moved on the
+     * target, rather than transferring the content again and then deleting the old file. This makes renaming a
+     * directory on the source cheap to sync. Files are only paired if the old path is in the same directory as the new
+     * path or in one of its parents.
+     *
+     * @param detectRenames true to detect renamed files, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setDetectRenames(boolean detectRenames) {
+        this.detectRenames = detectRenames;
+        return this;
+    }
+
+    public boolean isAppendVerify() {
+        return appendVerify;
+    }
+
+    /**
+     * If enabled, an existing file on the target that is smaller than the source will be verified as a prefix of the
+     * source (by comparing checksums of the first bytes on each side). If so, only the remaining tail of the source is
+     * appended to the target. This is best for files that only ever grow (e.g. logs, journals).
+     *
+     * @param appendVerify true to only append the tail of files that grew, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setAppendVerify(boolean appendVerify) {
+        this.appendVerify = appendVerify;
+        return this;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * If enabled, files are transferred to a partial file in the target directory (e.g. ".name.jsync-partial") and only
+     * moved into place once completed. If a transfer is interrupted, the next sync will verify the partial file is a
+     * prefix of the source (by comparing checksums) and continue the transfer from where it left off. Partial files
+     * are never deleted from the target, so they survive until they can be resumed.
+     *
+     * @param resume true to transfer via partial files that can be resumed, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setResume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    public long getResumeMinSize() {
+        return resumeMinSize;
+    }
+
+    /**
+     * The min size of a file to transfer via a partial file when resume is enabled, since smaller files are cheap to
+     * transfer again and not worth the extra stat and rename.
+     *
+     * @param resumeMinSize the min size in bytes
+     * @return this engine
+     */
+    public JsyncEngine setResumeMinSize(long resumeMinSize) {
+        this.resumeMinSize = resumeMinSize;
+        return this;
+    }
+
+    public boolean isBulkListing() {
+        return bulkListing;
+    }
+
+    /**
+     * If enabled, the entire source and target trees are each listed up front (which some filesystems can do far more
+     * efficiently, e.g. a single command on a remote host), and every directory listing during the sync is then served
+     * from those snapshots, rather than listing each directory one at a time. When the source and target are different
+     * filesystems, both trees are listed concurrently, so the scan only takes as long as the slower side.
+     *
+     * @param bulkListing true to list entire trees up front, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setBulkListing(boolean bulkListing) {
+        this.bulkListing = bulkListing;
+        return this;
+    }
+
+    public boolean isFastDelete() {
+        return fastDelete;
+    }
+
+    /**
+     * If enabled, directories deleted on the target are removed in a single operation, rather than path by path (e.g.
+     * a single "rm -rf" on a remote host, or in parallel on a local disk). The entire directory is still listed up
+     * front (in bulk, if the filesystem supports it), so every deleted file and directory is still reported.
+     *
+     * @param fastDelete true to remove directories in a single operation, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setFastDelete(boolean fastDelete) {
+        this.fastDelete = fastDelete;
+        return this;
+    }
+
+    public boolean isArchive() {
+        return archive;
+    }
+
+    /**
+     * If enabled, a directory that is new on the target, with at least the archive min files below the archive max
+     * file size within it, has those files (and all its directories) transferred as a single tar archive, streamed from
+     * one filesystem to the other. This avoids several round trips per file to a remote host, which otherwise limits
+     * a transfer of many small files to a few hundred per second. Permissions and modified times are preserved by the
+     * archive. Only used if at least one filesystem is remote, and both are posix and support archives.
+     *
+     * @param archive true to transfer new directories of many small files as an archive, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setArchive(boolean archive) {
+        this.archive = archive;
+        return this;
+    }
+
+    public int getArchiveMinFiles() {
+        return archiveMinFiles;
+    }
+
+    public JsyncEngine setArchiveMinFiles(int archiveMinFiles) {
+        this.archiveMinFiles = archiveMinFiles;
+        return this;
+    }
+
+    public long getArchiveMaxFileSize() {
+        return archiveMaxFileSize;
+    }
+
+    public JsyncEngine setArchiveMaxFileSize(long archiveMaxFileSize) {
+        this.archiveMaxFileSize = archiveMaxFileSize;
+        return this;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * If enabled, the content of files is compressed while being transferred to or from a remote filesystem, which
+     * can be many times faster over slow links for text, json, logs, etc. Which files are worth compressing is decided
+     * by the compression policy. Both filesystems must support compression (e.g. gzip must exist on a remote host).
+     *
+     * @param compress true to compress files while transferring, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setCompress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
+    public boolean isDirectCopy() {
+        return directCopy;
+    }
+
+    /**
+     * If enabled (the default), files are copied directly between filesystems that support it (e.g. by the kernel
+     * between two local filesystems), rather than streamed thru a buffer on the heap. Only used if the event handler
+     * does not provide its own copy (e.g. to report progress).
+     *
+     * @param directCopy true to copy files directly where possible, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setDirectCopy(boolean directCopy) {
+        this.directCopy = directCopy;
+        return this;
+    }
+
+    public boolean isInodeOrder() {
+        return inodeOrder;
+    }
+
+    /**
+     * If enabled, the files of a directory are transferred, and the files deferred for checksums are read, in the
+     * order of their inodes rather than their names. Inodes roughly follow where files are on disk, so on spinning
+     * disks this trades constant seeking for mostly sequential reads. Only the inodes of files that are transferred or
+     * checksummed are read, and only filesystems that know inodes (e.g. local) are ordered. Directories too large to
+     * list in memory are still transferred in name order.
+     *
+     * @param inodeOrder true to read files in inode order, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setInodeOrder(boolean inodeOrder) {
+        this.inodeOrder = inodeOrder;
+        return this;
+    }
+
+    public DeviceLimiter getDeviceLimiter() {
+        return deviceLimiter;
+    }
+
+    /**
+     * Limits how many files are concurrently hashed, read and written on each local device, when syncing between local
+     * paths. Share the same limiter between engines running at once, so together they match what each disk can handle
+     * rather than thrashing a slow one. For filesystems opened elsewhere, see
+     * {@link LocalVirtualFileSystem#setDeviceLimiter(DeviceLimiter)}.
+     *
+     * @param deviceLimiter the limiter or null for no limits
+     * @return this engine
+     */
+    public JsyncEngine setDeviceLimiter(DeviceLimiter deviceLimiter) {
+        this.deviceLimiter = deviceLimiter;
+        return this;
+    }
+
+    public JsyncCompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public JsyncEngine setCompressionPolicy(JsyncCompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+        return this;
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * If greater than zero, up to this many directories on each of the source and target are listed in the background
+     * ahead of the sync arriving at them, so the time spent waiting on listings overlaps with comparing and transferring
+     * files. Has no effect with bulk listing, since every listing is then already done up front.
+     *
+     * @param prefetchDepth the number of directories to list ahead on each side, or zero to disable
+     * @return this engine
+     */
+    public JsyncEngine setPrefetchDepth(int prefetchDepth) {
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("prefetchDepth must be >= 0");
+        }
+        this.prefetchDepth = prefetchDepth;
+        return this;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * If enabled, an existing file on the target that was modified will be compared block-by-block with the source
+     * (using checksums calculated on each side), and only the blocks that differ are written to the target. This is
+     * best for large files that change in small regions (e.g. databases, disk images). Only files at least the delta
+     * min size will use this, and if the checksums of blocks are not supported, the entire file is transferred.
+     *
+     * @param delta true to only transfer modified blocks of large files, otherwise false
+     * @return this engine
+     */
+    public JsyncEngine setDelta(boolean delta) {
+        this.delta = delta;
+        return this;
+    }
+
+    public long getDeltaMinSize() {
+        return deltaMinSize;
+    }
+
+    public JsyncEngine setDeltaMinSize(long deltaMinSize) {
+        this.deltaMinSize = deltaMinSize;
+        return this;
+    }
+
+    public long getDeltaBlockSize() {
+        return deltaBlockSize;
+    }
+
+    public JsyncEngine setDeltaBlockSize(long deltaBlockSize) {
+        if (deltaBlockSize <= 0) {
+            throw new IllegalArgumentException("deltaBlockSize must be > 0");
+        }
+        this.deltaBlockSize = deltaBlockSize;
+        return this;
+    }
+
     public List<Checksum> getPreferredChecksums() {
         return this.preferredChecksums;
     }
@@ -122,6 +500,82 @@ public class JsyncEngine {
         return this;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * The most paths the target filesystem is asked to create, remove or update the stat of at once. Some filesystems
+     * can do these in bulk far more efficiently than one path at a time (e.g. a single command on a remote host).
+     *
+     * @param batchSize the max number of paths per batch
+     * @return this engine
+     */
+    public JsyncEngine setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be > 0");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getListingSpillThreshold() {
+        return listingSpillThreshold;
+    }
+
+    /**
+     * The most paths of a directory listing held in memory. A directory with more than this is sorted by name in
+     * chunks spilled to temporary files, and synced by merging the sorted source and target listings together, so even
+     * directories with millions of entries are synced in bounded memory. Renames and duplicates are not detected
+     * within such a directory, since that requires its entire listing.
+     *
+     * @param listingSpillThreshold the max number of paths of a listing in memory
+     * @return this engine
+     */
+    public JsyncEngine setListingSpillThreshold(int listingSpillThreshold) {
+        if (listingSpillThreshold <= 0) {
+            throw new IllegalArgumentException("listingSpillThreshold must be > 0");
+        }
+        this.listingSpillThreshold = listingSpillThreshold;
+        return this;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * The approximate heap (in bytes) the work lists of a sync may use, such as the listings of the directories being
+     * synced and the files deferred for checksums. Past this, they are spilled to temporary files, so syncing even a
+     * tree of millions of files does not need heap in proportion to its size. Defaults to a quarter of the max heap.
+     *
+     * @param memoryBudget the budget in bytes, or 0 for the default
+     * @return this engine
+     */
+    public JsyncEngine setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget must be >= 0");
+        }
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    public Path getTempDir() {
+        return tempDir;
+    }
+
+    /**
+     * The directory for any temporary files while syncing (e.g. huge listings spilled to disk), or null for the default
+     * temporary directory.
+     *
+     * @param tempDir the temporary directory
+     * @return this engine
+     */
+    public JsyncEngine setTempDir(Path tempDir) {
+        this.tempDir = tempDir;
+        return this;
+    }
+
     public List<String> getExcludes() {
         return excludes;
     }
@@ -158,7 +612,8 @@ public class JsyncEngine {
 
     public JsyncResult sync(Path sourcePath, Path targetPath, JsyncMode mode) throws IOException {
         // local -> local
-        final LocalVirtualFileSystem localVfs = LocalVirtualFileSystem.open();
+        final LocalVirtualFileSystem localVfs = LocalVirtualFileSystem.open()
+            .setDeviceLimiter(this.deviceLimiter);
 
         return this.sync(localVfs, sourcePath.toString(), localVfs, targetPath.toString(), mode);
     }
@@ -237,6 +692,7 @@ public class JsyncEngine {
 
         // find the best common checksum
         this.negotiatedChecksum = this.negotiateChecksum(sourceVfs, targetVfs);
+        this.deltaChecksum = this.delta ? this.negotiateDeltaChecksum(sourceVfs, targetVfs) : null;
 
         log.debug("Source filesystem stat mode: {}", sourceVfs.getStatModel());
         log.debug("Target filesystem stat mode: {}", targetVfs.getStatModel());
@@ -248,6 +704,22 @@ public class JsyncEngine {
         log.debug("Using exclude matchers: {}", this.excludeMatchers);
         log.debug("Using ignore matchers: {}", this.ignoreMatchers);
 
+        // only index target files by size if we'll need to search them for duplicate content
+        this.targetFilesBySize = (this.copyDuplicates && targetVfs.isCopySupported()) ? new HashMap<>() : null;
+
+        // renames are only possible to detect if we know which files will be deleted
+        this.renameCandidatesBySize = (this.detectRenames && this.delete) ? new HashMap<>() : null;
+        this.movedTargetPaths = new HashSet<>();
+        this.createdTargetDirs = new HashSet<>();
+        this.pendingStatUpdates = new ArrayList<>();
+        this.archivedTargetPaths = new HashSet<>();
+        this.archiveSourceTree = null;
+        this.archiveCheckedSourcePath = null;
+        // names on both sides must sort the same way for huge listings to be merged, which is case insensitive if either is
+        this.listingCaseSensitive = sourceVfs.isCaseSensitive() && targetVfs.isCaseSensitive();
+        this.budget = new JsyncMemoryBudget(this.memoryBudget > 0 ? this.memoryBudget : Runtime.getRuntime().maxMemory() / 4);
+        this.defaultCopy = isDefaultCopy(this.eventHandler);
+
 
         final long now = System.currentTimeMillis();
 
@@ -257,17 +729,76 @@ public class JsyncEngine {
         // Ready to start sync, the only part that matters is if we're syncing a director or a file
         //
 
-        final List<VirtualPathPair> deferredFiles = new ArrayList<>();
+        // with bulk listing, both trees are listed up front, so we only need to visit the filesystems for changes
+        // excluded and ignored directories are never descended into, so the listing can skip them as well (the target
+        // only skips ignored paths, since excluded paths on the target are deleted)
+        this.sourceTree = null;
+        this.targetTree = null;
+        if (this.bulkListing && sourcePathAbsFinal.isDirectory()) {
+            this.scanTrees(sourceVfs, sourcePathAbsFinal, targetVfs, targetPathAbsFinal);
+        }
 
-        if (sourcePathAbsFinal.isDirectory()) {
-            // as we process files, only a subset may require more advanced methods of detecting whether they were modified
-            // since that process could be "expensive", we keep a list of files on source/target that we will defer processing
-            // until we have a chance to do some bulk processing of checksums, etc.
-            this.syncDirectory(0, result, deferredFiles, sourceVfs, sourcePathAbsFinal, targetVfs, targetPathAbsFinal);
-        } else {
-            // we are only syncing a file, we may need to do some more expensive checks to determine if it needs to be updated
-            this.syncFile(result, deferredFiles, sourceVfs, sourcePathAbsFinal, targetVfs, targetPathAbsFinal);
-            this.syncDeferredFiles(result, deferredFiles, sourceVfs, targetVfs);
+        // any stat updates still pending must be done before we're finished, even if the sync fails, since they are for
+        // paths that were already transferred
+        Throwable failure = null;
+        try (JsyncDeferredFiles deferredFiles = new JsyncDeferredFiles(this.budget, this.tempDir)) {
+            // files with changes that need checksums are deferred, so they can be checksummed in bulk
+            if (sourcePathAbsFinal.isDirectory()) {
+                // listings can be prefetched ahead of the traversal, but only for filesystems that can do so concurrently
+                ExecutorService prefetchExecutor = null;
+                this.sourcePrefetcher = null;
+                this.targetPrefetcher = null;
+                if (this.prefetchDepth > 0 && this.sourceTree == null) {
+                    final AtomicInteger threadCount = new AtomicInteger();
+                    prefetchExecutor = Executors.newFixedThreadPool(Math.min(this.prefetchDepth, 4), r -> {
+                        final Thread thread = new Thread(r, "jsync-prefetch-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    if (sourceVfs.isConcurrentListingSupported()) {
+                        this.sourcePrefetcher = new JsyncListingPrefetcher(sourceVfs, prefetchExecutor, this.prefetchDepth);
+                    }
+                    if (targetVfs.isConcurrentListingSupported()) {
+                        this.targetPrefetcher = new JsyncListingPrefetcher(targetVfs, prefetchExecutor, this.prefetchDepth);
+                    }
+                }
+
+                try {
+                    // as we process files, only a subset may require more advanced methods of detecting whether they were modified
+                    // since that process could be "expensive", we keep a list of files on source/target that we will defer processing
+                    // until we have a chance to do some bulk processing of checksums, etc.
+                    this.syncDirectory(0, result, deferredFiles, sourceVfs, sourcePathAbsFinal, targetVfs, targetPathAbsFinal);
+                } finally {
+                    if (this.sourcePrefetcher != null) {
+                        this.sourcePrefetcher.clear();
+                        this.sourcePrefetcher = null;
+                    }
+                    if (this.targetPrefetcher != null) {
+                        this.targetPrefetcher.clear();
+                        this.targetPrefetcher = null;
+                    }
+                    if (prefetchExecutor != null) {
+                        prefetchExecutor.shutdown();
+                    }
+                }
+            } else {
+                // we are only syncing a file, we may need to do some more expensive checks to determine if it needs to be updated
+                this.syncFile(result, deferredFiles, sourceVfs, sourcePathAbsFinal, targetVfs, targetPathAbsFinal);
+                this.syncDeferredFiles(result, deferredFiles, sourceVfs, targetVfs);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            try {
+                this.flushStatUpdates(result, targetVfs);
+            } catch (IOException | RuntimeException e) {
+                // never mask why the sync failed
+                if (failure == null) {
+                    throw e;
+                }
+                failure.addSuppressed(e);
+            }
         }
 
         final long timeMillis = System.currentTimeMillis() - now;
@@ -277,7 +808,50 @@ public class JsyncEngine {
         return result;
     }
 
-    protected void syncFile(JsyncResult result, List<VirtualPathPair> deferredFiles, VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
+    protected void scanTrees(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
+        final long now = System.currentTimeMillis();
+        final VirtualPathMatchers sourcePrune = VirtualPathMatchers.concat(this.excludeMatchers, this.ignoreMatchers);
+
+        if (!targetPath.isDirectory() || targetPath.getStat() == null) {
+            // nothing exists on the target to list yet
+            this.sourceTree = sourceVfs.tree(sourcePath, sourcePrune);
+        } else if (sourceVfs == targetVfs && sourceVfs.isRemote()) {
+            // a single remote filesystem (e.g. one sftp channel) is not safe to use from multiple threads
+            this.sourceTree = sourceVfs.tree(sourcePath, sourcePrune);
+            this.targetTree = targetVfs.tree(targetPath, this.ignoreMatchers);
+        } else {
+            // list the target in the background while the source is listed on this thread, so the total time is
+            // whichever side is slower, rather than both of them added together
+            final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, "jsync-scan-target");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                final Future<VirtualFileTree> targetFuture = executor.submit(() -> targetVfs.tree(targetPath, this.ignoreMatchers));
+                this.sourceTree = sourceVfs.tree(sourcePath, sourcePrune);
+                this.targetTree = targetFuture.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while listing target tree " + targetPath);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw new IOException("Unable to list target tree " + targetPath, cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        log.debug("Listed source tree {} ({} paths) and target tree {} ({} paths) in {} ms", sourcePath, this.sourceTree.size(),
+            targetPath, (this.targetTree != null ? this.targetTree.size() : 0), (System.currentTimeMillis() - now));
+    }
+
+    protected void syncFile(JsyncResult result, JsyncDeferredFiles deferredFiles, VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
         // source needs to be a file
         if (sourcePath.isDirectory()) {
             throw new IllegalArgumentException("Source path " + sourcePath + " must be a file");
@@ -309,8 +883,22 @@ public class JsyncEngine {
 
         // do we need to sync the file content now?
         boolean fileWasTransferred = false;
+        if (changes.isMissing() && this.archivedTargetPaths.remove(targetPath.toString())) {
+            // already extracted from an archive, along with its permissions and modified time
+            this.eventHandler.willTransferFile(sourcePath, targetPath, changes);
+            result.incrementFilesCreated();
+            this.reindexTargetFile(targetPath, sourcePath.getStat());
+            return;
+        }
+
         if (changes.isContentModified(this.ignoreTimes)) {
-            this.transferFile(result, sourceVfs, sourcePath, targetVfs, targetPath, changes);
+            // a new file may have been renamed, or have duplicate content already on the target, which are both far
+            // cheaper to handle on the target than transferring the content again
+            if (!changes.isMissing()
+                    || (!this.moveRenamedFile(result, sourceVfs, sourcePath, targetVfs, targetPath, changes)
+                        && !this.copyDuplicateFile(result, sourceVfs, sourcePath, targetVfs, targetPath, changes))) {
+                this.transferFile(result, sourceVfs, sourcePath, targetVfs, targetPath, changes);
+            }
             fileWasTransferred = true;
         } else {
             if (log.isDebugEnabled()) log.debug("Verified file {} ({})", targetPath, changes);
@@ -322,31 +910,41 @@ public class JsyncEngine {
         }
     }
 
-    protected void syncDeferredFiles(JsyncResult result, List<VirtualPathPair> deferredFiles, VirtualFileSystem sourceVfs, VirtualFileSystem targetVfs) throws IOException {
-        // we need to calculate checksums for source and target files
-        final List<VirtualPath> sourceFiles = deferredFiles.stream()
-            .map(VirtualPathPair::getSource)
-            .collect(toList());
-
-        sourceVfs.checksums(this.negotiatedChecksum, sourceFiles);
+    protected void syncDeferredFiles(JsyncResult result, JsyncDeferredFiles deferredFiles, VirtualFileSystem sourceVfs, VirtualFileSystem targetVfs) throws IOException {
+        // any deferred files spilled to disk come back in chunks, so only one chunk is ever in memory
+        while (!deferredFiles.isEmpty()) {
+            final List<VirtualPathPair> chunk = deferredFiles.poll();
+
+            // we need to calculate checksums for source and target files
+            final List<VirtualPath> sourceFiles = chunk.stream()
+                .map(VirtualPathPair::getSource)
+                .collect(toList());
+
+            final List<VirtualPath> targetFiles = chunk.stream()
+                .map(VirtualPathPair::getTarget)
+                .collect(toList());
+
+            if (this.inodeOrder) {
+                // each side is read in its own inode order, and any transfers follow the order of the source
+                this.sortByInode(sourceVfs, sourceFiles);
+                this.sortByInode(targetVfs, targetFiles);
+                chunk.sort(Comparator.comparingLong(pair -> inodeOf(pair.getSource())));
+            }
 
-        final List<VirtualPath> targetFiles = deferredFiles.stream()
-            .map(VirtualPathPair::getTarget)
-            .collect(toList());
+            sourceVfs.checksums(this.negotiatedChecksum, sourceFiles);
 
-        targetVfs.checksums(this.negotiatedChecksum, targetFiles);
+            targetVfs.checksums(this.negotiatedChecksum, targetFiles);
 
-        result.incrementChecksums(targetFiles.size());
+            result.incrementChecksums(targetFiles.size());
 
-        for (VirtualPathPair pair : deferredFiles) {
-            // call sync file with deferred processing disabled
-            this.syncFile(result, null, sourceVfs, pair.getSource(), targetVfs, pair.getTarget());
+            for (VirtualPathPair pair : chunk) {
+                // call sync file with deferred processing disabled
+                this.syncFile(result, null, sourceVfs, pair.getSource(), targetVfs, pair.getTarget());
+            }
         }
-
-        deferredFiles.clear();
     }
 
-    protected void syncDirectory(int level, JsyncResult result, List<VirtualPathPair> deferredFiles, VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
+    protected void syncDirectory(int level, JsyncResult result, JsyncDeferredFiles deferredFiles, VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
 
         // source needs to be a directory
         if (!sourcePath.isDirectory()) {
@@ -365,6 +963,7 @@ public class JsyncEngine {
             // delete the target file
             log.debug("Deleting file {}", targetPath);
             targetVfs.rm(targetPath);
+            this.unindexTargetFile(targetPath);
             result.incrementFilesDeleted();
 
             // create a new target path that's a directory and will be "missing"
@@ -375,7 +974,12 @@ public class JsyncEngine {
         final JsyncPathChanges changes = this.detectChanges(sourceVfs, sourcePath, targetVfs, targetPath);
 
         if (changes.isMissing()) {
-            this.createDirectory(result, targetVfs, targetPath, false, false);
+            // the directory may have already been created along with its siblings
+            if (!this.createdTargetDirs.remove(targetPath.toString())) {
+                this.createDirectory(result, targetVfs, targetPath, false, false);
+            }
+            // a new directory with many small files within it is far faster to transfer as a single archive
+            this.transferArchive(result, sourceVfs, sourcePath, targetVfs, targetPath);
         } else {
             if (log.isDebugEnabled()) log.debug("Verified dir {} ({})", targetPath, changes.buildMessage());
         }
@@ -386,61 +990,69 @@ public class JsyncEngine {
 
 
         // we need a list of files in both directories, so we can see what to add/delete
-        final List<VirtualPath> sourceChildPaths = sourceVfs.ls(sourcePath).stream()
-            // apply filter to source files if they are on the exclude list
-            .filter(v -> {
-                if (this.excludeMatchers.matches(this.sourceRootPath, v)) {
-                    this.eventHandler.willExcludePath(v);
-                    return false;
-                }
-                return true;
-            })
-            .filter(v -> {
-                log.debug("Checking if should ignore: root={}, path={}", this.sourceRootPath, v);
-                if (this.ignoreMatchers.matches(this.sourceRootPath, v)) {
-                    this.eventHandler.willIgnoreSourcePath(v);
-                    return false;
-                }
-                return true;
-            })
-            // apply filter to excluding non-regular files (such as symlinks)
-            .filter(v -> {
-                switch (v.getStat().getType()) {
-                    case SYMLINK:
-                        log.warn("Excluding symlink {} (not supported at this time)", v);
-                        return false;
-                    case OTHER:
-                        log.warn("Excluding non-regular file {} (not supported at this time)", v);
-                        return false;
-                    default:
-                        return true;
-                }
-            })
-            .collect(toList());
+        // a directory we just created is known to be empty
+        try (JsyncSortedListing sourceListing = this.listSorted(sourceVfs, this.sourceTree != null ? this.sourceTree : this.archiveSourceTree, this.sourcePrefetcher, sourcePath, this::acceptSourceChild);
+             JsyncSortedListing targetListing = changes.isMissing() ? new JsyncSortedListing(targetPath, this.listingCaseSensitive, this.listingSpillThreshold, this.budget, this.tempDir)
+                 : this.listSorted(targetVfs, this.targetTree, this.targetPrefetcher, targetPath, this::acceptTargetChild)) {
+
+            if (sourceListing.isSpilled() || targetListing.isSpilled()) {
+                log.debug("Syncing huge dir {} ({} source paths, {} target paths) by merging sorted listings", sourcePath,
+                    sourceListing.size(), targetListing.size());
+                this.syncSortedChildren(level, result, deferredFiles, sourceVfs, sourceListing, targetVfs, targetPath, targetListing);
+            } else {
+                this.syncChildren(level, result, deferredFiles, sourceVfs, sourceListing.toList(), targetVfs, targetPath, targetListing.toList());
+            }
+        }
 
-        final List<VirtualPath> targetChildPaths = targetVfs.ls(targetPath).stream()
-            .filter(v -> {
-                if (this.ignoreMatchers.matches(this.targetRootPath, v)) {
-                    this.eventHandler.willIgnoreTargetPath(v);
-                    return false;
-                }
-                return true;
-            })
-            .collect(toList());
+        // the tree listed for an archive is only needed until the directory it was listed for is synced
+        if (this.archiveCheckedSourcePath != null && sourcePath.toFullPath().equals(this.archiveCheckedSourcePath.toFullPath())) {
+            this.archiveCheckedSourcePath = null;
+            this.archiveSourceTree = null;
+        }
+
+        // last step is to update the stat of the target dir
+        // To successfully preserve directory timestamps, you must set the directory attributes after you have finished touching every single file inside that directory.
+        if (changes.isStatModified()) {
+            // stat will need updated if the dir is new OR if the dir stats have changed
+            this.updateStat(result, sourceVfs, sourcePath, targetVfs, targetPath, changes, changes.isMissing());
+        }
+    }
+
+    protected void syncChildren(int level, JsyncResult result, JsyncDeferredFiles deferredFiles, VirtualFileSystem sourceVfs, List<VirtualPath> sourceChildPaths, VirtualFileSystem targetVfs, VirtualPath targetPath, List<VirtualPath> targetChildPaths) throws IOException {
+        // remember the files on the target, in case their content can be copied for new files
+        this.indexTargetFiles(targetChildPaths);
 
         // its better to work with all dirs first, then files, so we sort the files before we process them
         this.sortPaths(sourceChildPaths);
         this.sortPaths(targetChildPaths);
 
+        // any target paths missing on the source will be deleted, but if some of their files were simply renamed on
+        // the source, we want them available to be moved on the target before anything is deleted
+        // (the directories listed for them are remembered, so deleting them later on doesn't list them again)
+        final Map<String,List<VirtualPath>> renameListings = new HashMap<>();
+        final List<VirtualPath> renameCandidates = this.collectRenameCandidates(sourceVfs, sourceChildPaths, targetVfs, targetChildPaths, renameListings);
+
+        // join source and target children by name, rather than searching the other side for every child
+        final Map<String,VirtualPath> targetChildPathsByName = indexByName(targetVfs, targetChildPaths);
+
+        // any directories missing on the target are created together, rather than one at a time
+        this.createMissingDirectories(result, targetVfs, targetPath, sourceChildPaths, targetChildPathsByName);
+
+        // files with content to transfer in inode order wait until all of them are known (only their inodes are read)
+        final List<VirtualPathPair> inodeOrderedFiles = new ArrayList<>();
+
         // calculate paths new / changed / same
         CHILD_LOOP:
-        for (VirtualPath sourceChildPath : sourceChildPaths) {
+        for (int i = 0; i < sourceChildPaths.size(); i++) {
+            final VirtualPath sourceChildPath = sourceChildPaths.get(i);
+
+            // list the directories coming up next in the background, while we work on this one
+            if (this.sourcePrefetcher != null || this.targetPrefetcher != null) {
+                this.prefetchChildDirectories(sourceChildPaths, i+1, targetChildPathsByName, targetVfs);
+            }
 
             // find a matching target path entirely by name
-            VirtualPath targetChildPath = targetChildPaths.stream()
-                .filter(p -> targetVfs.isFileNameEqual(p.getName(), sourceChildPath.getName()))
-                .findFirst()
-                .orElse(null);
+            VirtualPath targetChildPath = targetChildPathsByName.get(toNameKey(targetVfs, sourceChildPath.getName()));
 
             // if the child path is missing, create it and have it take the type of the source
             if (targetChildPath == null) {
@@ -449,12 +1061,21 @@ public class JsyncEngine {
 
             if (sourceChildPath.isDirectory()) {
                 this.syncDirectory(level+1, result, deferredFiles, sourceVfs, sourceChildPath, targetVfs, targetChildPath);
+            } else if (this.inodeOrder && this.isTransferPending(deferredFiles, sourceVfs, sourceChildPath, targetVfs, targetChildPath)) {
+                inodeOrderedFiles.add(new VirtualPathPair(sourceChildPath, targetChildPath));
             } else {
                 // NOTE: it's possible syncFile will "defer" processing if a checksum is required
                 this.syncFile(result, deferredFiles, sourceVfs, sourceChildPath, targetVfs, targetChildPath);
             }
         }
 
+        if (!inodeOrderedFiles.isEmpty()) {
+            this.sortPairsByInode(sourceVfs, inodeOrderedFiles);
+            for (VirtualPathPair pair : inodeOrderedFiles) {
+                this.syncFile(result, deferredFiles, sourceVfs, pair.getSource(), targetVfs, pair.getTarget());
+            }
+        }
+
         // handle any deferred files that need to be processed
         if (level == 0 || deferredFiles.size() >= this.maxFilesMaybeModifiedLimit) {
             this.syncDeferredFiles(result, deferredFiles, sourceVfs, targetVfs);
@@ -462,80 +1083,296 @@ public class JsyncEngine {
 
         // handle any paths that need to be deleted
         if (this.delete) {
+            final Map<String,VirtualPath> sourceChildPathsByName = indexByName(sourceVfs, sourceChildPaths);
+            final List<VirtualPath> removals = new ArrayList<>();
             for (VirtualPath targetChildPath : targetChildPaths) {
                 // find a matching source path entirely by name
-                final VirtualPath sourceChildPath = sourceChildPaths.stream()
-                    .filter(p -> sourceVfs.isFileNameEqual(p.getName(), targetChildPath.getName()))
-                    .findFirst()
-                    .orElse(null);
+                final VirtualPath sourceChildPath = sourceChildPathsByName.get(toNameKey(sourceVfs, targetChildPath.getName()));
 
                 if (sourceChildPath == null) {
-                    if (targetChildPath.isDirectory()) {
-                        // NOTE: this method handles recursion
-                        this.deleteDirectory(0, result, targetVfs, targetChildPath);
+                    this.collectRemoval(result, targetVfs, targetChildPath, renameListings, removals);
+                }
+            }
+            this.removePaths(result, targetVfs, removals);
+        }
+
+        // anything not moved by now has been deleted
+        this.purgeRenameCandidates(renameCandidates);
+    }
+
+    protected void syncSortedChildren(int level, JsyncResult result, JsyncDeferredFiles deferredFiles, VirtualFileSystem sourceVfs, JsyncSortedListing sourceListing, VirtualFileSystem targetVfs, VirtualPath targetPath, JsyncSortedListing targetListing) throws IOException {
+        final List<VirtualPath> sourceGroup = new ArrayList<>();
+        final List<VirtualPath> targetGroup = new ArrayList<>();
+        final List<VirtualPath> extraTargetPaths = new ArrayList<>();
+
+        try (JsyncSortedListing.Cursor sourceCursor = sourceListing.cursor();
+             JsyncSortedListing.Cursor targetCursor = targetListing.cursor()) {
+
+            // both listings are in the same name order, so they are joined by stepping through them together, one
+            // group of names that compare the same at a time (names only differing in case may need to be grouped)
+            while (sourceCursor.peek() != null || targetCursor.peek() != null) {
+                final String sourceKey = sourceCursor.peek() != null ? sourceListing.toKey(sourceCursor.peek().getName()) : null;
+                final String targetKey = targetCursor.peek() != null ? targetListing.toKey(targetCursor.peek().getName()) : null;
+                final String key = sourceKey == null ? targetKey
+                    : (targetKey == null || sourceKey.compareTo(targetKey) <= 0 ? sourceKey : targetKey);
+
+                sourceGroup.clear();
+                targetGroup.clear();
+                sourceCursor.takeGroup(key, sourceGroup);
+                targetCursor.takeGroup(key, targetGroup);
+
+                for (VirtualPath sourceChildPath : sourceGroup) {
+                    // find a matching target path entirely by name
+                    VirtualPath targetChildPath = findByName(targetVfs, targetGroup, sourceChildPath.getName());
+
+                    // if the child path is missing, create it and have it take the type of the source
+                    if (targetChildPath == null) {
+                        targetChildPath = targetPath.resolve(sourceChildPath.getName(), sourceChildPath.isDirectory(), null);
+                    }
+
+                    if (sourceChildPath.isDirectory()) {
+                        this.syncDirectory(level+1, result, deferredFiles, sourceVfs, sourceChildPath, targetVfs, targetChildPath);
                     } else {
-                        this.eventHandler.willDeleteFile(targetChildPath, false);
-                        targetVfs.rm(targetChildPath);
-                        result.incrementFilesDeleted();
+                        // NOTE: it's possible syncFile will "defer" processing if a checksum is required
+                        this.syncFile(result, deferredFiles, sourceVfs, sourceChildPath, targetVfs, targetChildPath);
+                    }
+
+                    // deferred files can't be allowed to pile up either
+                    if (deferredFiles.size() >= this.maxFilesMaybeModifiedLimit) {
+                        this.syncDeferredFiles(result, deferredFiles, sourceVfs, targetVfs);
+                    }
+                }
+
+                // queue any paths that need to be deleted
+                if (this.delete) {
+                    for (VirtualPath targetChildPath : targetGroup) {
+                        if (findByName(sourceVfs, sourceGroup, targetChildPath.getName()) == null) {
+                            extraTargetPaths.add(targetChildPath);
+                            if (extraTargetPaths.size() >= this.batchSize) {
+                                this.removeExtraPaths(result, deferredFiles, sourceVfs, targetVfs, extraTargetPaths);
+                            }
+                        }
                     }
                 }
             }
         }
 
-        // last step is to update the stat of the target dir
-        // To successfully preserve directory timestamps, you must set the directory attributes after you have finished touching every single file inside that directory.
-        if (changes.isStatModified()) {
-            // stat will need updated if the dir is new OR if the dir stats have changed
-            this.updateStat(result, sourceVfs, sourcePath, targetVfs, targetPath, changes, changes.isMissing());
-        }
+        this.removeExtraPaths(result, deferredFiles, sourceVfs, targetVfs, extraTargetPaths);
     }
 
-    protected JsyncPathChanges detectChanges(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
-        // source "stats" MUST exist
-        Objects.requireNonNull(sourcePath, "sourceFile cannot be null");
+    protected void removeExtraPaths(JsyncResult result, JsyncDeferredFiles deferredFiles, VirtualFileSystem sourceVfs, VirtualFileSystem targetVfs, List<VirtualPath> extraTargetPaths) throws IOException {
+        if (extraTargetPaths.isEmpty()) {
+            return;
+        }
 
-        if (sourcePath.getStat() == null) {
-            log.error("Source file {} missing 'stat' (it must not exist yet on source)", sourcePath);
-            throw new IllegalArgumentException("sourceFile must have a 'stat' object");
+        // the files deferred so far are synced before a batch of deletes, the same order syncChildren uses at the top
+        // level (or once the deferred files hit their limit), otherwise they keep waiting to be checksummed in bulk
+        if (!deferredFiles.isEmpty()) {
+            this.syncDeferredFiles(result, deferredFiles, sourceVfs, targetVfs);
         }
 
-        final VirtualFileStat sourceStat = sourcePath.getStat();
-        // the changes we calculate
-        boolean missing = false;
-        boolean size = false;
-        boolean timestamps = false;
-        boolean ownership = false;
-        boolean permissions = false;
-        Boolean checksums = null;           // unknown
-        final VirtualFileStat targetStat;
+        final List<VirtualPath> removals = new ArrayList<>();
+        for (VirtualPath targetChildPath : extraTargetPaths) {
+            this.collectRemoval(result, targetVfs, targetChildPath, null, removals);
+        }
+        this.removePaths(result, targetVfs, removals);
+        extraTargetPaths.clear();
+    }
 
-        // if the targetFile "stat" are null then we know that file/dir is missing
-        if (targetPath == null || targetPath.getStat() == null) {
-            log.trace("Target path {} missing (new dir/file)", targetPath);
-            // we can immediately return the changes since the stat object doesn't exist
-            //return new JsyncPathChanges(sourcePath.isDirectory(), true, false, false, false, false, null);
-            // create a default stat for comparisons below
-            targetStat = new VirtualFileStat(sourceStat.getType(), -1L, 0, 0, 0);
-            missing = true;
+    protected void collectRemoval(JsyncResult result, VirtualFileSystem targetVfs, VirtualPath targetChildPath, Map<String,List<VirtualPath>> listings, List<VirtualPath> removals) throws IOException {
+        if (this.movedTargetPaths.remove(targetChildPath.toString())) {
+            // already moved to its new path, nothing left to delete
+            return;
+        }
+        if (targetChildPath.isDirectory() && this.fastDelete) {
+            // NOTE: this method handles recursion
+            this.deleteDirectory(0, result, targetVfs, targetChildPath);
+        } else if (targetChildPath.isDirectory()) {
+            // NOTE: this method handles recursion
+            this.collectDirectoryRemovals(0, targetVfs, null, listings, targetChildPath, removals);
         } else {
-            targetStat = targetPath.getStat();
+            this.eventHandler.willDeleteFile(targetChildPath, false);
+            removals.add(targetChildPath);
         }
+    }
 
-        // are file sizes different? if they are then this is a cheap way of figuring out a sync is needed
-        // only try to compare sizes if they are not dirs
-        if (!missing && !sourcePath.isDirectory()) {
-            if (sourceStat.getSize() != targetStat.getSize()) {
-                log.trace("Source path {} size {} != target size {} (modified file)", sourcePath, sourceStat.getSize(), targetStat.getSize());
-                size = true;
+    static protected boolean isSameOrDescendant(VirtualPath path, VirtualPath dir) {
+        final String fullPath = path.toFullPath();
+        final String dirPath = dir.toFullPath();
+        return fullPath.equals(dirPath)
+            || (fullPath.startsWith(dirPath) && (dirPath.endsWith("/") || fullPath.charAt(dirPath.length()) == '/'));
+    }
+
+    static protected boolean isPartialFile(VirtualPath path) {
+        final String name = path.getName();
+        return !path.isDirectory() && name.startsWith(".") && name.endsWith(PARTIAL_SUFFIX) && name.length() > PARTIAL_SUFFIX.length() + 1;
+    }
+
+    static protected VirtualPath findByName(VirtualFileSystem vfs, List<VirtualPath> paths, String name) {
+        final String key = toNameKey(vfs, name);
+        for (VirtualPath path : paths) {
+            if (toNameKey(vfs, path.getName()).equals(key)) {
+                return path;
             }
         }
+        return null;
+    }
 
-        // if we can take modified timestamps into account, this is a cheap way of figuring out a file changed
-        // due to lack of millis precision in filesystems, we need to allow a larger delta of difference
-        if (missing
-                || (Math.abs(sourceStat.getModifiedTime() - targetStat.getModifiedTime()) > 2000L)) {
-            log.trace("Source path {} modified time {} != target modified time {} (maybe modified file)", sourcePath, sourceStat.getModifiedTime(), targetStat.getModifiedTime());
-            timestamps = true;
+    protected boolean acceptSourceChild(VirtualPath v) {
+        // apply filter to source files if they are on the exclude list
+        if (this.excludeMatchers.matches(this.sourceRootPath, v)) {
+            this.eventHandler.willExcludePath(v);
+            return false;
+        }
+        log.debug("Checking if should ignore: root={}, path={}", this.sourceRootPath, v);
+        if (this.ignoreMatchers.matches(this.sourceRootPath, v)) {
+            this.eventHandler.willIgnoreSourcePath(v);
+            return false;
+        }
+        // apply filter to excluding non-regular files (such as symlinks)
+        switch (v.getStat().getType()) {
+            case SYMLINK:
+                log.warn("Excluding symlink {} (not supported at this time)", v);
+                return false;
+            case OTHER:
+                log.warn("Excluding non-regular file {} (not supported at this time)", v);
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    protected boolean acceptTargetChild(VirtualPath v) {
+        // partial files are only ever resumed (or replaced) by the transfer of their file, never synced or deleted
+        if (this.resume && isPartialFile(v)) {
+            return false;
+        }
+        if (this.ignoreMatchers.matches(this.targetRootPath, v)) {
+            this.eventHandler.willIgnoreTargetPath(v);
+            return false;
+        }
+        return true;
+    }
+
+    protected JsyncSortedListing listSorted(VirtualFileSystem vfs, VirtualFileTree tree, JsyncListingPrefetcher prefetcher, VirtualPath path, Predicate<VirtualPath> filter) throws IOException {
+        final JsyncSortedListing listing = new JsyncSortedListing(path, this.listingCaseSensitive, this.listingSpillThreshold, this.budget, this.tempDir);
+        try {
+            final VirtualPathVisitor visitor = v -> {
+                if (filter.test(v)) {
+                    listing.add(v);
+                }
+            };
+            List<VirtualPath> childPaths = tree != null ? tree.ls(path) : null;
+            if (prefetcher != null) {
+                if (childPaths == null) {
+                    childPaths = prefetcher.take(path);
+                } else {
+                    // a listing prefetched before the tree was known must not keep holding its place in the buffer
+                    prefetcher.cancel(path);
+                }
+            }
+            if (childPaths != null) {
+                for (VirtualPath childPath : childPaths) {
+                    visitor.visit(childPath);
+                }
+            } else {
+                // streamed, so a huge directory is never entirely in memory at once
+                vfs.ls(path, visitor);
+            }
+            return listing;
+        } catch (IOException | RuntimeException e) {
+            listing.close();
+            throw e;
+        }
+    }
+
+    protected List<VirtualPath> ls(VirtualFileSystem vfs, VirtualFileTree tree, JsyncListingPrefetcher prefetcher, VirtualPath path) throws IOException {
+        if (tree != null) {
+            final List<VirtualPath> childPaths = tree.ls(path);
+            if (childPaths != null) {
+                if (prefetcher != null) {
+                    prefetcher.cancel(path);
+                }
+                return childPaths;
+            }
+        }
+        if (prefetcher != null) {
+            final List<VirtualPath> childPaths = prefetcher.take(path);
+            if (childPaths != null) {
+                return childPaths;
+            }
+        }
+        return vfs.ls(path);
+    }
+
+    protected void prefetchChildDirectories(List<VirtualPath> sourceChildPaths, int fromIndex, Map<String,VirtualPath> targetChildPathsByName, VirtualFileSystem targetVfs) {
+        // the next directories the traversal will descend into are those which follow the current child
+        for (int i = fromIndex; i < sourceChildPaths.size(); i++) {
+            final VirtualPath sourceChildPath = sourceChildPaths.get(i);
+            if (!sourceChildPath.isDirectory()) {
+                break;      // directories are sorted first, so there are no more
+            }
+            if (this.sourcePrefetcher != null && !this.isArchiveListed(sourceChildPath) && !this.sourcePrefetcher.prefetch(sourceChildPath)) {
+                break;      // buffer is full
+            }
+            if (this.targetPrefetcher != null) {
+                // only existing directories on the target will ever be listed
+                final VirtualPath targetChildPath = targetChildPathsByName.get(toNameKey(targetVfs, sourceChildPath.getName()));
+                if (targetChildPath != null && targetChildPath.isDirectory() && !this.targetPrefetcher.prefetch(targetChildPath)) {
+                    break;  // buffer is full
+                }
+            }
+        }
+    }
+
+    protected boolean isArchiveListed(VirtualPath sourcePath) {
+        // directories within a new directory checked for an archive were already listed along with its tree
+        return this.archiveSourceTree != null && this.archiveSourceTree.ls(sourcePath) != null;
+    }
+
+    protected JsyncPathChanges detectChanges(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
+        // source "stats" MUST exist
+        Objects.requireNonNull(sourcePath, "sourceFile cannot be null");
+
+        if (sourcePath.getStat() == null) {
+            log.error("Source file {} missing 'stat' (it must not exist yet on source)", sourcePath);
+            throw new IllegalArgumentException("sourceFile must have a 'stat' object");
+        }
+
+        final VirtualFileStat sourceStat = sourcePath.getStat();
+        // the changes we calculate (checksums are unknown until both sides have one)
+        int changes = sourcePath.isDirectory() ? JsyncPathChanges.DIRECTORY : 0;
+        boolean missing = false;
+        final VirtualFileStat targetStat;
+
+        // if the targetFile "stat" are null then we know that file/dir is missing
+        if (targetPath == null || targetPath.getStat() == null) {
+            log.trace("Target path {} missing (new dir/file)", targetPath);
+            // we can immediately return the changes since the stat object doesn't exist
+            //return new JsyncPathChanges(sourcePath.isDirectory(), true, false, false, false, false, null);
+            // create a default stat for comparisons below
+            targetStat = new VirtualFileStat(sourceStat.getType(), -1L, 0, 0, 0);
+            missing = true;
+            changes |= JsyncPathChanges.MISSING;
+        } else {
+            targetStat = targetPath.getStat();
+        }
+
+        // are file sizes different? if they are then this is a cheap way of figuring out a sync is needed
+        // only try to compare sizes if they are not dirs
+        if (!missing && !sourcePath.isDirectory()) {
+            if (sourceStat.getSize() != targetStat.getSize()) {
+                log.trace("Source path {} size {} != target size {} (modified file)", sourcePath, sourceStat.getSize(), targetStat.getSize());
+                changes |= JsyncPathChanges.SIZE;
+            }
+        }
+
+        // if we can take modified timestamps into account, this is a cheap way of figuring out a file changed
+        // due to lack of millis precision in filesystems, we need to allow a larger delta of difference
+        if (missing
+                || (Math.abs(sourceStat.getModifiedTime() - targetStat.getModifiedTime()) > 2000L)) {
+            log.trace("Source path {} modified time {} != target modified time {} (maybe modified file)", sourcePath, sourceStat.getModifiedTime(), targetStat.getModifiedTime());
+            changes |= JsyncPathChanges.TIMESTAMPS;
         }
 
         if (!this.skipPermissions) {
@@ -547,53 +1384,59 @@ public class JsyncEngine {
                     || (sourceVfs.getStatModel() == StatModel.POSIX && sourceStat.getPermissions() != targetStat.getPermissions())
                     || (sourceVfs.getStatModel() == StatModel.BASIC && !isOwnerPermissionEqual(sourceStat.getPermissions(), targetStat.getPermissions()))) {
                     log.trace("Source path {} perms {} != target perms {}", sourcePath, sourceStat.getPermissions(), targetStat.getPermissions());
-                    permissions = true;
+                    changes |= JsyncPathChanges.PERMISSIONS;
                 }
             }
         }
 
         // if we have "cksum" values on both sides, we can compare those
-        if (sourceStat.getCksum() != null && targetStat.getCksum() != null) {
-            if (!sourceStat.getCksum().equals(targetStat.getCksum())) {
+        if (sourceStat.hasCksum() && targetStat.hasCksum()) {
+            changes = withChecksum(changes, !sourceStat.isCksumEqual(targetStat));
+            if ((changes & JsyncPathChanges.CHECKSUM) != 0) {
                 log.trace("Source path {} cksum {} != target chksum {} (modified file)", sourcePath, sourceStat.getCksum(), targetStat.getCksum());
-                checksums = true;
-            } else {
-                checksums = false;
             }
         }
 
         // if we have "md5" values on both sides, we can compare those
-        if (sourceStat.getMd5() != null && targetStat.getMd5() != null) {
-            if (!sourceStat.getMd5().equalsIgnoreCase(targetStat.getMd5())) {
+        if (sourceStat.getMd5Digest() != null && targetStat.getMd5Digest() != null) {
+            changes = withChecksum(changes, !sourceStat.isMd5Equal(targetStat));
+            if ((changes & JsyncPathChanges.CHECKSUM) != 0) {
                 log.trace("Source path {} md5 {} != target md5 {} (modified file)", sourcePath, sourceStat.getMd5(), targetStat.getMd5());
-                checksums = true;
-            } else {
-                checksums = false;
             }
         }
 
         // if we have "sha1" values on both sides, we can compare those
-        if (sourceStat.getSha1() != null && targetStat.getSha1() != null) {
-            if (!sourceStat.getSha1().equalsIgnoreCase(targetStat.getSha1())) {
+        if (sourceStat.getSha1Digest() != null && targetStat.getSha1Digest() != null) {
+            changes = withChecksum(changes, !sourceStat.isSha1Equal(targetStat));
+            if ((changes & JsyncPathChanges.CHECKSUM) != 0) {
                 log.trace("Source path {} sha1 {} != target sha1 {} (modified file)", sourcePath, sourceStat.getSha1(), targetStat.getSha1());
-                checksums = true;
-            } else {
-                checksums = false;
             }
         }
 
-        return new JsyncPathChanges(sourcePath.isDirectory(), missing, size, timestamps, permissions, ownership, checksums);
+        return JsyncPathChanges.of(changes);
+    }
+
+    static private int withChecksum(int changes, boolean modified) {
+        // the last checksum compared wins, like it always has
+        changes |= JsyncPathChanges.CHECKSUM_KNOWN;
+        return modified ? changes | JsyncPathChanges.CHECKSUM : changes & ~JsyncPathChanges.CHECKSUM;
     }
 
     protected void transferFile(JsyncResult result, VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile, JsyncPathChanges changes) throws IOException {
         // if the target file has no "stats", then we have no info on it yet, and know we're going to create it fresh
         this.eventHandler.willTransferFile(sourceFile, targetFile, changes);
 
-        // transfer the file
-        try (InputStream input = sourceVfs.readFile(sourceFile)) {
-            try (OutputStream output = targetVfs.writeStream(targetFile)) {
-                // by delegating to an event handler, a user of our library can provide progress, do their own copy, etc.
-                this.eventHandler.doCopy(input, output, sourceFile.getStat().getSize());
+        // transfer only the appended tail or the modified blocks of the file if possible, otherwise the entire file
+        if (!this.transferFileAppend(sourceVfs, sourceFile, targetVfs, targetFile, changes)
+                && !this.transferFileDelta(sourceVfs, sourceFile, targetVfs, targetFile, changes)
+                && !this.transferFileResumable(sourceVfs, sourceFile, targetVfs, targetFile, changes)
+                && !this.transferFileCompressed(sourceVfs, sourceFile, targetVfs, targetFile)
+                && !this.transferFileDirect(sourceVfs, sourceFile, targetVfs, targetFile)) {
+            try (InputStream input = sourceVfs.readFile(sourceFile)) {
+                try (OutputStream output = targetVfs.writeStream(targetFile)) {
+                    // by delegating to an event handler, a user of our library can provide progress, do their own copy, etc.
+                    this.eventHandler.doCopy(input, output, sourceFile.getStat().getSize());
+                }
             }
         }
 
@@ -603,6 +1446,470 @@ public class JsyncEngine {
         } else {
             result.incrementFilesUpdated();
         }
+
+        // the target now has the content of the source (any checksums calculated on the source later also apply)
+        this.reindexTargetFile(targetFile, sourceFile.getStat());
+    }
+
+    protected boolean transferFileDirect(VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile) throws IOException {
+        if (!this.directCopy || !this.defaultCopy || !targetVfs.isDirectCopySupported(sourceVfs)) {
+            return false;
+        }
+
+        log.trace("Copying {} directly to {}", sourceFile, targetFile);
+
+        targetVfs.directCopy(sourceVfs, sourceFile, targetFile);
+
+        return true;
+    }
+
+    static protected boolean isDefaultCopy(JsyncEventHandler eventHandler) {
+        // an event handler that overrides copying expects to see every byte (e.g. for progress), so we must not bypass it
+        try {
+            return eventHandler.getClass().getMethod("doCopy", InputStream.class, OutputStream.class, long.class)
+                .getDeclaringClass() == DefaultJsyncEventHandler.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    protected boolean transferFileCompressed(VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile) throws IOException {
+        // the content is compressed and decompressed by the filesystems themselves, so it never passes through doCopy
+        if (!this.compress
+                || !this.defaultCopy
+                || (!sourceVfs.isRemote() && !targetVfs.isRemote())
+                || !sourceVfs.isCompressionSupported()
+                || !targetVfs.isCompressionSupported()
+                || !this.compressionPolicy.isCompressible(sourceVfs, sourceFile)) {
+            return false;
+        }
+
+        log.debug("Transferring {} compressed", sourceFile);
+
+        // compressed on one filesystem and decompressed on the other at the same time
+        this.pipe("compressed " + sourceFile,
+            output -> sourceVfs.readFileCompressed(sourceFile, output),
+            input -> targetVfs.writeFileCompressed(input, targetFile));
+
+        return true;
+    }
+
+    protected boolean transferFileAppend(VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile, JsyncPathChanges changes) throws IOException {
+        if (!this.appendVerify || changes.isMissing() || targetFile.getStat() == null
+                || !sourceVfs.isRandomAccessSupported() || !targetVfs.isRandomAccessSupported()) {
+            return false;
+        }
+
+        final long sourceSize = sourceFile.getStat().getSize();
+        final long targetSize = targetFile.getStat().getSize();
+
+        if (targetSize <= 0 || sourceSize <= targetSize) {
+            return false;
+        }
+
+        // the target must be exactly the same as the start of the source
+        final String sourcePrefixChecksum;
+        final String targetChecksum;
+        try {
+            sourcePrefixChecksum = sourceVfs.prefixChecksum(this.negotiatedChecksum, sourceFile, targetSize);
+            targetChecksum = targetVfs.prefixChecksum(this.negotiatedChecksum, targetFile, targetSize);
+        } catch (UnsupportedChecksumException e) {
+            log.warn("Prefix checksums not supported for {} (will transfer entire file instead): {}", targetFile, e.getMessage());
+            return false;
+        }
+
+        if (!sourcePrefixChecksum.equalsIgnoreCase(targetChecksum)) {
+            log.debug("File {} is not a prefix of source {} (will not append)", targetFile, sourceFile);
+            return false;
+        }
+
+        final long length = sourceSize - targetSize;
+
+        try (InputStream input = sourceVfs.readFile(sourceFile, targetSize)) {
+            try (OutputStream output = targetVfs.writeStream(targetFile, targetSize)) {
+                this.eventHandler.doCopy(new BoundedInputStream(input, length), output, length);
+            }
+        }
+
+        log.debug("Appended {} bytes to file {}", length, targetFile);
+
+        return true;
+    }
+
+    protected boolean transferFileResumable(VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile, JsyncPathChanges changes) throws IOException {
+        if (!this.resume || !sourceVfs.isRandomAccessSupported() || !targetVfs.isRandomAccessSupported()) {
+            return false;
+        }
+
+        final long sourceSize = sourceFile.getStat().getSize();
+        if (sourceSize < this.resumeMinSize) {
+            return false;
+        }
+
+        final VirtualPath partialFile = new VirtualPath(targetFile.getParentPath(), "." + targetFile.getName() + PARTIAL_SUFFIX, false, null);
+
+        // a previous transfer may have been interrupted, which we can continue if it's a prefix of the source
+        long offset = 0L;
+        final VirtualPath existingPartialFile = targetVfs.exists(partialFile);
+        if (existingPartialFile != null && !existingPartialFile.isDirectory()) {
+            final long partialSize = existingPartialFile.getStat().getSize();
+            if (partialSize > 0 && partialSize <= sourceSize) {
+                try {
+                    final String sourcePrefixChecksum = sourceVfs.prefixChecksum(this.negotiatedChecksum, sourceFile, partialSize);
+                    final String partialChecksum = targetVfs.prefixChecksum(this.negotiatedChecksum, existingPartialFile, partialSize);
+                    if (sourcePrefixChecksum.equalsIgnoreCase(partialChecksum)) {
+                        offset = partialSize;
+                    }
+                } catch (UnsupportedChecksumException e) {
+                    log.warn("Prefix checksums not supported for {} (will restart transfer): {}", partialFile, e.getMessage());
+                }
+            }
+        }
+
+        if (offset > 0) {
+            log.debug("Resuming transfer of file {} at {} of {} bytes", targetFile, offset, sourceSize);
+        }
+
+        final long length = sourceSize - offset;
+
+        try (InputStream input = sourceVfs.readFile(sourceFile, offset)) {
+            try (OutputStream output = (offset > 0 ? targetVfs.writeStream(partialFile, offset) : targetVfs.writeStream(partialFile))) {
+                this.eventHandler.doCopy(input, output, length);
+            }
+        }
+
+        // finally we can move the completed file into place
+        try {
+            targetVfs.mv(partialFile, targetFile);
+        } catch (IOException e) {
+            // some filesystems will not replace an existing file (e.g. sftp servers w/o posix rename)
+            if (changes.isMissing()) {
+                throw e;
+            }
+            targetVfs.rm(targetFile);
+            targetVfs.mv(partialFile, targetFile);
+        }
+
+        return true;
+    }
+
+    protected boolean transferFileDelta(VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile, JsyncPathChanges changes) throws IOException {
+        if (!this.delta || this.deltaChecksum == null || changes.isMissing() || targetFile.getStat() == null
+                || !sourceVfs.isRandomAccessSupported() || !targetVfs.isRandomAccessSupported()) {
+            return false;
+        }
+
+        final long sourceSize = sourceFile.getStat().getSize();
+        final long targetSize = targetFile.getStat().getSize();
+
+        if (sourceSize < this.deltaMinSize || targetSize < this.deltaMinSize) {
+            return false;
+        }
+
+        // very large files use bigger blocks, so hashing them remotely never needs an unbounded number of blocks
+        final long blockSize = deltaBlockSize(Math.max(sourceSize, targetSize), this.deltaBlockSize);
+
+        final List<String> sourceBlocks;
+        final List<String> targetBlocks;
+        try {
+            sourceBlocks = sourceVfs.blockChecksums(this.deltaChecksum, sourceFile, blockSize);
+            targetBlocks = targetVfs.blockChecksums(this.deltaChecksum, targetFile, blockSize);
+        } catch (UnsupportedChecksumException e) {
+            log.warn("Block checksums not supported for {} (will transfer entire file instead): {}", targetFile, e.getMessage());
+            return false;
+        }
+
+        // write each consecutive run of modified blocks, any blocks beyond the end of the target are always modified.
+        // the source is opened before the target, so its read permit is taken before the write permit (the same order
+        // as every other copy), otherwise concurrent transfers on a device limiter could each wait on the other
+        int blocksModified = 0;
+        try (SeekableByteChannel sourceChannel = sourceVfs.openChannel(sourceFile, false);
+             SeekableByteChannel targetChannel = targetVfs.openChannel(targetFile, true)) {
+            // NOTE: the streams are never closed, since that would close the channels we keep using
+            final InputStream input = Channels.newInputStream(sourceChannel);
+            final OutputStream output = Channels.newOutputStream(targetChannel);
+            int i = 0;
+            while (i < sourceBlocks.size()) {
+                if (i < targetBlocks.size() && sourceBlocks.get(i).equals(targetBlocks.get(i))) {
+                    i++;
+                    continue;
+                }
+
+                final int startBlock = i;
+                while (i < sourceBlocks.size() && (i >= targetBlocks.size() || !sourceBlocks.get(i).equals(targetBlocks.get(i)))) {
+                    i++;
+                }
+
+                final long offset = startBlock * blockSize;
+                final long length = Math.min(i * blockSize, sourceSize) - offset;
+                blocksModified += i - startBlock;
+
+                sourceChannel.position(offset);
+                targetChannel.position(offset);
+                this.eventHandler.doCopy(new BoundedInputStream(input, length), output, length);
+            }
+
+            // if the source shrank, whatever is beyond its end is no longer needed
+            if (sourceSize < targetSize) {
+                targetChannel.truncate(sourceSize);
+            }
+        }
+
+        log.debug("Delta transferred {} of {} blocks of file {}", blocksModified, sourceBlocks.size(), targetFile);
+
+        return true;
+    }
+
+    protected boolean moveRenamedFile(JsyncResult result, VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile, JsyncPathChanges changes) throws IOException {
+        if (this.renameCandidatesBySize == null) {
+            return false;
+        }
+
+        final VirtualFileStat sourceStat = sourceFile.getStat();
+
+        final List<VirtualPath> candidateFiles = this.renameCandidatesBySize.get(sourceStat.getSize());
+        if (candidateFiles == null || candidateFiles.isEmpty()) {
+            return false;
+        }
+
+        // a renamed file retains its modified time, which is a cheap way to narrow down candidates before checksums
+        final List<VirtualPath> candidateFilesByTimestamp = candidateFiles.stream()
+            .filter(v -> Math.abs(sourceStat.getModifiedTime() - v.getStat().getModifiedTime()) <= 2000L)
+            .collect(toList());
+
+        final VirtualPath renamedFile = this.findDuplicateFile(result, sourceVfs, sourceFile, targetVfs, candidateFilesByTimestamp);
+
+        if (renamedFile == null) {
+            return false;
+        }
+
+        this.eventHandler.willMoveFile(sourceFile, renamedFile, targetFile, changes);
+
+        try {
+            targetVfs.mv(renamedFile, targetFile);
+        } catch (IOException e) {
+            // not fatal, we can still transfer the file the normal way
+            log.warn("Failed to move {} to {}: {} (will transfer file instead)", renamedFile, targetFile, e.getMessage());
+            return false;
+        }
+
+        // the old path must no longer be a candidate, nor be deleted later on
+        candidateFiles.remove(renamedFile);
+        this.movedTargetPaths.add(renamedFile.toString());
+
+        result.incrementFilesCreated();
+        result.incrementFilesMoved();
+
+        this.unindexTargetFile(renamedFile);
+        this.reindexTargetFile(targetFile, sourceStat);
+
+        return true;
+    }
+
+    protected List<VirtualPath> collectRenameCandidates(VirtualFileSystem sourceVfs, List<VirtualPath> sourceChildPaths, VirtualFileSystem targetVfs, List<VirtualPath> targetChildPaths, Map<String,List<VirtualPath>> listings) throws IOException {
+        if (this.renameCandidatesBySize == null) {
+            return Collections.emptyList();
+        }
+
+        final List<VirtualPath> renameCandidates = new ArrayList<>();
+        final Map<String,VirtualPath> sourceChildPathsByName = indexByName(sourceVfs, sourceChildPaths);
+
+        for (VirtualPath targetChildPath : targetChildPaths) {
+            final boolean missingOnSource = !sourceChildPathsByName.containsKey(toNameKey(sourceVfs, targetChildPath.getName()));
+
+            if (missingOnSource) {
+                // an entire directory could have been renamed, so every file within it is a candidate
+                this.collectFiles(targetVfs, targetChildPath, listings, renameCandidates);
+            }
+        }
+
+        for (VirtualPath renameCandidate : renameCandidates) {
+            this.renameCandidatesBySize.computeIfAbsent(renameCandidate.getStat().getSize(), k -> new ArrayList<>()).add(renameCandidate);
+        }
+
+        return renameCandidates;
+    }
+
+    protected void purgeRenameCandidates(List<VirtualPath> renameCandidates) {
+        if (this.renameCandidatesBySize == null) {
+            return;
+        }
+
+        for (VirtualPath renameCandidate : renameCandidates) {
+            final List<VirtualPath> candidateFiles = this.renameCandidatesBySize.get(renameCandidate.getStat().getSize());
+            if (candidateFiles != null) {
+                candidateFiles.remove(renameCandidate);
+            }
+            this.movedTargetPaths.remove(renameCandidate.toString());
+        }
+    }
+
+    static protected String toNameKey(VirtualFileSystem vfs, String name) {
+        // keys must compare the same way as vfs.isFileNameEqual
+        return vfs.isCaseSensitive() ? name : name.toLowerCase(Locale.ROOT);
+    }
+
+    static protected Map<String,VirtualPath> indexByName(VirtualFileSystem vfs, List<VirtualPath> paths) {
+        final Map<String,VirtualPath> pathsByName = new HashMap<>(paths.size() * 2);
+        for (VirtualPath path : paths) {
+            // first one wins, same as searching the list in order
+            pathsByName.putIfAbsent(toNameKey(vfs, path.getName()), path);
+        }
+        return pathsByName;
+    }
+
+    protected void collectFiles(VirtualFileSystem targetVfs, VirtualPath path, Map<String,List<VirtualPath>> listings, List<VirtualPath> files) throws IOException {
+        if (path.isDirectory()) {
+            final List<VirtualPath> childPaths = this.ls(targetVfs, this.targetTree, this.targetPrefetcher, path);
+            listings.put(path.toFullPath(), childPaths);
+            for (VirtualPath childPath : childPaths) {
+                // ignored and partial files are never synced, so are never renamed either
+                if (this.acceptTargetChild(childPath)) {
+                    this.collectFiles(targetVfs, childPath, listings, files);
+                }
+            }
+        } else if (path.getStat() != null && path.getStat().getType() == VirtualFileType.FILE) {
+            files.add(path);
+        }
+    }
+
+    protected VirtualPath findDuplicateFile(JsyncResult result, VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, List<VirtualPath> candidateFiles) throws IOException {
+        if (candidateFiles.isEmpty()) {
+            return null;
+        }
+
+        final VirtualFileStat sourceStat = sourceFile.getStat();
+
+        // checksums are remembered on the stat of each path, so they are only ever calculated once per path
+        if (!this.hasChecksum(sourceStat)) {
+            sourceVfs.checksums(this.negotiatedChecksum, Collections.singletonList(sourceFile));
+        }
+
+        final List<VirtualPath> candidateFilesWithoutChecksums = candidateFiles.stream()
+            .filter(v -> !this.hasChecksum(v.getStat()))
+            .collect(toList());
+
+        if (!candidateFilesWithoutChecksums.isEmpty()) {
+            targetVfs.checksums(this.negotiatedChecksum, candidateFilesWithoutChecksums);
+            result.incrementChecksums(candidateFilesWithoutChecksums.size());
+        }
+
+        return candidateFiles.stream()
+            .filter(v -> this.isChecksumEqual(sourceStat, v.getStat()))
+            .findFirst()
+            .orElse(null);
+    }
+
+    protected boolean copyDuplicateFile(JsyncResult result, VirtualFileSystem sourceVfs, VirtualPath sourceFile, VirtualFileSystem targetVfs, VirtualPath targetFile, JsyncPathChanges changes) throws IOException {
+        if (this.targetFilesBySize == null) {
+            return false;
+        }
+
+        final VirtualFileStat sourceStat = sourceFile.getStat();
+
+        // only files with the exact same size can possibly be duplicates
+        final List<VirtualPath> candidateFiles = this.targetFilesBySize.get(sourceStat.getSize());
+        if (candidateFiles == null || candidateFiles.isEmpty()) {
+            return false;
+        }
+
+        final VirtualPath duplicateFile = this.findDuplicateFile(result, sourceVfs, sourceFile, targetVfs, candidateFiles);
+
+        if (duplicateFile == null) {
+            return false;
+        }
+
+        this.eventHandler.willCopyFile(sourceFile, duplicateFile, targetFile, changes);
+
+        try {
+            targetVfs.cp(duplicateFile, targetFile);
+        } catch (IOException e) {
+            // not fatal, we can still transfer the file the normal way
+            log.warn("Failed to copy duplicate {} to {}: {} (will transfer file instead)", duplicateFile, targetFile, e.getMessage());
+            return false;
+        }
+
+        result.incrementFilesCreated();
+        result.incrementFilesCopied();
+
+        this.reindexTargetFile(targetFile, sourceStat);
+
+        return true;
+    }
+
+    protected void indexTargetFiles(List<VirtualPath> targetFiles) {
+        if (this.targetFilesBySize == null) {
+            return;
+        }
+
+        for (VirtualPath targetFile : targetFiles) {
+            // empty files are trivial to create, so never worth indexing
+            if (!targetFile.isDirectory() && targetFile.getStat() != null && targetFile.getStat().getSize() > 0) {
+                final List<VirtualPath> candidateFiles = this.targetFilesBySize.computeIfAbsent(targetFile.getStat().getSize(), k -> new ArrayList<>());
+                if (candidateFiles.size() >= MAX_DUPLICATE_CANDIDATES) {
+                    candidateFiles.remove(0);
+                } else if (this.budget.isExceeded()) {
+                    // the index is only an optimization, so it never grows at the expense of the listings
+                    continue;
+                } else {
+                    this.budget.reserve(1);
+                }
+                candidateFiles.add(targetFile);
+            }
+        }
+    }
+
+    protected void reindexTargetFile(VirtualPath targetFile, VirtualFileStat newStat) {
+        if (this.targetFilesBySize == null) {
+            return;
+        }
+
+        // the content changed, so anything we remembered about the old content is now stale
+        this.unindexTargetFile(targetFile);
+
+        final VirtualPath newTargetFile = new VirtualPath(targetFile.getParentPath(), targetFile.getName(), false, newStat);
+
+        this.indexTargetFiles(Collections.singletonList(newTargetFile));
+    }
+
+    protected void unindexTargetFile(VirtualPath targetFile) {
+        if (this.targetFilesBySize == null || targetFile.getStat() == null) {
+            return;
+        }
+
+        final List<VirtualPath> candidateFiles = this.targetFilesBySize.get(targetFile.getStat().getSize());
+        if (candidateFiles != null) {
+            final String fullPath = targetFile.toString();
+            if (candidateFiles.removeIf(v -> v.toString().equals(fullPath))) {
+                this.budget.release(1);
+            }
+        }
+    }
+
+    protected boolean hasChecksum(VirtualFileStat stat) {
+        switch (this.negotiatedChecksum) {
+            case CK:
+                return stat.hasCksum();
+            case MD5:
+                return stat.getMd5Digest() != null;
+            case SHA1:
+                return stat.getSha1Digest() != null;
+            default:
+                return false;
+        }
+    }
+
+    protected boolean isChecksumEqual(VirtualFileStat stat1, VirtualFileStat stat2) {
+        switch (this.negotiatedChecksum) {
+            case CK:
+                return stat1.isCksumEqual(stat2);
+            case MD5:
+                return stat1.isMd5Equal(stat2);
+            case SHA1:
+                return stat1.isSha1Equal(stat2);
+            default:
+                return false;
+        }
     }
 
     protected void updateStat(JsyncResult result, VirtualFileSystem sourceVfs, VirtualPath sourcePath,
@@ -635,16 +1942,206 @@ public class JsyncEngine {
 
         if (!options.isEmpty()) {
             this.eventHandler.willUpdateStat(sourcePath, targetPath, changes, options, associatedWithFileModifiedOrDirCreated);
+            // updating the stat of a path never changes the stat of its parent directory, so these are safe to batch up
+            // and do later, as long as it's after the content of the path itself won't change anymore
+            this.pendingStatUpdates.add(new VirtualStatUpdate(targetPath, updateStat, options));
+            if (this.pendingStatUpdates.size() >= this.batchSize) {
+                this.flushStatUpdates(result, targetVfs);
+            }
+        } else {
+            log.warn("updateStat was called, but nothing to update (options empty)");
+        }
+    }
+
+    protected void transferArchive(JsyncResult result, VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
+        if (!this.archive
+                || (!sourceVfs.isRemote() && !targetVfs.isRemote())
+                || this.archivedTargetPaths.contains(targetPath.toString())           // already part of an archive
+                || sourceVfs.getStatModel() != StatModel.POSIX
+                || targetVfs.getStatModel() != StatModel.POSIX
+                || !sourceVfs.isArchiveSupported()
+                || !targetVfs.isArchiveSupported()) {
+            return;
+        }
+
+        // a new directory within one that was already checked has a subset of its files, so is never worth an archive
+        // either (and listing its tree again would be a waste)
+        if (this.archiveCheckedSourcePath != null && isSameOrDescendant(sourcePath, this.archiveCheckedSourcePath)) {
+            return;
+        }
+        this.archiveCheckedSourcePath = sourcePath;
+
+        // everything within the source directory (that will be synced) is needed to decide if an archive is worth it,
+        // although excluded and ignored directories are never descended into
+        final VirtualFileTree tree = this.sourceTree != null ? this.sourceTree
+            : sourceVfs.tree(sourcePath, this.archivePrune(sourcePath));
+
+        final List<VirtualPath> sourceEntries = new ArrayList<>();
+        this.collectArchiveEntries(sourceVfs, tree, sourcePath, sourceEntries);
+
+        final long files = sourceEntries.stream().filter(v -> !v.isDirectory()).count();
+        if (files < this.archiveMinFiles) {
+            log.debug("Skipping archive of {} (only {} small files)", sourcePath, files);
+            return;
+        }
+
+        // the rest of the sync of this directory lists it from the tree (until it's finished with it)
+        if (this.sourceTree == null) {
+            this.archiveSourceTree = tree;
+        }
+
+        log.debug("Transferring {} as an archive ({} small files, {} dirs)", sourcePath, files, sourceEntries.size() - files);
+
+        final List<VirtualPath> targetEntries = new ArrayList<>();
+        for (VirtualPath sourceEntry : sourceEntries) {
+            final VirtualPath targetEntry = targetPath.resolve(sourcePath.relativize(sourceEntry), sourceEntry.isDirectory());
+            if (sourceEntry.isDirectory()) {
+                this.eventHandler.willCreateDirectory(targetEntry, true);
+            }
+            targetEntries.add(targetEntry);
+        }
+
+        // the archive is created on one filesystem and extracted on the other at the same time
+        this.pipe("archive of " + sourcePath,
+            output -> sourceVfs.createArchive(sourcePath, sourceEntries, output),
+            input -> targetVfs.extractArchive(input, targetPath));
+
+        // the rest of the sync will find these already exist
+        for (VirtualPath targetEntry : targetEntries) {
+            this.archivedTargetPaths.add(targetEntry.toString());
+            if (targetEntry.isDirectory()) {
+                this.createdTargetDirs.add(targetEntry.toString());
+                result.incrementDirsCreated();
+            }
+        }
+    }
+
+    protected VirtualPathMatchers archivePrune(VirtualPath sourcePath) {
+        final VirtualPathMatchers prune = VirtualPathMatchers.concat(this.excludeMatchers, this.ignoreMatchers);
+        if (sourcePath.toFullPath().equals(this.sourceRootPath.toFullPath())) {
+            return prune;
+        }
+        // the tree matches rules relative to its own root, so rules rooted at the source (e.g. /build/) would match the
+        // wrong directories within it, while the rest match at any depth and mean the same (rooted rules are still
+        // applied to whatever is listed)
+        final List<VirtualPathMatcher> matchers = new ArrayList<>();
+        for (VirtualPathMatcher matcher : prune.getMatchers()) {
+            if (!matcher.getRule().trim().startsWith("/")) {
+                matchers.add(matcher);
+            }
+        }
+        return new VirtualPathMatchers(matchers);
+    }
+
+    protected interface StreamHandler<T> {
+        void handle(T stream) throws IOException;
+    }
+
+    protected void pipe(String description, StreamHandler<OutputStream> producer, StreamHandler<InputStream> consumer) throws IOException {
+        // what the producer writes streams directly into the consumer, with the producer on its own thread
+        final PipedInputStream pipeInput = new PipedInputStream(64 * 1024);
+        final PipedOutputStream pipeOutput = new PipedOutputStream(pipeInput);
+        final AtomicReference<Throwable> producerFailure = new AtomicReference<>();
+        final Thread producerThread = new Thread(() -> {
+            try (OutputStream output = pipeOutput) {
+                producer.handle(output);
+            } catch (Throwable t) {
+                producerFailure.set(t);
+            }
+        }, "jsync-pipe");
+        producerThread.setDaemon(true);
+        producerThread.start();
+
+        try {
+            consumer.handle(pipeInput);
+        } finally {
+            // if the consumer failed early, this unblocks the producer
+            pipeInput.close();
+            try {
+                producerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while producing " + description);
+            }
+        }
+
+        if (producerFailure.get() != null) {
+            throw new IOException("Unable to produce " + description + ": " + producerFailure.get().getMessage(), producerFailure.get());
+        }
+    }
+
+    protected void collectArchiveEntries(VirtualFileSystem sourceVfs, VirtualFileTree tree, VirtualPath sourcePath, List<VirtualPath> entries) throws IOException {
+        // the same paths the sync itself would visit, but only files small enough to be worth archiving
+        final List<VirtualPath> childPaths = this.ls(sourceVfs, tree, null, sourcePath);
+        this.sortPaths(childPaths);
+        for (VirtualPath childPath : childPaths) {
+            if (this.excludeMatchers.matches(this.sourceRootPath, childPath) || this.ignoreMatchers.matches(this.sourceRootPath, childPath)) {
+                continue;
+            }
+            if (childPath.getStat().getType() == VirtualFileType.DIR) {
+                entries.add(childPath);
+                this.collectArchiveEntries(sourceVfs, tree, childPath, entries);
+            } else if (childPath.getStat().getType() == VirtualFileType.FILE && childPath.getStat().getSize() <= this.archiveMaxFileSize) {
+                entries.add(childPath);
+            }
+        }
+    }
+
+    protected void flushStatUpdates(JsyncResult result, VirtualFileSystem targetVfs) throws IOException {
+        if (this.pendingStatUpdates.isEmpty()) {
+            return;
+        }
+
+        final List<VirtualStatUpdate> updates = new ArrayList<>(this.pendingStatUpdates);
+        this.pendingStatUpdates.clear();
+
+        try {
+            targetVfs.updateStats(updates);
+            result.incrementStatsUpdated(updates.size());
+            return;
+        } catch (IOException e) {
+            log.debug("Failed to update stats in bulk (will update each path instead): {}", e.getMessage());
+        }
+
+        for (VirtualStatUpdate update : updates) {
             try {
                 // there are some reasons a stat update could fail (e.g. the user is currently in cmd.exe in that dir on windows)
-                targetVfs.updateStat(targetPath, updateStat, options);
+                targetVfs.updateStat(update.getPath(), update.getStat(), update.getOptions());
                 result.incrementStatsUpdated();
             } catch (IOException e) {
                 // we will log the error, but not throw an exception
-                log.warn("Failed to update stat for path {}: {} (ignoring since this is only a stat issue, not a file content problem)", targetPath, e.getMessage());
+                log.warn("Failed to update stat for path {}: {} (ignoring since this is only a stat issue, not a file content problem)", update.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    protected void createMissingDirectories(JsyncResult result, VirtualFileSystem targetVfs, VirtualPath targetPath, List<VirtualPath> sourceChildPaths, Map<String,VirtualPath> targetChildPathsByName) throws IOException {
+        final List<VirtualPath> missingDirs = new ArrayList<>();
+        for (VirtualPath sourceChildPath : sourceChildPaths) {
+            if (sourceChildPath.isDirectory() && !targetChildPathsByName.containsKey(toNameKey(targetVfs, sourceChildPath.getName()))) {
+                final VirtualPath missingDir = targetPath.resolve(sourceChildPath.getName(), true, null);
+                // directories extracted from an archive already exist
+                if (!this.createdTargetDirs.contains(missingDir.toString())) {
+                    missingDirs.add(missingDir);
+                }
+            }
+        }
+
+        // one at a time is no different from how the directory would be created anyway
+        if (missingDirs.size() <= 1) {
+            return;
+        }
+
+        for (int i = 0; i < missingDirs.size(); i += this.batchSize) {
+            final List<VirtualPath> batch = missingDirs.subList(i, Math.min(i + this.batchSize, missingDirs.size()));
+            for (VirtualPath missingDir : batch) {
+                this.eventHandler.willCreateDirectory(missingDir, false);
+            }
+            targetVfs.mkdirs(batch);
+            for (VirtualPath missingDir : batch) {
+                this.createdTargetDirs.add(missingDir.toString());
+                result.incrementDirsCreated();
             }
-        } else {
-            log.warn("updateStat was called, but nothing to update (options empty)");
         }
     }
 
@@ -667,12 +2164,12 @@ public class JsyncEngine {
 
             // any parent dirs missing? we need to process them in reverse order
             if (!parentDirsMissing.isEmpty()) {
-                for (int i = parentDirsMissing.size()-1; i >= 0; i--) {
-                    VirtualPath parentPathMissing = parentDirsMissing.get(i);
+                Collections.reverse(parentDirsMissing);
+                for (VirtualPath parentPathMissing : parentDirsMissing) {
                     this.eventHandler.willCreateDirectory(parentPathMissing, true);
-                    vfs.mkdir(parentPathMissing);
-                    result.incrementDirsCreated();
                 }
+                vfs.mkdirs(parentDirsMissing);
+                result.incrementDirsCreated(parentDirsMissing.size());
             }
         } else if (verifyParentExists) {
             // if parents is disabled, we want to make sure the parent dir exists, so we can throw a better exception
@@ -694,24 +2191,62 @@ public class JsyncEngine {
     }
 
     protected void deleteDirectory(int level, JsyncResult result, VirtualFileSystem vfs, VirtualPath path) throws IOException {
-        // we need a list of files in both directories, since we'll need to recurse thru dirs
-        final List<VirtualPath> childPaths = vfs.ls(path);
+        final List<VirtualPath> removals = new ArrayList<>();
+
+        if (this.fastDelete) {
+            // a single listing of the entire tree lets us report everything being deleted, and then its all removed at once
+            final VirtualFileTree tree = vfs.tree(path);
+            this.collectDirectoryRemovals(level, vfs, tree, null, path, removals);
+            vfs.rmtree(path);
+            this.countRemovedPaths(result, removals);
+            return;
+        }
+
+        this.collectDirectoryRemovals(level, vfs, null, null, path, removals);
+        this.removePaths(result, vfs, removals);
+    }
+
+    protected void collectDirectoryRemovals(int level, VirtualFileSystem vfs, VirtualFileTree tree, Map<String,List<VirtualPath>> listings, VirtualPath path, List<VirtualPath> removals) throws IOException {
+        // we need a list of files in both directories, since we'll need to recurse thru dirs (unless it was already
+        // listed, although any files moved out of it since then are gone)
+        final List<VirtualPath> listedChildPaths = listings != null ? listings.get(path.toFullPath()) : null;
+        final List<VirtualPath> childPaths = listedChildPaths != null ? new ArrayList<>(listedChildPaths) : this.ls(vfs, tree, null, path);
         sortPaths(childPaths);
 
         for (VirtualPath childPath : childPaths) {
             if (childPath.isDirectory()) {
-                this.deleteDirectory(level+1, result, vfs, childPath);     // do not log this, that will happen in the below statement via recursion
+                this.collectDirectoryRemovals(level+1, vfs, tree, listings, childPath, removals);     // do not log this, that will happen in the below statement via recursion
+            } else if (listedChildPaths != null && this.movedTargetPaths.contains(childPath.toString())) {
+                // already moved to its new path, nothing left to delete
             } else {
                 this.eventHandler.willDeleteFile(childPath, true);      // removing a directory means all files in it are being deleted recursively
-                vfs.rm(childPath);
-                result.incrementFilesDeleted();
+                removals.add(childPath);
             }
         }
 
         // finally we can delete the directory, if level 0, we log as info, but anything else is considered debugging
         this.eventHandler.willDeleteDirectory(path, level > 0);
-        vfs.rmdir(path);
-        result.incrementDirsDeleted();
+        removals.add(path);
+    }
+
+    protected void removePaths(JsyncResult result, VirtualFileSystem vfs, List<VirtualPath> paths) throws IOException {
+        // everything within a directory comes before it, so each batch can be removed in order
+        for (int i = 0; i < paths.size(); i += this.batchSize) {
+            final List<VirtualPath> batch = paths.subList(i, Math.min(i + this.batchSize, paths.size()));
+            vfs.removeAll(batch);
+            this.countRemovedPaths(result, batch);
+        }
+    }
+
+    protected void countRemovedPaths(JsyncResult result, List<VirtualPath> paths) {
+        for (VirtualPath path : paths) {
+            if (path.isDirectory()) {
+                result.incrementDirsDeleted();
+            } else {
+                this.unindexTargetFile(path);
+                result.incrementFilesDeleted();
+            }
+        }
     }
 
     protected Checksum negotiateChecksum(VirtualFileSystem sourceVfs, VirtualFileSystem targetVfs) throws IOException {
@@ -735,6 +2270,42 @@ public class JsyncEngine {
             + " and target filesystem " + targetVfs.getName() + " supports checksums " + targetChecksums);
     }
 
+    /**
+     * Negotiates the digest used to compare the blocks of a delta transfer. A weak checksum (e.g. CK, a 32-bit CRC) is
+     * good enough to tell if a whole file changed along with its size and mtime, but comparing thousands of blocks
+     * with it risks silently keeping a modified block, so only a strong digest is used.
+     *
+     * @return the digest, or null if the filesystems have none in common (and delta transfers are skipped)
+     */
+    protected Checksum negotiateDeltaChecksum(VirtualFileSystem sourceVfs, VirtualFileSystem targetVfs) throws IOException {
+        final Set<Checksum> sourceChecksums = sourceVfs.getChecksumsSupported();
+        final Set<Checksum> targetChecksums = targetVfs.getChecksumsSupported();
+
+        final List<Checksum> candidates = new ArrayList<>(this.preferredChecksums);
+        candidates.add(Checksum.MD5);
+        candidates.add(Checksum.SHA1);
+
+        for (Checksum candidate : candidates) {
+            if (candidate != Checksum.CK && sourceChecksums.contains(candidate) && targetChecksums.contains(candidate)) {
+                return candidate;
+            }
+        }
+
+        log.warn("Delta transfers disabled: no strong checksum (MD5 or SHA1) is supported by both source filesystem {} ({}) and target filesystem {} ({})",
+            sourceVfs.getName(), sourceChecksums, targetVfs.getName(), targetChecksums);
+
+        return null;
+    }
+
+    /**
+     * The block size for a delta transfer of a file, which grows beyond the configured block size as needed so a file
+     * never has more than {@link #MAX_DELTA_BLOCKS} blocks.
+     */
+    static protected long deltaBlockSize(long fileSize, long blockSize) {
+        final long minBlockSize = (fileSize + MAX_DELTA_BLOCKS - 1) / MAX_DELTA_BLOCKS;
+        return Math.max(blockSize, minBlockSize);
+    }
+
     protected StatModel negotiateStatModel(VirtualFileSystem sourceVfs, VirtualFileSystem targetVfs) throws IOException {
         // do both support posix?
         if (sourceVfs.getStatModel() == StatModel.POSIX && targetVfs.getStatModel() == StatModel.POSIX) {
@@ -749,6 +2320,54 @@ public class JsyncEngine {
         throw new IOException("Unable to find a stat model that is supported by source and target filesystems");
     }
 
+    protected void sortByInode(VirtualFileSystem vfs, List<VirtualPath> paths) throws IOException {
+        final List<VirtualPath> files = paths.stream()
+            .filter(v -> !v.isDirectory())
+            .collect(toList());
+
+        if (files.size() <= 1) {
+            return;
+        }
+
+        vfs.inodes(files);
+
+        // a stable sort, so directories (and files with unknown inodes) keep their order
+        paths.sort((p1, p2) -> {
+            if (p1.isDirectory() || p2.isDirectory()) {
+                return Boolean.compare(!p1.isDirectory(), !p2.isDirectory());
+            }
+            return Long.compare(inodeOf(p1), inodeOf(p2));
+        });
+    }
+
+    protected void sortPairsByInode(VirtualFileSystem sourceVfs, List<VirtualPathPair> pairs) throws IOException {
+        final List<VirtualPath> sourceFiles = pairs.stream()
+            .map(VirtualPathPair::getSource)
+            .collect(toList());
+
+        if (sourceFiles.size() <= 1) {
+            return;
+        }
+
+        sourceVfs.inodes(sourceFiles);
+
+        pairs.sort(Comparator.comparingLong(pair -> inodeOf(pair.getSource())));
+    }
+
+    protected boolean isTransferPending(JsyncDeferredFiles deferredFiles, VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualFileSystem targetVfs, VirtualPath targetPath) throws IOException {
+        if (targetPath.isDirectory()) {
+            return false;       // a type mismatch is handled right away
+        }
+        // files deferred for checksums are put in inode order along with the rest of the deferred files
+        final JsyncPathChanges changes = this.detectChanges(sourceVfs, sourcePath, targetVfs, targetPath);
+        return changes.isContentModified(this.ignoreTimes)
+            && (deferredFiles == null || !changes.isDeferredProcessing(this.ignoreTimes));
+    }
+
+    static private long inodeOf(VirtualPath path) {
+        return path.getStat() != null ? path.getStat().getInode() : 0L;
+    }
+
     protected void sortPaths(List<VirtualPath> paths) {
         // sort, where directories come before files
         paths.sort((p1, p2) -> {
@@ -30,6 +30,14 @@ public interface JsyncEventHandler {
 
     void willTransferFile(VirtualPath sourcePath, VirtualPath targetPath, JsyncPathChanges changes);
 
+    default void willCopyFile(VirtualPath sourcePath, VirtualPath duplicatePath, VirtualPath targetPath, JsyncPathChanges changes) {
+        // nothing by default (a file is created by copying a duplicate already on the target)
+    }
+
+    default void willMoveFile(VirtualPath sourcePath, VirtualPath movedPath, VirtualPath targetPath, JsyncPathChanges changes) {
+        // nothing by default (a file is created by renaming a file already on the target)
+    }
+
     void willUpdateStat(VirtualPath sourcePath, VirtualPath targetPath, JsyncPathChanges changes, Collection<StatUpdateOption> options, boolean associatedWithFileModifiedOrDirCreated);
 
     void doCopy(InputStream input, OutputStream output, long knownContentLength) throws IOException;
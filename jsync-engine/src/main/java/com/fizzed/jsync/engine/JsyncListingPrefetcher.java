@@ -0,0 +1,115 @@
+package com.fizzed.jsync.engine;
+
+import com.fizzed.jsync.vfs.VirtualFileSystem;
+import com.fizzed.jsync.vfs.VirtualPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Lists directories on one side of a sync in the background, ahead of the traversal arriving at them, so that the
+ * latency of listing overlaps with the comparing and transferring of files. At most "depth" listings are pending or
+ * buffered at any time, and each listing is handed over (and removed) once the traversal asks for it.
+ */
+public class JsyncListingPrefetcher {
+    static private final Logger log = LoggerFactory.getLogger(JsyncListingPrefetcher.class);
+
+    private final VirtualFileSystem vfs;
+    private final ExecutorService executor;
+    private final int depth;
+    private final Map<String,Future<List<VirtualPath>>> listings;
+
+    public JsyncListingPrefetcher(VirtualFileSystem vfs, ExecutorService executor, int depth) {
+        this.vfs = vfs;
+        this.executor = executor;
+        this.depth = depth;
+        this.listings = new HashMap<>();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int size() {
+        return this.listings.size();
+    }
+
+    /**
+     * Starts listing the directory in the background, unless its already being listed or the buffer of listings is
+     * full.
+     *
+     * @param path the directory to list
+     * @return true if the directory is being listed, otherwise false
+     */
+    public boolean prefetch(VirtualPath path) {
+        final String key = path.toString();
+        if (this.listings.containsKey(key)) {
+            return true;
+        }
+        if (this.listings.size() >= this.depth) {
+            return false;
+        }
+        if (log.isTraceEnabled()) log.trace("Prefetching listing of {}", path);
+        this.listings.put(key, this.executor.submit(() -> this.vfs.lsConcurrently(path)));
+        return true;
+    }
+
+    /**
+     * Takes over the listing of the directory, waiting on it to finish if needed.
+     *
+     * @param path the directory to list
+     * @return the listing or null if the directory was never prefetched
+     * @throws IOException if the listing failed
+     */
+    public List<VirtualPath> take(VirtualPath path) throws IOException {
+        final Future<List<VirtualPath>> future = this.listings.remove(path.toString());
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing " + path);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException("Unable to list " + path, cause);
+        }
+    }
+
+    /**
+     * Cancels the listing of the directory, if it was prefetched, since it was listed some other way.
+     *
+     * @param path the directory
+     */
+    public void cancel(VirtualPath path) {
+        final Future<List<VirtualPath>> future = this.listings.remove(path.toString());
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels any listings that were never taken over.
+     */
+    public void clear() {
+        for (Future<List<VirtualPath>> future : this.listings.values()) {
+            future.cancel(false);
+        }
+        this.listings.clear();
+    }
+
+}
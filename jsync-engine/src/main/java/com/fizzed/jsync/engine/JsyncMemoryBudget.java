@@ -0,0 +1,44 @@
+package com.fizzed.jsync.engine;
+
+/**
+ * An approximate budget of how many paths the engine holds in memory at once across all of its work lists (e.g. the
+ * listings of every directory being synced and the files deferred for checksums). Work lists over budget spill to
+ * temporary files. Like the engine, this is not safe for use by multiple threads.
+ */
+public class JsyncMemoryBudget {
+
+    // a listed path with its stat retains roughly this much heap (a conservative estimate, since a path itself retains
+    // about 100 bytes with its name, and a stat about 72 more)
+    static public final int ESTIMATED_PATH_BYTES = 320;
+
+    // a work list over budget still keeps at least this many paths in memory, so it never spills a handful at a time
+    static public final int MIN_SPILL_PATHS = 1024;
+
+    private final long maxPaths;
+    private long paths;
+
+    public JsyncMemoryBudget(long maxBytes) {
+        this.maxPaths = Math.max(1L, maxBytes / ESTIMATED_PATH_BYTES);
+    }
+
+    public long getMaxPaths() {
+        return maxPaths;
+    }
+
+    public long getPaths() {
+        return paths;
+    }
+
+    public boolean isExceeded() {
+        return this.paths > this.maxPaths;
+    }
+
+    public void reserve(long n) {
+        this.paths += n;
+    }
+
+    public void release(long n) {
+        this.paths = Math.max(0L, this.paths - n);
+    }
+
+}
@@ -1,55 +1,111 @@
 package com.fizzed.jsync.engine;
 
+/**
+ * The changes detected between a source and target path. Since one of these is created for every path synced, the
+ * changes are packed into bit flags, and every combination is a shared immutable instance from {@link #of(int)}.
+ */
 public class JsyncPathChanges {
 
-    final private boolean directory;
-    final private boolean missing;
-    final private boolean size;
-    final private boolean timestamps;
-    final private boolean permissions;
-    final private boolean ownership;
-    final private Boolean checksum;               // this is not always determined since its expensive
+    static public final int DIRECTORY = 1;
+    static public final int MISSING = 1 << 1;
+    static public final int SIZE = 1 << 2;
+    static public final int TIMESTAMPS = 1 << 3;
+    static public final int PERMISSIONS = 1 << 4;
+    static public final int OWNERSHIP = 1 << 5;
+    static public final int CHECKSUM_KNOWN = 1 << 6;            // the checksum is not always determined since its expensive
+    static public final int CHECKSUM = 1 << 7;
+
+    static private final int ALL = (1 << 8) - 1;
+    static private final JsyncPathChanges[] FLYWEIGHTS = new JsyncPathChanges[ALL + 1];
+    static {
+        for (int flags = 0; flags <= ALL; flags++) {
+            FLYWEIGHTS[flags] = new JsyncPathChanges(flags);
+        }
+    }
+
+    final private int flags;
 
+    private JsyncPathChanges(int flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * @deprecated use {@link #of(boolean, boolean, boolean, boolean, boolean, boolean, Boolean)} for a shared instance
+     */
+    @Deprecated
     public JsyncPathChanges(boolean directory, boolean missing, boolean size, boolean timestamps, boolean permissions, boolean ownership, Boolean checksum) {
-        this.directory = directory;
-        this.missing = missing;
-        this.size = size;
-        this.timestamps = timestamps;
-        this.permissions = permissions;
-        this.ownership = ownership;
-        this.checksum = checksum;
+        this(toFlags(directory, missing, size, timestamps, permissions, ownership, checksum));
+    }
+
+    /**
+     * The shared instance for the flags, which is a bitwise OR of the constants of this class.
+     *
+     * @param flags the flags
+     * @return the shared instance
+     */
+    static public JsyncPathChanges of(int flags) {
+        if ((flags & ~ALL) != 0) {
+            throw new IllegalArgumentException("Invalid changes flags " + Integer.toBinaryString(flags));
+        }
+        if ((flags & CHECKSUM) != 0) {
+            flags |= CHECKSUM_KNOWN;
+        }
+        return FLYWEIGHTS[flags];
+    }
+
+    static public JsyncPathChanges of(boolean directory, boolean missing, boolean size, boolean timestamps, boolean permissions, boolean ownership, Boolean checksum) {
+        return FLYWEIGHTS[toFlags(directory, missing, size, timestamps, permissions, ownership, checksum)];
+    }
+
+    static private int toFlags(boolean directory, boolean missing, boolean size, boolean timestamps, boolean permissions, boolean ownership, Boolean checksum) {
+        return (directory ? DIRECTORY : 0)
+            | (missing ? MISSING : 0)
+            | (size ? SIZE : 0)
+            | (timestamps ? TIMESTAMPS : 0)
+            | (permissions ? PERMISSIONS : 0)
+            | (ownership ? OWNERSHIP : 0)
+            | (checksum != null ? CHECKSUM_KNOWN : 0)
+            | (checksum != null && checksum ? CHECKSUM : 0);
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    private boolean is(int flag) {
+        return (this.flags & flag) != 0;
     }
 
     public boolean isDirectory() {
-        return directory;
+        return this.is(DIRECTORY);
     }
 
     public boolean isMissing() {
-        return missing;
+        return this.is(MISSING);
     }
 
     public boolean isSize() {
-        return size;
+        return this.is(SIZE);
     }
 
     public boolean isTimestamps() {
-        return timestamps;
+        return this.is(TIMESTAMPS);
     }
 
     public boolean isPermissions() {
-        return permissions;
+        return this.is(PERMISSIONS);
     }
 
     public boolean isOwnership() {
-        return ownership;
+        return this.is(OWNERSHIP);
     }
 
     public boolean hasChecksum() {
-        return checksum != null;
+        return this.is(CHECKSUM_KNOWN);
     }
 
     public Boolean getChecksum() {
-        return checksum;
+        return this.hasChecksum() ? (Boolean)this.is(CHECKSUM) : null;
     }
 
     // helpers
@@ -62,9 +118,7 @@ public class JsyncPathChanges {
      * @return
      */
     public boolean isContentModified(boolean ignoreTimes) {
-        return this.missing
-            || this.size
-            || (checksum != null && checksum);
+        return (this.flags & (MISSING | SIZE | CHECKSUM)) != 0;
     }
 
     /**
@@ -73,51 +127,47 @@ public class JsyncPathChanges {
      * @return
      */
     public boolean isDeferredProcessing(boolean ignoreTimes) {
-        return !this.missing
-            && !this.size
-            && (ignoreTimes || this.timestamps)     // if we are ignoring timestamps or the timestamps have changed
-            && checksum == null;
+        return (this.flags & (MISSING | SIZE | CHECKSUM_KNOWN)) == 0
+            && (ignoreTimes || this.is(TIMESTAMPS));     // if we are ignoring timestamps or the timestamps have changed
     }
 
     public boolean isStatModified() {
-        return this.timestamps
-            || this.permissions
-            || this.ownership;
+        return (this.flags & (TIMESTAMPS | PERMISSIONS | OWNERSHIP)) != 0;
     }
 
     public String buildMessage() {
         StringBuilder sb = new StringBuilder();
-        if (this.missing) {
+        if (this.isMissing()) {
             if (sb.length() > 0) {
                 sb.append(", ");
             }
             sb.append("is new");
         }
-        if (this.size) {
+        if (this.isSize()) {
             if (sb.length() > 0) {
                 sb.append(", ");
             }
             sb.append("size mismatch");
         }
-        if (!this.missing && this.timestamps && this.checksum == null) {      // this is always true on missing files, which is covered by the missing flag
+        if (!this.isMissing() && this.isTimestamps() && !this.hasChecksum()) {      // this is always true on missing files, which is covered by the missing flag
             if (sb.length() > 0) {
                 sb.append(", ");
             }
             sb.append("times mismatch");
         }
-        if (!this.missing && this.permissions) {     // do not bother printing this out if its due to being missing
+        if (!this.isMissing() && this.isPermissions()) {     // do not bother printing this out if its due to being missing
             if (sb.length() > 0) {
                 sb.append(", ");
             }
             sb.append("perms mismatch");
         }
-        if (!this.missing && this.ownership) {
+        if (!this.isMissing() && this.isOwnership()) {
             if (sb.length() > 0) {
                 sb.append(", ");
             }
             sb.append("ownership mismatch");
         }
-        if (this.checksum != null && this.checksum) {
+        if (this.is(CHECKSUM)) {
             if (sb.length() > 0) {
                 sb.append(", ");
             }
@@ -125,9 +175,9 @@ public class JsyncPathChanges {
         }
         if (sb.length() == 0) {
             // no changes were detected, let's print out a helpful message
-            if (this.directory) {
+            if (this.isDirectory()) {
                 sb.append("no changes");
-            } else if (this.checksum != null) {
+            } else if (this.hasChecksum()) {
                 sb.append("no changes, checksum match");
             } else {
                 sb.append("no changes, times match");
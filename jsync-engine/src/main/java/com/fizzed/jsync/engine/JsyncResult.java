@@ -7,6 +7,8 @@ public class JsyncResult {
     private int filesCreated;
     private int filesUpdated;
     private int filesDeleted;
+    private int filesCopied;
+    private int filesMoved;
     private int dirsCreated;
     private int dirsDeleted;
     private int statsUpdated;
@@ -35,6 +37,14 @@ public class JsyncResult {
         return filesDeleted;
     }
 
+    public int getFilesCopied() {
+        return filesCopied;
+    }
+
+    public int getFilesMoved() {
+        return filesMoved;
+    }
+
     public int getDirsCreated() {
         return dirsCreated;
     }
@@ -85,10 +95,22 @@ public class JsyncResult {
         filesDeleted++;
     }
 
+    public void incrementFilesCopied() {
+        filesCopied++;
+    }
+
+    public void incrementFilesMoved() {
+        filesMoved++;
+    }
+
     public void incrementDirsCreated() {
         dirsCreated++;
     }
 
+    public void incrementDirsCreated(int amount) {
+        dirsCreated += amount;
+    }
+
     public void incrementDirsDeleted() {
         dirsDeleted++;
     }
@@ -97,9 +119,13 @@ public class JsyncResult {
         statsUpdated++;
     }
 
+    public void incrementStatsUpdated(int amount) {
+        statsUpdated += amount;
+    }
+
     @Override
     public String toString() {
-        return "checksums=" + checksums + ", filesCreated=" + filesCreated + ", filesUpdated=" + filesUpdated + ", filesDeleted=" + filesDeleted + ", dirsCreated=" + dirsCreated + ", dirsDeleted=" + dirsDeleted + ", statsUpdated=" + statsUpdated;
+        return "checksums=" + checksums + ", filesCreated=" + filesCreated + ", filesUpdated=" + filesUpdated + ", filesDeleted=" + filesDeleted + ", filesCopied=" + filesCopied + ", filesMoved=" + filesMoved + ", dirsCreated=" + dirsCreated + ", dirsDeleted=" + dirsDeleted + ", statsUpdated=" + statsUpdated;
     }
 
 }
\ No newline at end of file
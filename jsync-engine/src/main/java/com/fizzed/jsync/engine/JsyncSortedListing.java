@@ -0,0 +1,261 @@
+package com.fizzed.jsync.engine;
+
+import com.fizzed.jsync.vfs.VirtualFileStat;
+import com.fizzed.jsync.vfs.VirtualPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * The child paths of a directory, which are held in memory up to a limit (or until the engine's memory budget is
+ * exceeded), and beyond that are sorted by name and spilled to temporary files (runs) that are merged back together in
+ * name order by a {@link Cursor}. This lets a directory with millions of entries be synced in bounded memory.
+ */
+public class JsyncSortedListing implements Closeable {
+    static private final Logger log = LoggerFactory.getLogger(JsyncSortedListing.class);
+
+    private final VirtualPath parent;
+    private final boolean caseSensitive;
+    private final int maxInMemory;
+    private final JsyncMemoryBudget budget;
+    private final Path tempDir;
+    private final Comparator<VirtualPath> comparator;
+    private final List<VirtualPath> paths;
+    private final List<Path> runs;
+    private long size;
+
+    /**
+     * @param parent the directory being listed
+     * @param caseSensitive whether names are sorted (and grouped) case sensitively
+     * @param maxInMemory the number of paths held in memory before they are spilled to a temporary file
+     * @param budget the memory budget shared by all work lists
+     * @param tempDir the directory for temporary files, or null for the default temporary directory
+     */
+    public JsyncSortedListing(VirtualPath parent, boolean caseSensitive, int maxInMemory, JsyncMemoryBudget budget, Path tempDir) {
+        this.parent = parent;
+        this.caseSensitive = caseSensitive;
+        this.maxInMemory = maxInMemory;
+        this.budget = budget;
+        this.tempDir = tempDir;
+        this.comparator = Comparator.comparing((VirtualPath v) -> this.toKey(v.getName())).thenComparing(VirtualPath::getName);
+        this.paths = new ArrayList<>();
+        this.runs = new ArrayList<>();
+    }
+
+    public String toKey(String name) {
+        return this.caseSensitive ? name : name.toLowerCase(Locale.ROOT);
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    public boolean isSpilled() {
+        return !this.runs.isEmpty();
+    }
+
+    public void add(VirtualPath path) throws IOException {
+        this.paths.add(path);
+        this.size++;
+        this.budget.reserve(1);
+        if (this.paths.size() >= this.maxInMemory
+                || (this.budget.isExceeded() && this.paths.size() >= Math.min(JsyncMemoryBudget.MIN_SPILL_PATHS, this.maxInMemory))) {
+            this.spill();
+        }
+    }
+
+    /**
+     * The paths in the order they were added, which is only possible if none were spilled.
+     *
+     * @return the paths
+     */
+    public List<VirtualPath> toList() {
+        if (this.isSpilled()) {
+            throw new IllegalStateException("Listing of " + this.parent + " was spilled to disk");
+        }
+        return this.paths;
+    }
+
+    /**
+     * A cursor over every path in name order, merging any runs spilled to disk with those still in memory. Only one
+     * cursor may be used at a time.
+     *
+     * @return the cursor
+     * @throws IOException if an I/O error occurs opening the runs
+     */
+    public Cursor cursor() throws IOException {
+        this.paths.sort(this.comparator);
+        final List<Source> sources = new ArrayList<>(this.runs.size() + 1);
+        try {
+            for (Path run : this.runs) {
+                sources.add(new RunSource(run));
+            }
+        } catch (IOException e) {
+            for (Source source : sources) {
+                source.close();
+            }
+            throw e;
+        }
+        sources.add(new MemorySource(this.paths));
+        return new Cursor(sources);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.budget.release(this.paths.size());
+        this.paths.clear();
+        for (Path run : this.runs) {
+            Files.deleteIfExists(run);
+        }
+        this.runs.clear();
+    }
+
+    private void spill() throws IOException {
+        this.paths.sort(this.comparator);
+        final Path run = JsyncSpillFiles.create(this.tempDir, "jsync-ls-");
+        this.runs.add(run);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 64 * 1024))) {
+            for (VirtualPath path : this.paths) {
+                output.writeUTF(path.getName());
+                output.writeBoolean(Boolean.TRUE.equals(path.isDirectory()));
+                JsyncSpillFiles.writeStat(output, path.getStat());
+            }
+        }
+        log.debug("Spilled {} paths of {} to {} (run {})", this.paths.size(), this.parent, run, this.runs.size());
+        this.budget.release(this.paths.size());
+        this.paths.clear();
+    }
+
+    /**
+     * Iterates the paths of a listing in name order.
+     */
+    public class Cursor implements Closeable {
+
+        private final List<Source> sources;
+        private final PriorityQueue<Source> queue;
+
+        private Cursor(List<Source> sources) throws IOException {
+            this.sources = sources;
+            this.queue = new PriorityQueue<>(Math.max(1, sources.size()), (s1, s2) -> comparator.compare(s1.head, s2.head));
+            for (Source source : sources) {
+                if (source.advance()) {
+                    this.queue.add(source);
+                }
+            }
+        }
+
+        /**
+         * The next path, without moving past it.
+         *
+         * @return the next path or null if there are no more
+         */
+        public VirtualPath peek() {
+            final Source source = this.queue.peek();
+            return source != null ? source.head : null;
+        }
+
+        public VirtualPath next() throws IOException {
+            final Source source = this.queue.poll();
+            if (source == null) {
+                return null;
+            }
+            final VirtualPath path = source.head;
+            if (source.advance()) {
+                this.queue.add(source);
+            }
+            return path;
+        }
+
+        /**
+         * Moves past every path with the key, which are added to the group.
+         *
+         * @param key the key of the names to take
+         * @param group the group the paths are added to
+         * @throws IOException if an I/O error occurs
+         */
+        public void takeGroup(String key, List<VirtualPath> group) throws IOException {
+            while (this.peek() != null && toKey(this.peek().getName()).equals(key)) {
+                group.add(this.next());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Source source : this.sources) {
+                source.close();
+            }
+        }
+    }
+
+    static private abstract class Source implements Closeable {
+
+        protected VirtualPath head;
+
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() throws IOException {
+            // nothing to close by default
+        }
+    }
+
+    static private class MemorySource extends Source {
+
+        private final List<VirtualPath> paths;
+        private int index;
+
+        MemorySource(List<VirtualPath> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        boolean advance() {
+            this.head = this.index < this.paths.size() ? this.paths.get(this.index++) : null;
+            return this.head != null;
+        }
+    }
+
+    private class RunSource extends Source {
+
+        private final DataInputStream input;
+
+        RunSource(Path run) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 64 * 1024));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            final String name;
+            try {
+                name = this.input.readUTF();
+            } catch (EOFException e) {
+                this.head = null;
+                return false;
+            }
+            final boolean directory = this.input.readBoolean();
+            final VirtualFileStat stat = JsyncSpillFiles.readStat(this.input);
+            this.head = parent.resolve(name, directory, stat);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.input.close();
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.fizzed.jsync.engine;
+
+import com.fizzed.jsync.vfs.VirtualFileStat;
+import com.fizzed.jsync.vfs.VirtualFileType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Helpers for the compact temporary files that work lists are spilled to. Only what a listing provides is written
+ * (not checksums), since they are spilled before any checksums are calculated.
+ */
+class JsyncSpillFiles {
+
+    static private final VirtualFileType[] TYPES = VirtualFileType.values();
+
+    static Path create(Path tempDir, String prefix) throws IOException {
+        return tempDir != null ? Files.createTempFile(tempDir, prefix, ".run") : Files.createTempFile(prefix, ".run");
+    }
+
+    static void writeStat(DataOutputStream output, VirtualFileStat stat) throws IOException {
+        output.writeBoolean(stat != null);
+        if (stat != null) {
+            output.writeByte(stat.getType().ordinal());
+            output.writeLong(stat.getSize());
+            output.writeLong(stat.getModifiedTime());
+            output.writeLong(stat.getAccessedTime());
+            output.writeInt(stat.getPermissions());
+            output.writeLong(stat.getInode());
+        }
+    }
+
+    static VirtualFileStat readStat(DataInputStream input) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        final VirtualFileType type = TYPES[input.readByte()];
+        final long size = input.readLong();
+        final long modifiedTime = input.readLong();
+        final long accessedTime = input.readLong();
+        final int permissions = input.readInt();
+        final long inode = input.readLong();
+        return new VirtualFileStat(type, size, modifiedTime, accessedTime, permissions)
+            .setInode(inode);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.fizzed.jsync.engine;
+
+import com.fizzed.crux.util.MoreFiles;
+import com.fizzed.crux.util.Resources;
+import com.fizzed.jsync.vfs.LocalVirtualFileSystem;
+import com.fizzed.jsync.vfs.VirtualPath;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsyncCompressionPolicyTest {
+
+    @Test
+    public void isSkippedExtension() {
+        final JsyncCompressionPolicy policy = new JsyncCompressionPolicy();
+
+        assertThat(policy.isSkippedExtension("a.zip")).isTrue();
+        assertThat(policy.isSkippedExtension("a.tar.GZ")).isTrue();
+        assertThat(policy.isSkippedExtension("a.json")).isFalse();
+        assertThat(policy.isSkippedExtension("zip")).isFalse();
+        assertThat(policy.isSkippedExtension("a.")).isFalse();
+    }
+
+    @Test
+    public void compressionRatio() {
+        final byte[] text = new byte[64 * 1024];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte)('a' + (i % 7));
+        }
+        final byte[] random = new byte[64 * 1024];
+        new Random(1).nextBytes(random);
+
+        assertThat(JsyncCompressionPolicy.compressionRatio(text, text.length)).isLessThan(0.1d);
+        assertThat(JsyncCompressionPolicy.compressionRatio(random, random.length)).isGreaterThan(0.99d);
+        assertThat(JsyncCompressionPolicy.compressionRatio(random, 0)).isEqualTo(1.0d);
+    }
+
+    @Test
+    public void isCompressible() throws Exception {
+        final Path dir = Resources.file("/locator.txt").resolve("../../compression-policy").toAbsolutePath().normalize();
+        MoreFiles.deleteDirectoryIfExists(dir);
+        Files.createDirectories(dir);
+
+        final byte[] text = new byte[128 * 1024];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte)('a' + (i % 7));
+        }
+        final byte[] random = new byte[128 * 1024];
+        new Random(1).nextBytes(random);
+        Files.write(dir.resolve("text.log"), text);
+        Files.write(dir.resolve("random.bin"), random);
+        Files.write(dir.resolve("small.log"), "hello".getBytes());
+
+        final LocalVirtualFileSystem vfs = LocalVirtualFileSystem.open(dir);
+        final JsyncCompressionPolicy policy = new JsyncCompressionPolicy();
+
+        assertThat(policy.isCompressible(vfs, vfs.stat(VirtualPath.parse(dir.resolve("text.log").toString())))).isTrue();
+        assertThat(policy.isCompressible(vfs, vfs.stat(VirtualPath.parse(dir.resolve("random.bin").toString())))).isFalse();
+        assertThat(policy.isCompressible(vfs, vfs.stat(VirtualPath.parse(dir.resolve("small.log").toString())))).isFalse();
+
+        // a remote file is never read as a sample, only its extension and size matter
+        final LocalVirtualFileSystem remoteVfs = new LocalVirtualFileSystem("<remote>", vfs.pwd(), vfs.isCaseSensitive(), vfs.isPosix()) {
+            @Override
+            public boolean isRemote() {
+                return true;
+            }
+
+            @Override
+            public InputStream readFile(VirtualPath path) throws IOException {
+                throw new IOException("Sampled " + path);
+            }
+        };
+
+        assertThat(policy.isCompressible(remoteVfs, vfs.stat(VirtualPath.parse(dir.resolve("random.bin").toString())))).isTrue();
+        assertThat(policy.isCompressible(remoteVfs, vfs.stat(VirtualPath.parse(dir.resolve("small.log").toString())))).isFalse();
+    }
+
+}
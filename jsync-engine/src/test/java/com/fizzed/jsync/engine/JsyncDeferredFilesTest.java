@@ -0,0 +1,92 @@
+package com.fizzed.jsync.engine;
+
+import com.fizzed.crux.util.MoreFiles;
+import com.fizzed.crux.util.Resources;
+import com.fizzed.jsync.vfs.VirtualFileStat;
+import com.fizzed.jsync.vfs.VirtualFileType;
+import com.fizzed.jsync.vfs.VirtualPath;
+import com.fizzed.jsync.vfs.VirtualPathPair;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsyncDeferredFilesTest {
+
+    @Test
+    public void inMemory() throws Exception {
+        final JsyncMemoryBudget budget = new JsyncMemoryBudget(1024L * 1024L);
+        try (JsyncDeferredFiles deferredFiles = new JsyncDeferredFiles(budget, null)) {
+            deferredFiles.add(pair("a", 0));
+            deferredFiles.add(pair("a", 1));
+
+            assertThat(deferredFiles.isSpilled()).isFalse();
+            assertThat(budget.getPaths()).isEqualTo(4L);
+
+            final List<VirtualPathPair> chunk = deferredFiles.poll();
+            assertThat(chunk).hasSize(2);
+            assertThat(deferredFiles.isEmpty()).isTrue();
+            assertThat(budget.getPaths()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void spilled() throws Exception {
+        final Path spillDir = Resources.file("/locator.txt").resolve("../../deferred-tests").toAbsolutePath().normalize();
+        MoreFiles.deleteDirectoryIfExists(spillDir);
+        Files.createDirectories(spillDir);
+
+        // a tiny budget is always exceeded
+        final JsyncMemoryBudget budget = new JsyncMemoryBudget(1L);
+        final int count = JsyncMemoryBudget.MIN_SPILL_PATHS * 2 + 10;
+        try (JsyncDeferredFiles deferredFiles = new JsyncDeferredFiles(budget, spillDir)) {
+            for (int i = 0; i < count; i++) {
+                deferredFiles.add(pair(i < count / 2 ? "a" : "b", i));
+            }
+
+            assertThat(deferredFiles.isSpilled()).isTrue();
+            assertThat(deferredFiles.size()).isEqualTo(count);
+            assertThat(budget.getPaths()).isEqualTo(20L);
+
+            // everything comes back in the order it was added, a chunk at a time
+            final List<VirtualPathPair> pairs = new ArrayList<>();
+            List<VirtualPathPair> chunk;
+            while (!(chunk = deferredFiles.poll()).isEmpty()) {
+                assertThat(chunk.size()).isLessThanOrEqualTo(JsyncMemoryBudget.MIN_SPILL_PATHS);
+                pairs.addAll(chunk);
+            }
+
+            assertThat(pairs).hasSize(count);
+            for (int i = 0; i < count; i++) {
+                final VirtualPathPair expected = pair(i < count / 2 ? "a" : "b", i);
+                assertThat(pairs.get(i).getSource().toFullPath()).isEqualTo(expected.getSource().toFullPath());
+                assertThat(pairs.get(i).getTarget().toFullPath()).isEqualTo(expected.getTarget().toFullPath());
+                assertThat(pairs.get(i).getTarget().isDirectory()).isFalse();
+                assertThat(pairs.get(i).getSource().getStat().getSize()).isEqualTo(i);
+                assertThat(pairs.get(i).getSource().getStat().getModifiedTime()).isEqualTo(1700000000000L + i);
+                assertThat(pairs.get(i).getSource().getStat().getPermissions()).isEqualTo(0644);
+            }
+
+            // consecutive paths of the same directory share their parent
+            assertThat(pairs.get(1).getSource().getParentPath()).isSameAs(pairs.get(0).getSource().getParentPath());
+            assertThat(deferredFiles.isEmpty()).isTrue();
+        }
+
+        try (Stream<Path> spilled = Files.list(spillDir)) {
+            assertThat(spilled.count()).isEqualTo(0L);
+        }
+    }
+
+    static private VirtualPathPair pair(String dir, int i) {
+        final VirtualFileStat stat = new VirtualFileStat(VirtualFileType.FILE, i, 1700000000000L + i, 1700000000000L, 0644);
+        return new VirtualPathPair(
+            VirtualPath.parse("/source/" + dir).resolve("f" + i + ".txt", false, stat),
+            VirtualPath.parse("/target/" + dir).resolve("f" + i + ".txt", false, stat));
+    }
+
+}
@@ -2,26 +2,50 @@ package com.fizzed.jsync.engine;
 
 import com.fizzed.crux.util.MoreFiles;
 import com.fizzed.crux.util.Resources;
+import com.fizzed.jsync.vfs.Checksum;
+import com.fizzed.jsync.vfs.LocalVirtualFileSystem;
 import com.fizzed.jsync.vfs.ParentDirectoryMissingException;
 import com.fizzed.jsync.vfs.PathOverwriteException;
 import com.fizzed.jsync.vfs.StatUpdateOption;
+import com.fizzed.jsync.vfs.VirtualFileSystem;
+import com.fizzed.jsync.vfs.VirtualFileTree;
 import com.fizzed.jsync.vfs.VirtualPath;
+import com.fizzed.jsync.vfs.VirtualStatUpdate;
+import com.fizzed.jsync.vfs.util.DeviceLimiter;
 import com.fizzed.jsync.vfs.util.Permissions;
+import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.within;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -667,4 +691,952 @@ class JsyncEngineTest {
         assertThat(targetEFile).isRegularFile();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void syncCopyDuplicates() throws Exception {
+        Path sourceBFile = this.syncSourceDir.resolve("a/b.txt");
+        Path sourceCFile = this.syncSourceDir.resolve("c/d.txt");
+        Path sourceEFile = this.syncSourceDir.resolve("c/e.txt");
+        this.writeFile(sourceBFile, "hello duplicate");
+        this.writeFile(sourceCFile, "hello duplicate");
+        this.writeFile(sourceEFile, "hello different");     // same size, but different content
+
+        // target already has the content of b.txt
+        Path targetBFile = this.syncTargetDir.resolve("a/b.txt");
+        this.writeFile(targetBFile, "hello duplicate");
+
+        final JsyncResult result = new JsyncEngine()
+            .setCopyDuplicates(true)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(2);
+        assertThat(result.getFilesCopied()).isEqualTo(1);
+        assertThat(this.syncTargetDir.resolve("c/d.txt")).hasContent("hello duplicate");
+        assertThat(this.syncTargetDir.resolve("c/e.txt")).hasContent("hello different");
+        assertThat(modifiedTime(this.syncTargetDir.resolve("c/d.txt"))).isCloseTo(modifiedTime(sourceCFile), within(2, ChronoUnit.SECONDS));
+    }
+
+    @Test
+    public void syncCopyDuplicatesLimitsCandidates() throws Exception {
+        // plenty of files of the same size already on the target, none of which is a duplicate of the new file
+        for (int i = 10; i < 30; i++) {
+            this.writeFile(this.syncSourceDir.resolve("a/file-" + i + ".txt"), "content " + i);
+            this.writeFile(this.syncTargetDir.resolve("a/file-" + i + ".txt"), "content " + i);
+        }
+        this.writeFile(this.syncSourceDir.resolve("b/new.txt"), "content xx");
+
+        final JsyncResult result = new JsyncEngine()
+            .setCopyDuplicates(true)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(1);
+        assertThat(result.getFilesCopied()).isEqualTo(0);
+        assertThat(result.getChecksums()).isEqualTo(JsyncEngine.MAX_DUPLICATE_CANDIDATES);
+        assertThat(this.syncTargetDir.resolve("b/new.txt")).hasContent("content xx");
+    }
+
+    @Test
+    public void syncDetectRenames() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("old/b.txt"), "hello b");
+        this.writeFile(this.syncSourceDir.resolve("old/c.txt"), "hello c");
+
+        new JsyncEngine()
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        // rename the directory on the source, along with a modified file that cannot be a rename
+        Files.move(this.syncSourceDir.resolve("old"), this.syncSourceDir.resolve("new"));
+        this.writeFile(this.syncSourceDir.resolve("new/c.txt"), "hello C");
+
+        final JsyncResult result = new JsyncEngine()
+            .setDelete(true)
+            .setDetectRenames(true)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(2);
+        assertThat(result.getFilesMoved()).isEqualTo(1);
+        assertThat(result.getFilesDeleted()).isEqualTo(1);
+        assertThat(result.getDirsDeleted()).isEqualTo(1);
+        assertThat(this.syncTargetDir.resolve("old")).doesNotExist();
+        assertThat(this.syncTargetDir.resolve("new/b.txt")).hasContent("hello b");
+        assertThat(this.syncTargetDir.resolve("new/c.txt")).hasContent("hello C");
+    }
+
+    @Test
+    public void syncDetectRenamesSkipsIgnoredFiles() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("new/b.txt"), "hello b");
+        // an ignored file on the target is never synced, so it must not become the new file either
+        this.writeFile(this.syncTargetDir.resolve("old/b.tmp"), "hello b");
+
+        final JsyncResult result = new JsyncEngine()
+            .setDelete(true)
+            .setDetectRenames(true)
+            .addIgnore("*.tmp")
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesMoved()).isEqualTo(0);
+        assertThat(result.getFilesCreated()).isEqualTo(1);
+        assertThat(this.syncTargetDir.resolve("new/b.txt")).hasContent("hello b");
+    }
+
+    @Test
+    public void syncDelta() throws Exception {
+        final byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 251);
+        }
+
+        Path sourceAFile = this.syncSourceDir.resolve("a.bin");
+        Path targetAFile = this.syncTargetDir.resolve("a.bin");
+        Files.write(targetAFile, data);
+
+        // modify a small region in the middle, and grow the file a bit
+        data[5000] = 42;
+        final byte[] sourceData = new byte[data.length + 100];
+        System.arraycopy(data, 0, sourceData, 0, data.length);
+        Files.write(sourceAFile, sourceData);
+
+        final CountingEventHandler copyHandler = new CountingEventHandler();
+
+        final JsyncResult result = new JsyncEngine()
+            .setDelta(true)
+            .setDeltaMinSize(1024)
+            .setDeltaBlockSize(1024)
+            .setEventHandler(copyHandler)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesUpdated()).isEqualTo(1);
+        // block 4 was modified and block 9 grew, so only those two were transferred
+        assertThat(copyHandler.getBytesCopied()).isEqualTo(1024L + (sourceData.length - 9 * 1024L));
+        assertThat(Files.readAllBytes(targetAFile)).isEqualTo(sourceData);
+    }
+
+    @Test
+    public void syncDeltaShrink() throws Exception {
+        final byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 251);
+        }
+
+        Path sourceAFile = this.syncSourceDir.resolve("a.bin");
+        Path targetAFile = this.syncTargetDir.resolve("a.bin");
+        Files.write(targetAFile, data);
+
+        // the source shrank, so the target is truncated after its last (partial) block is rewritten
+        final byte[] sourceData = new byte[5000];
+        System.arraycopy(data, 0, sourceData, 0, sourceData.length);
+        Files.write(sourceAFile, sourceData);
+
+        final CountingEventHandler copyHandler = new CountingEventHandler();
+
+        final JsyncResult result = new JsyncEngine()
+            .setDelta(true)
+            .setDeltaMinSize(1024)
+            .setDeltaBlockSize(1024)
+            .setEventHandler(copyHandler)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesUpdated()).isEqualTo(1);
+        assertThat(copyHandler.getBytesCopied()).isEqualTo(sourceData.length - 4 * 1024L);
+        assertThat(Files.readAllBytes(targetAFile)).isEqualTo(sourceData);
+    }
+
+    @Test
+    public void deltaChecksumIsStrong() throws Exception {
+        final LocalVirtualFileSystem vfs = LocalVirtualFileSystem.open();
+
+        // a weak checksum is fine for whole files, but blocks are always compared with a strong digest
+        assertThat(new JsyncEngine().setPreferredChecksums(Checksum.CK).negotiateDeltaChecksum(vfs, vfs)).isEqualTo(Checksum.MD5);
+        assertThat(new JsyncEngine().setPreferredChecksums(Checksum.CK, Checksum.SHA1).negotiateDeltaChecksum(vfs, vfs)).isEqualTo(Checksum.SHA1);
+    }
+
+    @Test
+    public void deltaBlockSize() {
+        assertThat(JsyncEngine.deltaBlockSize(10000L, 1024L)).isEqualTo(1024L);
+        // huge files never have more than the max number of blocks
+        assertThat(JsyncEngine.deltaBlockSize(JsyncEngine.MAX_DELTA_BLOCKS * 4096L + 1, 1024L)).isEqualTo(4097L);
+    }
+
+    @Test
+    public void syncHugeDirectory() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            this.writeFile(this.syncSourceDir.resolve(String.format("f%02d.txt", i)), "file " + i);
+        }
+        this.writeFile(this.syncSourceDir.resolve("sub/a.txt"), "a");
+
+        // one modified, one only with a different timestamp (needs a checksum), and some no longer on the source
+        this.writeFile(this.syncTargetDir.resolve("f05.txt"), "modified file 5");
+        this.writeFile(this.syncTargetDir.resolve("f07.txt"), "file 7");
+        this.touch(this.syncTargetDir.resolve("f07.txt"), Instant.now().minus(1, ChronoUnit.DAYS));
+        this.writeFile(this.syncTargetDir.resolve("e01.txt"), "extra");
+        this.writeFile(this.syncTargetDir.resolve("x/y.txt"), "extra");
+        this.writeFile(this.syncTargetDir.resolve("z99.txt"), "extra");
+
+        // the listings are spilled to disk every few paths, and merged back together by name
+        final Path spillDir = this.syncSourceDir.resolveSibling("spill");
+        MoreFiles.deleteDirectoryIfExists(spillDir);
+        Files.createDirectories(spillDir);
+
+        final JsyncResult result = new JsyncEngine()
+            .setDelete(true)
+            .setListingSpillThreshold(4)
+            .setTempDir(spillDir)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(19);
+        assertThat(result.getFilesUpdated()).isEqualTo(1);
+        assertThat(result.getChecksums()).isEqualTo(1);
+        assertThat(result.getFilesDeleted()).isEqualTo(3);
+        for (int i = 0; i < 20; i++) {
+            assertThat(this.syncTargetDir.resolve(String.format("f%02d.txt", i))).hasContent("file " + i);
+        }
+        assertThat(this.syncTargetDir.resolve("sub/a.txt")).hasContent("a");
+        assertThat(this.syncTargetDir.resolve("e01.txt")).doesNotExist();
+        assertThat(this.syncTargetDir.resolve("x")).doesNotExist();
+        assertThat(this.syncTargetDir.resolve("z99.txt")).doesNotExist();
+        try (Stream<Path> spilled = Files.list(spillDir)) {
+            assertThat(spilled.count()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void syncHugeDirectoryDeletesAfterDeferredFiles() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            this.writeFile(this.syncSourceDir.resolve(String.format("f%02d.txt", i)), "file " + i);
+        }
+        // only a different timestamp (deferred for a checksum), followed by paths no longer on the source
+        this.writeFile(this.syncTargetDir.resolve("f00.txt"), "FILE 0");
+        this.touch(this.syncTargetDir.resolve("f00.txt"), Instant.now().minus(1, ChronoUnit.DAYS));
+        this.writeFile(this.syncTargetDir.resolve("g01.txt"), "extra");
+        this.writeFile(this.syncTargetDir.resolve("g02.txt"), "extra");
+
+        final Path spillDir = this.syncSourceDir.resolveSibling("spill");
+        MoreFiles.deleteDirectoryIfExists(spillDir);
+        Files.createDirectories(spillDir);
+
+        final List<String> events = new ArrayList<>();
+        final JsyncResult result = new JsyncEngine()
+            .setDelete(true)
+            .setBatchSize(1)
+            .setListingSpillThreshold(4)
+            .setTempDir(spillDir)
+            .setEventHandler(new DefaultJsyncEventHandler() {
+                @Override
+                public void willTransferFile(VirtualPath sourcePath, VirtualPath targetPath, JsyncPathChanges changes) {
+                    events.add("transfer " + targetPath.getName());
+                }
+
+                @Override
+                public void willDeleteFile(VirtualPath targetPath, boolean recursively) {
+                    events.add("delete " + targetPath.getName());
+                }
+            })
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        // even with a full batch of deletes, the deferred file is handled first
+        assertThat(events.indexOf("transfer f00.txt")).isLessThan(events.indexOf("delete g01.txt"));
+        assertThat(result.getFilesUpdated()).isEqualTo(1);
+        assertThat(result.getFilesDeleted()).isEqualTo(2);
+        assertThat(this.syncTargetDir.resolve("f00.txt")).hasContent("file 0");
+    }
+
+    @Test
+    public void syncHugeDirectoriesBatchDeferredFiles() throws Exception {
+        for (String dir : asList("a", "b")) {
+            for (int i = 0; i < 10; i++) {
+                this.writeFile(this.syncSourceDir.resolve(String.format("%s/f%02d.txt", dir, i)), "file " + i);
+                this.writeFile(this.syncTargetDir.resolve(String.format("%s/f%02d.txt", dir, i)), "file " + i);
+            }
+            // only a different timestamp (deferred for a checksum), and nothing to delete
+            this.touch(this.syncTargetDir.resolve(dir + "/f00.txt"), Instant.now().minus(1, ChronoUnit.DAYS));
+        }
+
+        final Path spillDir = this.syncSourceDir.resolveSibling("spill");
+        MoreFiles.deleteDirectoryIfExists(spillDir);
+        Files.createDirectories(spillDir);
+
+        final AtomicInteger checksumCalls = new AtomicInteger();
+        final LocalVirtualFileSystem sourceVfs = LocalVirtualFileSystem.open();
+        final LocalVirtualFileSystem targetVfs = new LocalVirtualFileSystem("<local>", sourceVfs.pwd(), sourceVfs.isCaseSensitive(), sourceVfs.isPosix()) {
+            @Override
+            public void checksums(Checksum checksum, List<VirtualPath> paths) throws IOException {
+                checksumCalls.incrementAndGet();
+                super.checksums(checksum, paths);
+            }
+        };
+
+        final JsyncResult result = new JsyncEngine()
+            .setDelete(true)
+            .setListingSpillThreshold(4)
+            .setTempDir(spillDir)
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        // the deferred files of both spilled directories are still checksummed together
+        assertThat(checksumCalls.get()).isEqualTo(1);
+        assertThat(result.getChecksums()).isEqualTo(2);
+        assertThat(result.getFilesDeleted()).isEqualTo(0);
+    }
+
+    @Test
+    public void syncInodeOrder() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+
+        for (String name : asList("c.txt", "a.txt", "e.txt", "b.txt", "d.txt")) {
+            this.writeFile(this.syncSourceDir.resolve(name), name);
+        }
+        // an existing file with only a different timestamp is deferred for a checksum, then transferred
+        this.writeFile(this.syncTargetDir.resolve("d.txt"), "D.txt");
+        this.touch(this.syncTargetDir.resolve("d.txt"), Instant.now().minus(1, ChronoUnit.DAYS));
+
+        final Set<String> transferred = new LinkedHashSet<>();
+
+        final JsyncResult result = new JsyncEngine()
+            .setInodeOrder(true)
+            .setEventHandler(new DefaultJsyncEventHandler() {
+                @Override
+                public void willTransferFile(VirtualPath sourcePath, VirtualPath targetPath, JsyncPathChanges changes) {
+                    transferred.add(sourcePath.getName());
+                }
+            })
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(4);
+        assertThat(result.getFilesUpdated()).isEqualTo(1);
+        assertThat(result.getChecksums()).isEqualTo(1);
+        assertThat(this.syncTargetDir.resolve("d.txt")).hasContent("d.txt");
+
+        // new files are transferred in inode order, then the deferred file
+        final List<String> created = new ArrayList<>(asList("a.txt", "b.txt", "c.txt", "e.txt"));
+        created.sort(Comparator.comparingLong(name -> this.inode(this.syncSourceDir.resolve(name))));
+        created.add("d.txt");
+        assertThat(transferred).containsExactlyElementsOf(created);
+
+        // nothing to transfer, so no inodes are read
+        final AtomicInteger inodesRead = new AtomicInteger();
+        final LocalVirtualFileSystem targetVfs = LocalVirtualFileSystem.open();
+        final LocalVirtualFileSystem sourceVfs = new LocalVirtualFileSystem("<local>", targetVfs.pwd(), targetVfs.isCaseSensitive(), targetVfs.isPosix()) {
+            @Override
+            public void inodes(List<VirtualPath> paths) throws IOException {
+                inodesRead.addAndGet(paths.size());
+                super.inodes(paths);
+            }
+        };
+
+        final JsyncResult again = new JsyncEngine()
+            .setInodeOrder(true)
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(again.getFilesCreated()).isEqualTo(0);
+        assertThat(again.getFilesUpdated()).isEqualTo(0);
+        assertThat(inodesRead.get()).isEqualTo(0);
+    }
+
+    private long inode(Path path) {
+        try {
+            return ((Number)Files.getAttribute(path, "unix:ino", LinkOption.NOFOLLOW_LINKS)).longValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void syncWithDeviceLimiter() throws Exception {
+        // one at a time on each device, which must not deadlock reading and writing files on the same device
+        final DeviceLimiter limiter = new DeviceLimiter()
+            .setMaxHashes(1)
+            .setMaxReads(1)
+            .setMaxWrites(1);
+
+        final byte[] data = new byte[8 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        Files.write(this.syncSourceDir.resolve("big.bin"), data);
+        data[5000] = 42;
+        Files.write(this.syncTargetDir.resolve("big.bin"), data);
+        this.touch(this.syncTargetDir.resolve("big.bin"), Instant.now().minus(1, ChronoUnit.DAYS));
+        this.writeFile(this.syncSourceDir.resolve("a.txt"), "a");
+        this.writeFile(this.syncSourceDir.resolve("b.txt"), "b");
+        this.writeFile(this.syncTargetDir.resolve("b.txt"), "B");
+        this.touch(this.syncTargetDir.resolve("b.txt"), Instant.now().minus(1, ChronoUnit.DAYS));
+        this.writeFile(this.syncTargetDir.resolve("c.txt"), "a");
+
+        final JsyncResult result = new JsyncEngine()
+            .setDeviceLimiter(limiter)
+            .setDelta(true)
+            .setDeltaMinSize(1024)
+            .setDeltaBlockSize(1024)
+            .setCopyDuplicates(true)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(1);
+        assertThat(result.getFilesUpdated()).isEqualTo(2);
+        assertThat(this.syncTargetDir.resolve("a.txt")).hasContent("a");
+        assertThat(this.syncTargetDir.resolve("b.txt")).hasContent("b");
+        assertThat(Files.readAllBytes(this.syncTargetDir.resolve("big.bin"))).isEqualTo(Files.readAllBytes(this.syncSourceDir.resolve("big.bin")));
+    }
+
+    @Test
+    public void syncWithSharedDeviceLimiterConcurrently() throws Exception {
+        // one at a time on each device, shared by two syncs at once, where one updates its files w/ deltas while the
+        // other copies new files, which must not deadlock by taking their read and write permits in a different order
+        final DeviceLimiter limiter = new DeviceLimiter()
+            .setMaxHashes(1)
+            .setMaxReads(1)
+            .setMaxWrites(1);
+
+        final byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 251);
+        }
+        final Path deltaSourceDir = this.syncSourceDir.resolve("delta");
+        final Path deltaTargetDir = this.syncTargetDir.resolve("delta");
+        final Path copySourceDir = this.syncSourceDir.resolve("copy");
+        final Path copyTargetDir = this.syncTargetDir.resolve("copy");
+        Files.createDirectories(deltaSourceDir);
+        Files.createDirectories(deltaTargetDir);
+        Files.createDirectories(copySourceDir);
+        for (int i = 0; i < 20; i++) {
+            Files.write(deltaTargetDir.resolve(i + ".bin"), data);
+            this.touch(deltaTargetDir.resolve(i + ".bin"), Instant.now().minus(1, ChronoUnit.DAYS));
+            // every other block is modified, so each file is updated w/ many separate reads of its source
+            final byte[] modified = data.clone();
+            for (int j = 0; j < modified.length; j += 2048) {
+                modified[j] = (byte)(i + 1);
+            }
+            Files.write(deltaSourceDir.resolve(i + ".bin"), modified);
+        }
+        for (int i = 0; i < 200; i++) {
+            Files.write(copySourceDir.resolve(i + ".bin"), data);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<JsyncResult> deltaResult = executor.submit(() -> new JsyncEngine()
+                .setDeviceLimiter(limiter)
+                .setDelta(true)
+                .setDeltaMinSize(1024)
+                .setDeltaBlockSize(1024)
+                .sync(deltaSourceDir, deltaTargetDir, JsyncMode.MERGE));
+            final Future<JsyncResult> copyResult = executor.submit(() -> new JsyncEngine()
+                .setDeviceLimiter(limiter)
+                .sync(copySourceDir, copyTargetDir, JsyncMode.MERGE));
+
+            assertThat(deltaResult.get(60, TimeUnit.SECONDS).getFilesUpdated()).isEqualTo(20);
+            assertThat(copyResult.get(60, TimeUnit.SECONDS).getFilesCreated()).isEqualTo(200);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(Files.readAllBytes(deltaTargetDir.resolve(i + ".bin"))).isEqualTo(Files.readAllBytes(deltaSourceDir.resolve(i + ".bin")));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertThat(copyTargetDir.resolve(i + ".bin")).hasSameBinaryContentAs(copySourceDir.resolve(i + ".bin"));
+        }
+    }
+
+    @Test
+    public void syncAppendVerify() throws Exception {
+        Path sourceAFile = this.syncSourceDir.resolve("a.log");
+        Path sourceBFile = this.syncSourceDir.resolve("b.log");
+        this.writeFile(sourceAFile, "line 1\nline 2\nline 3\n");
+        this.writeFile(sourceBFile, "line 1\nline 2\nline 3\n");
+
+        // a.log only grew, but b.log was rewritten
+        Path targetAFile = this.syncTargetDir.resolve("a.log");
+        Path targetBFile = this.syncTargetDir.resolve("b.log");
+        this.writeFile(targetAFile, "line 1\n");
+        this.writeFile(targetBFile, "LINE 1\n");
+
+        final CountingEventHandler copyHandler = new CountingEventHandler();
+
+        final JsyncResult result = new JsyncEngine()
+            .setAppendVerify(true)
+            .setEventHandler(copyHandler)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesUpdated()).isEqualTo(2);
+        assertThat(copyHandler.getBytesCopied()).isEqualTo(14L + 21L);
+        assertThat(targetAFile).hasSameTextualContentAs(sourceAFile);
+        assertThat(targetBFile).hasSameTextualContentAs(sourceBFile);
+    }
+
+    @Test
+    public void syncResume() throws Exception {
+        Path sourceAFile = this.syncSourceDir.resolve("a.txt");
+        this.writeFile(sourceAFile, "hello world, this is a large file");
+
+        // a previous transfer was interrupted
+        Path targetPartialFile = this.syncTargetDir.resolve(".a.txt.jsync-partial");
+        this.writeFile(targetPartialFile, "hello world");
+
+        final CountingEventHandler copyHandler = new CountingEventHandler();
+
+        final JsyncResult result = new JsyncEngine()
+            .setResume(true)
+            .setResumeMinSize(0)
+            .setDelete(true)
+            .setEventHandler(copyHandler)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(1);
+        assertThat(result.getFilesDeleted()).isEqualTo(0);
+        assertThat(copyHandler.getBytesCopied()).isEqualTo(Files.size(sourceAFile) - 11L);
+        assertThat(this.syncTargetDir.resolve("a.txt")).hasSameTextualContentAs(sourceAFile);
+        assertThat(targetPartialFile).doesNotExist();
+    }
+
+    @Test
+    public void syncResumeKeepsPartialFiles() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("a.txt"), "hello");
+        this.writeFile(this.syncSourceDir.resolve("b.txt"), "hello world, this is a large file");
+
+        // interrupted transfers of a file below the min size and of a file no longer on the source
+        Path targetAPartialFile = this.syncTargetDir.resolve(".a.txt.jsync-partial");
+        Path targetCPartialFile = this.syncTargetDir.resolve(".c.txt.jsync-partial");
+        this.writeFile(targetAPartialFile, "he");
+        this.writeFile(targetCPartialFile, "hello");
+
+        final JsyncResult result = new JsyncEngine()
+            .setResume(true)
+            .setResumeMinSize(10)
+            .setDelete(true)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        // small files are transferred directly, and partial files are never deleted
+        assertThat(result.getFilesCreated()).isEqualTo(2);
+        assertThat(result.getFilesDeleted()).isEqualTo(0);
+        assertThat(this.syncTargetDir.resolve("a.txt")).hasContent("hello");
+        assertThat(this.syncTargetDir.resolve(".b.txt.jsync-partial")).doesNotExist();
+        assertThat(targetAPartialFile).exists();
+        assertThat(targetCPartialFile).exists();
+    }
+
+    @Test
+    public void syncBulkListing() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("a/b/c.txt"), "hello");
+        this.writeFile(this.syncSourceDir.resolve("a/d.txt"), "hello");
+        this.writeFile(this.syncTargetDir.resolve("a/d.txt"), "hello world");
+        this.writeFile(this.syncTargetDir.resolve("e/f.txt"), "hello");
+
+        final JsyncResult result = new JsyncEngine()
+            .setBulkListing(true)
+            .setDelete(true)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(1);
+        assertThat(result.getFilesUpdated()).isEqualTo(1);
+        assertThat(result.getFilesDeleted()).isEqualTo(1);
+        assertThat(result.getDirsCreated()).isEqualTo(1);
+        assertThat(result.getDirsDeleted()).isEqualTo(1);
+        assertThat(this.syncTargetDir.resolve("a/b/c.txt")).hasContent("hello");
+        assertThat(this.syncTargetDir.resolve("a/d.txt")).hasContent("hello");
+        assertThat(this.syncTargetDir.resolve("e")).doesNotExist();
+    }
+
+    @Test
+    public void syncBulkListingSeparateFileSystems() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("a/b/c.txt"), "hello");
+        this.writeFile(this.syncSourceDir.resolve("a/d.txt"), "hello");
+        this.writeFile(this.syncTargetDir.resolve("a/b/c.txt"), "hello");
+        this.writeFile(this.syncTargetDir.resolve("e/f.txt"), "hello");
+
+        // separate filesystems are listed concurrently
+        final JsyncResult result = new JsyncEngine()
+            .setBulkListing(true)
+            .setDelete(true)
+            .sync(LocalVirtualFileSystem.open(), this.syncSourceDir.toString(), LocalVirtualFileSystem.open(), this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(1);
+        assertThat(result.getFilesUpdated()).isEqualTo(0);
+        assertThat(result.getFilesDeleted()).isEqualTo(1);
+        assertThat(result.getDirsDeleted()).isEqualTo(1);
+        assertThat(this.syncTargetDir.resolve("a/d.txt")).hasContent("hello");
+        assertThat(this.syncTargetDir.resolve("e")).doesNotExist();
+    }
+
+    @Test
+    public void syncPrefetch() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            this.writeFile(this.syncSourceDir.resolve("a" + i + "/b/c.txt"), "hello");
+            this.writeFile(this.syncSourceDir.resolve("a" + i + "/d.txt"), "hello");
+        }
+        this.writeFile(this.syncTargetDir.resolve("a1/b/c.txt"), "hello world");
+        this.writeFile(this.syncTargetDir.resolve("a2/e.txt"), "hello");
+
+        final JsyncResult result = new JsyncEngine()
+            .setPrefetchDepth(2)
+            .setDelete(true)
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        assertThat(result.getFilesCreated()).isEqualTo(9);
+        assertThat(result.getFilesUpdated()).isEqualTo(1);
+        assertThat(result.getFilesDeleted()).isEqualTo(1);
+        for (int i = 0; i < 5; i++) {
+            assertThat(this.syncTargetDir.resolve("a" + i + "/b/c.txt")).hasContent("hello");
+            assertThat(this.syncTargetDir.resolve("a" + i + "/d.txt")).hasContent("hello");
+        }
+        assertThat(this.syncTargetDir.resolve("a2/e.txt")).doesNotExist();
+    }
+
+    @Test
+    public void syncBatchesMutations() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            this.writeFile(this.syncSourceDir.resolve("a/b" + i + "/c.txt"), "hello");
+            this.writeFile(this.syncTargetDir.resolve("d/e" + i + "/f.txt"), "hello");
+        }
+
+        final AtomicInteger mkdirs = new AtomicInteger();
+        final AtomicInteger removeAlls = new AtomicInteger();
+        final AtomicInteger updateStats = new AtomicInteger();
+        final LocalVirtualFileSystem sourceVfs = LocalVirtualFileSystem.open();
+        final LocalVirtualFileSystem targetVfs = new LocalVirtualFileSystem("<local>", sourceVfs.pwd(), sourceVfs.isCaseSensitive(), sourceVfs.isPosix()) {
+            @Override
+            public void mkdirs(List<VirtualPath> paths) throws IOException {
+                mkdirs.incrementAndGet();
+                super.mkdirs(paths);
+            }
+
+            @Override
+            public void removeAll(List<VirtualPath> paths) throws IOException {
+                removeAlls.incrementAndGet();
+                super.removeAll(paths);
+            }
+
+            @Override
+            public void updateStats(List<VirtualStatUpdate> updates) throws IOException {
+                updateStats.incrementAndGet();
+                super.updateStats(updates);
+            }
+        };
+
+        final JsyncResult result = new JsyncEngine()
+            .setDelete(true)
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(result.getDirsCreated()).isEqualTo(6);
+        assertThat(result.getFilesCreated()).isEqualTo(5);
+        assertThat(result.getDirsDeleted()).isEqualTo(6);
+        assertThat(result.getFilesDeleted()).isEqualTo(5);
+        assertThat(result.getStatsUpdated()).isEqualTo(11);
+        // the 5 sibling dirs are created together, the entire deleted tree is removed together, and all stats at the end
+        assertThat(mkdirs.get()).isEqualTo(1);
+        assertThat(removeAlls.get()).isEqualTo(1);
+        assertThat(updateStats.get()).isEqualTo(1);
+        for (int i = 0; i < 5; i++) {
+            assertThat(this.syncTargetDir.resolve("a/b" + i + "/c.txt")).hasContent("hello");
+        }
+        assertThat(this.syncTargetDir.resolve("d")).doesNotExist();
+    }
+
+    @Test
+    public void syncFastDelete() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("a/b.txt"), "hello");
+        this.writeFile(this.syncTargetDir.resolve("a/b.txt"), "hello");
+        this.writeFile(this.syncTargetDir.resolve("c/d/e.txt"), "hello");
+        this.writeFile(this.syncTargetDir.resolve("c/d/f/g.txt"), "hello");
+        this.writeFile(this.syncTargetDir.resolve("c/h.txt"), "hello");
+
+        final Set<String> deletedFiles = new HashSet<>();
+        final JsyncResult result = new JsyncEngine()
+            .setFastDelete(true)
+            .setDelete(true)
+            .setEventHandler(new DefaultJsyncEventHandler() {
+                @Override
+                public void willDeleteFile(VirtualPath targetFile, boolean recursive) {
+                    deletedFiles.add(targetFile.getName());
+                }
+            })
+            .sync(this.syncSourceDir, this.syncTargetDir, JsyncMode.MERGE);
+
+        // everything deleted is still reported and counted
+        assertThat(deletedFiles).containsExactlyInAnyOrder("e.txt", "g.txt", "h.txt");
+        assertThat(result.getFilesDeleted()).isEqualTo(3);
+        assertThat(result.getDirsDeleted()).isEqualTo(3);
+        assertThat(this.syncTargetDir.resolve("c")).doesNotExist();
+        assertThat(this.syncTargetDir.resolve("a/b.txt")).hasContent("hello");
+    }
+
+    @Test
+    public void syncFailureStillUpdatesStats() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("a.txt"), "a");
+        this.writeFile(this.syncSourceDir.resolve("b.txt"), "b");
+        this.touch(this.syncSourceDir.resolve("a.txt"), Instant.parse("2024-01-02T03:04:05Z"));
+
+        final LocalVirtualFileSystem sourceVfs = LocalVirtualFileSystem.open();
+        final LocalVirtualFileSystem targetVfs = new LocalVirtualFileSystem("<local>", sourceVfs.pwd(), sourceVfs.isCaseSensitive(), sourceVfs.isPosix()) {
+            @Override
+            public OutputStream writeStream(VirtualPath path) throws IOException {
+                if (path.getName().equals("b.txt")) {
+                    throw new IOException("Disk full");
+                }
+                return super.writeStream(path);
+            }
+
+            @Override
+            public void directCopy(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+                if (targetPath.getName().equals("b.txt")) {
+                    throw new IOException("Disk full");
+                }
+                super.directCopy(sourceVfs, sourcePath, targetPath);
+            }
+        };
+
+        final IOException e = assertThrows(IOException.class, () -> new JsyncEngine()
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE));
+
+        // the file transferred before the failure still has its modified time updated
+        assertThat(e.getMessage()).contains("Disk full");
+        assertThat(this.syncTargetDir.resolve("a.txt")).hasContent("a");
+        assertThat(this.modifiedTime(this.syncTargetDir.resolve("a.txt"))).isEqualTo(Instant.parse("2024-01-02T03:04:05Z"));
+    }
+
+    @Test
+    public void syncArchive() throws Exception {
+        assumeTrue(Permissions.isPosixDefaultFileSystem(), "archives require a posix filesystem");
+
+        for (int i = 0; i < 5; i++) {
+            this.writeFile(this.syncSourceDir.resolve("a/b" + i + "/c.txt"), "hello");
+        }
+        this.writeFile(this.syncSourceDir.resolve("a/large.txt"), "hello world, this is too large to archive");
+        this.writeFile(this.syncSourceDir.resolve("a/ignored.txt"), "hello");
+        this.touch(this.syncSourceDir.resolve("a/b0/c.txt"), Instant.parse("2024-01-02T03:04:05Z"));
+
+        final AtomicInteger archives = new AtomicInteger();
+        final LocalVirtualFileSystem sourceVfs = LocalVirtualFileSystem.open();
+        // archives are only worth it if a filesystem is remote
+        final LocalVirtualFileSystem targetVfs = new RemoteLocalVirtualFileSystem(sourceVfs) {
+            @Override
+            public void extractArchive(InputStream input, VirtualPath path) throws IOException {
+                archives.incrementAndGet();
+                super.extractArchive(input, path);
+            }
+        };
+
+        final JsyncResult result = new JsyncEngine()
+            .setArchive(true)
+            .setArchiveMinFiles(5)
+            .setArchiveMaxFileSize(10L)
+            .addIgnore("a/ignored.txt")
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(archives.get()).isEqualTo(1);
+        assertThat(result.getDirsCreated()).isEqualTo(6);
+        assertThat(result.getFilesCreated()).isEqualTo(6);
+        for (int i = 0; i < 5; i++) {
+            assertThat(this.syncTargetDir.resolve("a/b" + i + "/c.txt")).hasContent("hello");
+        }
+        assertThat(this.modifiedTime(this.syncTargetDir.resolve("a/b0/c.txt"))).isEqualTo(Instant.parse("2024-01-02T03:04:05Z"));
+        assertThat(this.syncTargetDir.resolve("a/large.txt")).hasContent("hello world, this is too large to archive");
+        assertThat(this.syncTargetDir.resolve("a/ignored.txt")).doesNotExist();
+
+        // nothing left to do on another sync
+        final JsyncResult again = new JsyncEngine()
+            .setArchive(true)
+            .setArchiveMinFiles(5)
+            .addIgnore("a/ignored.txt")
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(archives.get()).isEqualTo(1);
+        assertThat(again.getFilesCreated()).isEqualTo(0);
+        assertThat(again.getFilesUpdated()).isEqualTo(0);
+        assertThat(again.getStatsUpdated()).isEqualTo(0);
+    }
+
+    @Test
+    public void syncArchiveChecksNestedDirsOnce() throws Exception {
+        assumeTrue(Permissions.isPosixDefaultFileSystem(), "archives require a posix filesystem");
+
+        this.writeFile(this.syncSourceDir.resolve("a/b/c/d.txt"), "hello");
+        this.writeFile(this.syncSourceDir.resolve("a/b/e.txt"), "hello");
+        this.writeFile(this.syncSourceDir.resolve("f/g.txt"), "hello");
+
+        final AtomicInteger trees = new AtomicInteger();
+        final LocalVirtualFileSystem targetVfs = LocalVirtualFileSystem.open();
+        // archives are only worth it if a filesystem is remote
+        final LocalVirtualFileSystem sourceVfs = new RemoteLocalVirtualFileSystem(targetVfs) {
+            @Override
+            public VirtualFileTree tree(VirtualPath path, VirtualPathMatchers prune) throws IOException {
+                trees.incrementAndGet();
+                return super.tree(path, prune);
+            }
+        };
+
+        final JsyncResult result = new JsyncEngine()
+            .setArchive(true)
+            .setArchiveMinFiles(5)
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        // too few files in "a" means too few in "a/b" and "a/b/c" as well, so only "a" and "f" are listed
+        assertThat(trees.get()).isEqualTo(2);
+        assertThat(result.getFilesCreated()).isEqualTo(3);
+        assertThat(this.syncTargetDir.resolve("a/b/c/d.txt")).hasContent("hello");
+    }
+
+    @Test
+    public void syncArchivePrunesAndKeepsPrefetching() throws Exception {
+        assumeTrue(Permissions.isPosixDefaultFileSystem(), "archives require a posix filesystem");
+
+        for (int i = 0; i < 5; i++) {
+            this.writeFile(this.syncSourceDir.resolve("a/x" + i + ".txt"), "hello");
+            this.writeFile(this.syncSourceDir.resolve("b/x" + i + ".txt"), "hello");
+        }
+        this.writeFile(this.syncSourceDir.resolve("a/node_modules/m.txt"), "hello");
+        for (String name : asList("c", "d", "e")) {
+            this.writeFile(this.syncSourceDir.resolve(name + "/y.txt"), "hello");
+            Files.createDirectories(this.syncTargetDir.resolve(name));
+        }
+
+        final List<String> pruneRules = new ArrayList<>();
+        final Set<String> prefetchedDirs = new HashSet<>();
+        final LocalVirtualFileSystem targetVfs = LocalVirtualFileSystem.open();
+        // archives are only worth it if a filesystem is remote
+        final LocalVirtualFileSystem sourceVfs = new RemoteLocalVirtualFileSystem(targetVfs) {
+            @Override
+            public VirtualFileTree tree(VirtualPath path, VirtualPathMatchers prune) throws IOException {
+                prune.getMatchers().forEach(v -> pruneRules.add(v.getRule()));
+                return super.tree(path, prune);
+            }
+
+            @Override
+            public List<VirtualPath> lsConcurrently(VirtualPath path) throws IOException {
+                synchronized (prefetchedDirs) {
+                    prefetchedDirs.add(path.getName());
+                }
+                return super.lsConcurrently(path);
+            }
+        };
+
+        final JsyncResult result = new JsyncEngine()
+            .setArchive(true)
+            .setArchiveMinFiles(5)
+            .setPrefetchDepth(1)
+            .addExclude("node_modules")
+            .addExclude("/skip/")
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        // excluded directories are never listed for an archive, although rooted rules only apply to the whole source
+        assertThat(pruneRules).contains("node_modules").doesNotContain("/skip/");
+        // "b" was prefetched but then listed for its archive, which must not keep prefetching from going on
+        assertThat(prefetchedDirs).contains("d");
+        assertThat(result.getFilesCreated()).isEqualTo(13);
+        assertThat(this.syncTargetDir.resolve("a/node_modules")).doesNotExist();
+        assertThat(this.syncTargetDir.resolve("e/y.txt")).hasContent("hello");
+    }
+
+    @Test
+    public void syncCompress() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append("{\"id\":").append(i).append(",\"name\":\"hello\"}\n");
+        }
+        this.writeFile(this.syncSourceDir.resolve("a/data.json"), text.toString());
+        this.writeFile(this.syncSourceDir.resolve("a/data.zip"), text.toString());
+        this.writeFile(this.syncSourceDir.resolve("a/small.txt"), "hello");
+
+        final Set<String> compressedFiles = new HashSet<>();
+        final LocalVirtualFileSystem sourceVfs = LocalVirtualFileSystem.open();
+        // compression is only worth it if a filesystem is remote
+        final LocalVirtualFileSystem targetVfs = new RemoteLocalVirtualFileSystem(sourceVfs) {
+            @Override
+            public void writeFileCompressed(InputStream input, VirtualPath path) throws IOException {
+                compressedFiles.add(path.getName());
+                super.writeFileCompressed(input, path);
+            }
+        };
+
+        final JsyncResult result = new JsyncEngine()
+            .setCompress(true)
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        // already compressed formats and small files are not worth it
+        assertThat(compressedFiles).containsExactly("data.json");
+        assertThat(result.getFilesCreated()).isEqualTo(3);
+        assertThat(this.syncTargetDir.resolve("a/data.json")).hasContent(text.toString());
+        assertThat(this.syncTargetDir.resolve("a/data.zip")).hasContent(text.toString());
+        assertThat(this.syncTargetDir.resolve("a/small.txt")).hasContent("hello");
+
+        // an event handler that copies the content itself sees every byte, so nothing is compressed behind its back
+        compressedFiles.clear();
+        MoreFiles.deleteDirectoryIfExists(this.syncTargetDir.resolve("a"));
+        final CountingEventHandler copyHandler = new CountingEventHandler();
+        final JsyncResult again = new JsyncEngine()
+            .setCompress(true)
+            .setEventHandler(copyHandler)
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(compressedFiles).isEmpty();
+        assertThat(again.getFilesCreated()).isEqualTo(3);
+        assertThat(copyHandler.getBytesCopied()).isEqualTo(2L * text.length() + 5L);
+    }
+
+    @Test
+    public void syncDirectCopy() throws Exception {
+        this.writeFile(this.syncSourceDir.resolve("a/b.txt"), "hello");
+        this.writeFile(this.syncSourceDir.resolve("c.txt"), "hello world");
+        this.writeFile(this.syncTargetDir.resolve("c.txt"), "goodbye");
+
+        final AtomicInteger directCopies = new AtomicInteger();
+        final LocalVirtualFileSystem sourceVfs = LocalVirtualFileSystem.open();
+        final LocalVirtualFileSystem targetVfs = new LocalVirtualFileSystem("<local>", sourceVfs.pwd(), sourceVfs.isCaseSensitive(), sourceVfs.isPosix()) {
+            @Override
+            public void directCopy(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+                directCopies.incrementAndGet();
+                super.directCopy(sourceVfs, sourcePath, targetPath);
+            }
+        };
+
+        new JsyncEngine()
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(directCopies.get()).isEqualTo(2);
+        assertThat(this.syncTargetDir.resolve("a/b.txt")).hasContent("hello");
+        assertThat(this.syncTargetDir.resolve("c.txt")).hasContent("hello world");
+
+        // a custom copy must see every byte, so nothing is copied directly
+        this.writeFile(this.syncSourceDir.resolve("d.txt"), "hello");
+        final CountingEventHandler copyHandler = new CountingEventHandler();
+        new JsyncEngine()
+            .setEventHandler(copyHandler)
+            .sync(sourceVfs, this.syncSourceDir.toString(), targetVfs, this.syncTargetDir.toString(), JsyncMode.MERGE);
+
+        assertThat(directCopies.get()).isEqualTo(2);
+        assertThat(copyHandler.getBytesCopied()).isEqualTo(5L);
+        assertThat(this.syncTargetDir.resolve("d.txt")).hasContent("hello");
+    }
+
+    /**
+     * Copies the content itself (like a handler reporting progress would), counting every byte it sees.
+     */
+    static private class CountingEventHandler extends DefaultJsyncEventHandler {
+
+        private final AtomicLong bytesCopied = new AtomicLong();
+
+        public long getBytesCopied() {
+            return bytesCopied.get();
+        }
+
+        @Override
+        public void doCopy(InputStream input, OutputStream output, long knownContentLength) throws IOException {
+            this.bytesCopied.addAndGet(knownContentLength);
+            super.doCopy(input, output, knownContentLength);
+        }
+
+    }
+
+    /**
+     * The local filesystem, although claiming to be remote (archives, compression, etc. are only used with one).
+     */
+    static private class RemoteLocalVirtualFileSystem extends LocalVirtualFileSystem {
+
+        public RemoteLocalVirtualFileSystem(LocalVirtualFileSystem vfs) {
+            super(vfs.getName(), vfs.pwd(), vfs.isCaseSensitive(), vfs.isPosix());
+        }
+
+        @Override
+        public boolean isRemote() {
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.fizzed.jsync.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsyncPathChangesTest {
+
+    @Test
+    public void ofIsShared() {
+        final JsyncPathChanges changes = JsyncPathChanges.of(false, false, true, true, false, false, null);
+
+        assertThat(changes).isSameAs(JsyncPathChanges.of(JsyncPathChanges.SIZE | JsyncPathChanges.TIMESTAMPS));
+        assertThat(changes.isSize()).isTrue();
+        assertThat(changes.isTimestamps()).isTrue();
+        assertThat(changes.isMissing()).isFalse();
+        assertThat(changes.hasChecksum()).isFalse();
+        assertThat(changes.getChecksum()).isNull();
+        assertThat(changes.isContentModified(false)).isTrue();
+    }
+
+    @Test
+    public void checksum() {
+        final JsyncPathChanges matched = JsyncPathChanges.of(false, false, false, true, false, false, false);
+
+        assertThat(matched.hasChecksum()).isTrue();
+        assertThat(matched.getChecksum()).isFalse();
+        assertThat(matched.isContentModified(false)).isFalse();
+        assertThat(matched.isDeferredProcessing(false)).isFalse();
+        assertThat(matched.buildMessage()).isEqualTo("no changes, checksum match");
+
+        // a modified checksum is always known
+        final JsyncPathChanges modified = JsyncPathChanges.of(JsyncPathChanges.CHECKSUM);
+        assertThat(modified.getChecksum()).isTrue();
+        assertThat(modified.isContentModified(false)).isTrue();
+        assertThat(modified.buildMessage()).isEqualTo("checksum mismatch");
+    }
+
+    @Test
+    public void deferred() {
+        final JsyncPathChanges changes = JsyncPathChanges.of(JsyncPathChanges.TIMESTAMPS | JsyncPathChanges.PERMISSIONS);
+
+        assertThat(changes.isDeferredProcessing(false)).isTrue();
+        assertThat(changes.isStatModified()).isTrue();
+        assertThat(changes.buildMessage()).isEqualTo("times mismatch, perms mismatch");
+        assertThat(JsyncPathChanges.of(JsyncPathChanges.DIRECTORY).buildMessage()).isEqualTo("no changes");
+    }
+
+}
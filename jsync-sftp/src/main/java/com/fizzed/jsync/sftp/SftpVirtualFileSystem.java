@@ -1,18 +1,25 @@
 package com.fizzed.jsync.sftp;
 
+import com.fizzed.jsync.sftp.impl.NulDelimitedOutputStream;
+import com.fizzed.jsync.sftp.impl.SftpSeekableByteChannel;
 import com.fizzed.jsync.sftp.impl.SignalClosingOutputStream;
 import com.fizzed.jsync.vfs.*;
 import com.fizzed.jsync.vfs.util.Checksums;
+import com.fizzed.jsync.vfs.util.VirtualPathMatcher;
+import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
 import com.jcraft.jsch.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 
@@ -25,6 +32,10 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
     private final boolean closeSsh;
     private final ChannelSftp sftp;
     private final boolean closeSftp;
+    private final Object lsLock;
+    private ChannelSftp lsSftp;
+    private volatile Boolean archiveSupported;
+    private volatile Boolean compressionSupported;
     private int maxCommandLength;
     private final boolean windows;
 
@@ -35,6 +46,7 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
         this.closeSsh = closeSsh;
         this.sftp = sftp;
         this.closeSftp = closeSftp;
+        this.lsLock = new Object();
         this.maxCommandLength = 7000;       // windows shell limit is 8,191, linux/mac/bsd is effectively unlimited
         this.windows = windows;
     }
@@ -138,6 +150,16 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
 
     @Override
     public void close() throws Exception {
+        synchronized (this.lsLock) {
+            if (this.lsSftp != null) {
+                try {
+                    this.lsSftp.disconnect();
+                } catch (Exception e) {
+                    // ignore
+                }
+                this.lsSftp = null;
+            }
+        }
         if (this.closeSftp) {
             try {
                 this.sftp.disconnect();
@@ -200,6 +222,57 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
         }
     }*/
 
+    @Override
+    public boolean isCopySupported() {
+        // jsch does not expose sending the "copy-data" or "copy-file" sftp extensions, so we rely on executing "cp"
+        // on the remote host, which we only support on posix-like systems
+        return !this.windows;
+    }
+
+    @Override
+    public boolean isDirectCopySupported(VirtualFileSystem sourceVfs) {
+        // only a file already on this same host can be copied without it going thru us
+        return sourceVfs == this && this.isCopySupported();
+    }
+
+    @Override
+    public boolean isRandomAccessSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isArchiveSupported() throws IOException {
+        if (this.windows) {
+            return false;
+        }
+        if (this.archiveSupported == null) {
+            // both gnu and bsd tar support everything we use, so we only need to know if it exists
+            final int exitValue = this.exec(this.ssh, "tar --version", null, new ByteArrayOutputStream(), new ByteArrayOutputStream());
+            this.archiveSupported = (exitValue == 0);
+            log.debug("Detected tar supported: {}", this.archiveSupported);
+        }
+        return this.archiveSupported;
+    }
+
+    @Override
+    public boolean isCompressionSupported() throws IOException {
+        if (this.windows) {
+            return false;
+        }
+        if (this.compressionSupported == null) {
+            final int exitValue = this.exec(this.ssh, "gzip --version", null, new ByteArrayOutputStream(), new ByteArrayOutputStream());
+            this.compressionSupported = (exitValue == 0);
+            log.debug("Detected gzip supported: {}", this.compressionSupported);
+        }
+        return this.compressionSupported;
+    }
+
+    @Override
+    public boolean isConcurrentListingSupported() {
+        // concurrent listings are done on their own sftp channel, so they do not interfere with the main channel
+        return true;
+    }
+
     @Override
     protected List<Checksum> doDetectChecksums() throws IOException {
         // windows is easy, return what powershell supports
@@ -317,27 +390,212 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
 
     @Override
     public List<VirtualPath> ls(VirtualPath path) throws IOException {
-        final Vector<ChannelSftp.LsEntry> entries;
-        try {
-            entries = this.sftp.ls(path.toString());
-        } catch (SftpException e) {
-            throw toIOException(e);
-        }
+        final List<VirtualPath> childPaths = new ArrayList<>();
+        this.ls(path, childPaths::add);
+        return childPaths;
+    }
 
+    @Override
+    public List<VirtualPath> lsConcurrently(VirtualPath path) throws IOException {
         final List<VirtualPath> childPaths = new ArrayList<>();
+        // a channel is not safe to use from multiple threads, so concurrent listings get their own channel, which is
+        // only opened the first time one is needed
+        synchronized (this.lsLock) {
+            try {
+                if (this.lsSftp == null) {
+                    final ChannelSftp channel = (ChannelSftp)this.ssh.openChannel("sftp");
+                    channel.connect();
+                    this.lsSftp = channel;
+                }
+            } catch (JSchException e) {
+                throw toIOException(e);
+            }
+            this.ls(this.lsSftp, path, childPaths::add);
+        }
+        return childPaths;
+    }
+
+    @Override
+    public void ls(VirtualPath path, VirtualPathVisitor visitor) throws IOException {
+        this.ls(this.sftp, path, visitor);
+    }
 
-        for (ChannelSftp.LsEntry entry : entries) {
+    protected void ls(ChannelSftp channel, VirtualPath path, VirtualPathVisitor visitor) throws IOException {
+        // entries are visited as each batch arrives from the server, rather than collected into one huge vector first
+        final IOException[] failure = new IOException[1];
+        final ChannelSftp.LsEntrySelector selector = entry -> {
             if (entry.getFilename().equals(".") || entry.getFilename().equals("..")) {
-                continue;   // skip these
+                return ChannelSftp.LsEntrySelector.CONTINUE;    // skip these
             }
 
             // dir true/false doesn't matter, stats call next will correct it
             VirtualPath childPathWithoutStats = path.resolve(entry.getFilename(), false);
-            VirtualPath childPath = this.withStats(childPathWithoutStats, entry.getAttrs());
-            childPaths.add(childPath);
+            try {
+                VirtualPath childPath = this.withStats(childPathWithoutStats, entry.getAttrs());
+                visitor.visit(childPath);
+                return ChannelSftp.LsEntrySelector.CONTINUE;
+            } catch (IOException e) {
+                failure[0] = e;
+                return ChannelSftp.LsEntrySelector.BREAK;
+            }
+        };
+
+        try {
+            channel.ls(path.toString(), selector);
+        } catch (SftpException e) {
+            throw toIOException(e);
         }
 
-        return childPaths;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    @Override
+    public VirtualFileTree tree(VirtualPath path, VirtualPathMatchers prune) throws IOException {
+        if (!this.windows) {
+            try {
+                return this.treeWithFind(path, prune);
+            } catch (IOException e) {
+                log.debug("Unable to list tree using find (will list each directory instead): {}", e.getMessage());
+            }
+        }
+
+        return VirtualFileTree.walk(this, path, prune);
+    }
+
+    protected VirtualFileTree treeWithFind(VirtualPath path, VirtualPathMatchers prune) throws IOException {
+        final VirtualFileTree tree = new VirtualFileTree(path);
+
+        // a single exec lists the entire tree, with records streamed back and parsed as they arrive
+        final String command = buildFindCommand(path, prune);
+
+        final NulDelimitedOutputStream output = new NulDelimitedOutputStream(record -> tree.add(parseFindRecord(path, record)));
+        final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+
+        final int exitValue = this.exec(this.ssh, command, null, output, errorOutput);
+
+        if (exitValue != 0) {
+            throw new IOException("Command find failed (exit " + exitValue + "): " + errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+        }
+
+        if (output.getFailure() != null) {
+            throw new IOException("Unable to parse find output: " + output.getFailure().getMessage(), output.getFailure());
+        }
+
+        return tree;
+    }
+
+    // type, size, modified time, accessed time, permissions (octal), path relative to the starting directory
+    static protected final String FIND_PRINTF_FORMAT = "%y %s %T@ %A@ %m %P\\0";
+
+    static protected String buildFindCommand(VirtualPath root, VirtualPathMatchers prune) {
+        final String printf = "-printf " + shellQuote(FIND_PRINTF_FORMAT);
+
+        // any prune rules that can be evaluated by find will stop it from descending into those directories, but the
+        // matched paths themselves are still printed, since the caller may still want to know about them
+        final List<String> predicates = new ArrayList<>();
+        if (prune != null) {
+            for (VirtualPathMatcher matcher : prune.getMatchers()) {
+                final String predicate = toFindPredicate(root, matcher);
+                if (predicate != null) {
+                    predicates.add(predicate);
+                }
+            }
+        }
+
+        final StringBuilder command = new StringBuilder();
+        command.append("find ").append(shellQuote(root.toString())).append(" -mindepth 1 ");
+
+        if (!predicates.isEmpty()) {
+            command.append("\\( ").append(String.join(" -o ", predicates)).append(" \\) ")
+                .append(printf).append(" -prune -o ");
+        }
+
+        command.append(printf);
+
+        return command.toString();
+    }
+
+    static protected String toFindPredicate(VirtualPath root, VirtualPathMatcher matcher) {
+        String glob = matcher.getRule().trim();
+        boolean rooted = false;
+
+        if (glob.endsWith("/")) {
+            glob = glob.substring(0, glob.length() - 1);
+        }
+        if (glob.startsWith("/")) {
+            rooted = true;
+            glob = glob.substring(1);
+        }
+
+        // find patterns do not support these, so these rules are only evaluated on the client
+        if (glob.isEmpty() || glob.contains("**") || glob.contains("{") || glob.contains("}") || glob.contains("\\")) {
+            return null;
+        }
+
+        final boolean hasSlash = glob.indexOf('/') >= 0;
+        final boolean hasWildcard = glob.indexOf('*') >= 0 || glob.indexOf('?') >= 0 || glob.indexOf('[') >= 0;
+
+        // a rule of only a name matches that name anywhere, exactly like -name
+        if (!rooted && !hasSlash) {
+            return "-name " + shellQuote(glob);
+        }
+
+        // wildcards in a -path pattern also match slashes, unlike a glob, so these are only evaluated on the client
+        if (hasWildcard) {
+            return null;
+        }
+
+        String rootPattern = root.toString().replaceAll("([\\\\*?\\[])", "\\\\$1");
+        if (rootPattern.endsWith("/")) {
+            rootPattern = rootPattern.substring(0, rootPattern.length() - 1);
+        }
+
+        if (rooted) {
+            return "-path " + shellQuote(rootPattern + "/" + glob);
+        }
+
+        // either directly under the root or nested at any depth (a * in a -path pattern matches slashes)
+        return "-path " + shellQuote(rootPattern + "/" + glob) + " -o -path " + shellQuote(rootPattern + "/*/" + glob);
+    }
+
+    static protected VirtualPath parseFindRecord(VirtualPath root, String record) {
+        final String[] fields = record.split(" ", 6);
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("Invalid find record: " + record);
+        }
+
+        final VirtualFileType type;
+        switch (fields[0]) {
+            case "d":
+                type = VirtualFileType.DIR;
+                break;
+            case "f":
+                type = VirtualFileType.FILE;
+                break;
+            case "l":
+                type = VirtualFileType.SYMLINK;
+                break;
+            default:
+                type = VirtualFileType.OTHER;
+                break;
+        }
+
+        final long size = Long.parseLong(fields[1]);
+        // sftp only provides timestamps in seconds, so we drop the fractional part to be consistent with ls()
+        final long modifiedTime = parseEpochSeconds(fields[2]) * 1000L;
+        final long accessedTime = parseEpochSeconds(fields[3]) * 1000L;
+        final int perms = Integer.parseInt(fields[4], 8) & 07777;
+
+        final VirtualFileStat stat = new VirtualFileStat(type, size, modifiedTime, accessedTime, perms);
+
+        return root.resolve(fields[5], type == VirtualFileType.DIR, stat);
+    }
+
+    static private long parseEpochSeconds(String value) {
+        final int dotPos = value.indexOf('.');
+        return Long.parseLong(dotPos >= 0 ? value.substring(0, dotPos) : value);
     }
 
     @Override
@@ -367,6 +625,219 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
         }
     }
 
+    @Override
+    public void mkdirs(List<VirtualPath> paths) throws IOException {
+        final List<String> commands = new ArrayList<>();
+        for (VirtualPath path : paths) {
+            commands.add("mkdir -p -- " + shellQuote(path.toString()));
+        }
+
+        if (!this.execBatch("mkdir", commands, paths)) {
+            for (VirtualPath path : paths) {
+                this.mkdir(path);
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(List<VirtualPath> paths) throws IOException {
+        final List<String> commands = new ArrayList<>();
+        for (VirtualPath path : paths) {
+            commands.add((path.isDirectory() ? "rmdir -- " : "rm -- ") + shellQuote(path.toString()));
+        }
+
+        if (!this.execBatch("remove", commands, paths)) {
+            for (VirtualPath path : paths) {
+                if (path.isDirectory()) {
+                    this.rmdir(path);
+                } else {
+                    this.rm(path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void createArchive(VirtualPath path, List<VirtualPath> paths, OutputStream output) throws IOException {
+        if (this.windows) {
+            throw new IOException("Archives are not supported on windows virtual filesystem " + this.getName());
+        }
+
+        // the paths to include are streamed in (NUL separated, so any name is safe), and the archive streamed back
+        final ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (VirtualPath p : paths) {
+            names.write(path.relativize(p).getBytes(StandardCharsets.UTF_8));
+            names.write(0);
+        }
+
+        final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+        final int exitValue = this.exec(this.ssh, "tar -c -f - --null --no-recursion -C " + shellQuote(path.toString()) + " -T -",
+            new ByteArrayInputStream(names.toByteArray()), output, errorOutput);
+
+        if (exitValue != 0) {
+            throw new IOException("Command tar -c failed (exit " + exitValue + "): " + errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+        }
+    }
+
+    @Override
+    public void extractArchive(InputStream input, VirtualPath path) throws IOException {
+        if (this.windows) {
+            throw new IOException("Archives are not supported on windows virtual filesystem " + this.getName());
+        }
+
+        final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+        // -p preserves permissions exactly as archived (rather than applying the umask)
+        final int exitValue = this.exec(this.ssh, "tar -x -p -f - -C " + shellQuote(path.toString()), input, null, errorOutput);
+
+        if (exitValue != 0) {
+            throw new IOException("Command tar -x failed (exit " + exitValue + "): " + errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+        }
+    }
+
+    @Override
+    public void readFileCompressed(VirtualPath path, OutputStream output) throws IOException {
+        if (this.windows) {
+            throw new IOException("Compression is not supported on windows virtual filesystem " + this.getName());
+        }
+
+        final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+        final int exitValue = this.exec(this.ssh, "gzip -c < " + shellQuote(path.toString()), null, output, errorOutput);
+
+        if (exitValue != 0) {
+            throw new IOException("Command gzip -c failed (exit " + exitValue + "): " + errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+        }
+    }
+
+    @Override
+    public void writeFileCompressed(InputStream input, VirtualPath path) throws IOException {
+        if (this.windows) {
+            throw new IOException("Compression is not supported on windows virtual filesystem " + this.getName());
+        }
+
+        final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+        final int exitValue = this.exec(this.ssh, "gzip -dc > " + shellQuote(path.toString()), input, null, errorOutput);
+
+        if (exitValue != 0) {
+            throw new IOException("Command gzip -dc failed (exit " + exitValue + "): " + errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+        }
+    }
+
+    @Override
+    public void rmtree(VirtualPath path) throws IOException {
+        if (!this.windows && this.isSafeToRemoveTree(path)) {
+            final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+            final int exitValue = this.exec(this.ssh, "rm -rf -- " + shellQuote(path.toString()), null, null, errorOutput);
+            if (exitValue == 0) {
+                return;
+            }
+            // whatever is left will be removed one path at a time, which will fail on the real problem if there is one
+            log.debug("Unable to remove tree {} with rm -rf (will remove each path instead): exit {}, {}", path, exitValue,
+                errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+        }
+
+        super.rmtree(path);
+    }
+
+    protected boolean isSafeToRemoveTree(VirtualPath path) {
+        // "rm -rf" is only ever used on a clean absolute path, which is not the root, nor the home directory (or above)
+        final String value = path.toString();
+        if (!value.startsWith("/") || value.equals("/") || value.endsWith("/") || value.contains("//")) {
+            return false;
+        }
+        for (String segment : value.split("/")) {
+            if (segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+        }
+        final String pwd = this.pwd.toString();
+        return !pwd.equals(value) && !pwd.startsWith(value + "/");
+    }
+
+    @Override
+    public void updateStats(List<VirtualStatUpdate> updates) throws IOException {
+        final List<String> commands = new ArrayList<>();
+        final List<VirtualPath> paths = new ArrayList<>();
+        for (VirtualStatUpdate update : updates) {
+            commands.add(buildUpdateStatCommand(update));
+            paths.add(update.getPath());
+        }
+
+        if (!this.execBatch("stat update", commands, paths)) {
+            for (VirtualStatUpdate update : updates) {
+                this.updateStat(update.getPath(), update.getStat(), update.getOptions());
+            }
+        }
+    }
+
+    static protected String buildUpdateStatCommand(VirtualStatUpdate update) {
+        final String path = shellQuote(update.getPath().toString());
+        final List<String> commands = new ArrayList<>();
+
+        if (update.getOptions().contains(StatUpdateOption.PERMISSIONS)) {
+            commands.add("chmod -- " + Integer.toOctalString(update.getStat().getPermissions() & 07777) + " " + path);
+        }
+
+        if (update.getOptions().contains(StatUpdateOption.TIMESTAMPS)) {
+            // iso-8601 in utc is understood by both gnu and bsd touch, and unlike sftp, keeps the milliseconds
+            commands.add("touch -a -d " + Instant.ofEpochMilli(update.getStat().getAccessedTime()) + " -- " + path);
+            commands.add("touch -m -d " + Instant.ofEpochMilli(update.getStat().getModifiedTime()) + " -- " + path);
+        }
+
+        if (commands.isEmpty()) {
+            return "true";
+        }
+
+        return String.join(" && ", commands);
+    }
+
+    /**
+     * Runs many commands in a single shell on the remote host, with the script streamed to it, rather than one round
+     * trip per path. Each command that fails prints its index, which is how we know which path failed.
+     *
+     * @return true if the commands were run, or false if they were not (e.g. a windows host, no shell, or too few
+     *      commands to be worth it) and the caller should do each one itself
+     * @throws IOException if any command failed
+     */
+    protected boolean execBatch(String description, List<String> commands, List<VirtualPath> paths) throws IOException {
+        if (this.windows || commands.size() < MIN_BATCH_SIZE) {
+            return false;
+        }
+
+        final StringBuilder script = new StringBuilder();
+        for (int i = 0; i < commands.size(); i++) {
+            script.append(commands.get(i)).append(" || echo ").append(i).append('\n');
+        }
+        script.append("echo ").append(BATCH_DONE_MARKER).append('\n');
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+        final ByteArrayInputStream input = new ByteArrayInputStream(script.toString().getBytes(StandardCharsets.UTF_8));
+
+        final int exitValue = this.exec(this.ssh, "sh -s", input, output, errorOutput);
+
+        final List<String> lines = asList(output.toString(StandardCharsets.UTF_8.name()).split("\n"));
+        if (exitValue != 0 || !lines.contains(BATCH_DONE_MARKER)) {
+            // the shell never ran the script, so nothing was done
+            log.debug("Unable to {} in bulk (will do each path instead): exit {}, {}", description, exitValue,
+                errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+            return false;
+        }
+
+        for (String line : lines) {
+            line = line.trim();
+            if (line.matches("\\d+")) {
+                final VirtualPath failedPath = paths.get(Integer.parseInt(line));
+                throw new IOException("Unable to " + description + " " + failedPath + ": "
+                    + errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+            }
+        }
+
+        return true;
+    }
+
+    static protected final int MIN_BATCH_SIZE = 4;
+    static protected final String BATCH_DONE_MARKER = "jsync-batch-done";
+
     @Override
     public InputStream readFile(VirtualPath path) throws IOException {
         try {
@@ -394,6 +865,88 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
         }
     }
 
+    @Override
+    public InputStream readFile(VirtualPath path, long offset) throws IOException {
+        try {
+            return this.sftp.get(path.toString(), null, offset);
+        } catch (SftpException e) {
+            throw toIOException(e);
+        }
+    }
+
+    @Override
+    public OutputStream writeStream(VirtualPath path, long offset) throws IOException {
+        // jsch only supports writing at an offset relative to the current size of the file (its "append" mode opens
+        // the file without truncating it, but does NOT actually set the sftp append flag)
+        long size = 0L;
+        try {
+            size = this.sftp.stat(path.toString()).getSize();
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                throw toIOException(e);
+            }
+        }
+
+        try {
+            return this.sftp.put(path.toString(), null, ChannelSftp.APPEND, offset - size);
+        } catch (SftpException e) {
+            throw toIOException(e);
+        }
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(VirtualPath path, boolean writable) throws IOException {
+        long size = 0L;
+        try {
+            size = this.sftp.stat(path.toString()).getSize();
+        } catch (SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE || !writable) {
+                throw toIOException(e);
+            }
+            // create the file, but never truncate it
+            try (OutputStream output = this.sftp.put(path.toString(), null, ChannelSftp.APPEND, 0L)) {
+                // nothing to write
+            } catch (SftpException e2) {
+                throw toIOException(e2);
+            }
+        }
+
+        return new SftpSeekableByteChannel(this.sftp, path.toString(), writable, size);
+    }
+
+    @Override
+    public void cp(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        if (this.windows) {
+            throw new IOException("Server-side copy is not supported on windows virtual filesystem " + this.getName());
+        }
+
+        final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+        final int exitValue = this.exec(this.ssh, cpCommand(sourcePath, targetPath), null, null, errorOutput);
+
+        if (exitValue != 0) {
+            throw new IOException("Server-side copy of " + sourcePath + " to " + targetPath + " failed (exit "
+                + exitValue + "): " + errorOutput.toString(StandardCharsets.UTF_8.name()).trim());
+        }
+    }
+
+    @Override
+    public void directCopy(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        if (sourceVfs != this) {
+            throw new IOException("Direct copy from " + sourceVfs.getName() + " is not supported by " + this.getName());
+        }
+        this.cp(sourcePath, targetPath);
+    }
+
+    @Override
+    public void mv(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        try {
+            // jsch will use the "posix-rename@openssh.com" extension if the server supports it, which replaces existing
+            this.sftp.rename(sourcePath.toString(), targetPath.toString());
+        } catch (SftpException e) {
+            throw toIOException(e);
+        }
+    }
+
     @Override
     public void cksums(List<VirtualPath> paths) throws IOException {
        /* if (this.windows) {
@@ -421,8 +974,125 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
         }
     }
 
+    @Override
+    public List<String> blockChecksums(Checksum checksum, VirtualPath path, long blockSize) throws IOException {
+        if (this.windows) {
+            throw new UnsupportedChecksumException("Block checksums are not supported on windows", null);
+        }
+
+        final String exeName = this.toPosixHashExeName(checksum);
+
+        final long size = (path.getStat() != null ? path : this.stat(path)).getStat().getSize();
+        final long blocks = (size + blockSize - 1) / blockSize;
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final int exitValue = this.exec(this.ssh, blockChecksumsCommand(checksum, exeName, path, blockSize, blocks), null, baos, System.err);
+
+        if (exitValue != 0) {
+            throw new UnsupportedChecksumException("Block checksums using " + checksum + " failed on virtual filesystem " + this.getName(), null);
+        }
+
+        final String output = baos.toString(StandardCharsets.UTF_8.name());
+
+        // data is piped in, so the "file" of every entry will be "-" and can be ignored
+        final List<String> values = new ArrayList<>();
+        if (checksum == Checksum.CK) {
+            for (Checksums.HashEntry entry : Checksums.parsePosixCksumOutput(output)) {
+                values.add(Long.toString(entry.getCksum()));
+            }
+        } else {
+            for (Checksums.HashEntry entry : Checksums.parsePosixHashOutput(output)) {
+                values.add(entry.getHash());
+            }
+        }
+
+        if (values.size() != blocks) {
+            throw new IOException("Block checksums of " + path + " returned " + values.size() + " values (expected " + blocks + ")");
+        }
+
+        return values;
+    }
+
+    @Override
+    public String prefixChecksum(Checksum checksum, VirtualPath path, long length) throws IOException {
+        if (this.windows) {
+            throw new UnsupportedChecksumException("Prefix checksums are not supported on windows", null);
+        }
+
+        final String exeName = this.toPosixHashExeName(checksum);
+
+        final String script = "head -c " + length + " " + shellQuote(path.toString()) + " | " + exeName;
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final int exitValue = this.exec(this.ssh, "sh -c " + shellQuote(script), null, baos, System.err);
+
+        if (exitValue != 0) {
+            throw new UnsupportedChecksumException("Prefix checksum using " + checksum + " failed on virtual filesystem " + this.getName(), null);
+        }
+
+        final String output = baos.toString(StandardCharsets.UTF_8.name());
+
+        final List<Checksums.HashEntry> entries = checksum == Checksum.CK
+            ? Checksums.parsePosixCksumOutput(output) : Checksums.parsePosixHashOutput(output);
+
+        if (entries.size() != 1) {
+            throw new IOException("Prefix checksum of " + path + " returned " + entries.size() + " values (expected 1)");
+        }
+
+        return checksum == Checksum.CK ? Long.toString(entries.get(0).getCksum()) : entries.get(0).getHash();
+    }
+
     // helpers
 
+    static protected String cpCommand(VirtualPath sourcePath, VirtualPath targetPath) {
+        // names are quoted (and options ended), since they may contain anything the shell would otherwise interpret
+        return "cp -f -- " + shellQuote(sourcePath.toString()) + " " + shellQuote(targetPath.toString());
+    }
+
+    static protected String blockChecksumsCommand(Checksum checksum, String exeName, VirtualPath path, long blockSize, long blocks) {
+        final String file = shellQuote(path.toString());
+
+        // a portable fallback that reads the file once, in order, through one shared descriptor (each dd consumes exactly
+        // the next block, which needs fullblock since a pipe or network filesystem may return a short read)
+        final String script = "dd iflag=fullblock count=0 </dev/null 2>/dev/null || exit 1;"
+            + " i=0; while [ $i -lt " + blocks + " ]; do"
+            + " dd iflag=fullblock bs=" + blockSize + " count=1 2>/dev/null | " + exeName + " || exit 1;"
+            + " i=$((i+1)); done < " + file;
+
+        // perl hashes every block in one process, rather than forking dd and the hash per block (output is the same)
+        final String perlModule = checksum == Checksum.MD5 ? "Digest::MD5" : checksum == Checksum.SHA1 ? "Digest::SHA" : null;
+        if (perlModule == null) {
+            return "sh -c " + shellQuote(script);
+        }
+
+        final String perlHash = checksum == Checksum.MD5 ? "Digest::MD5::md5_hex" : "Digest::SHA::sha1_hex";
+        final String perlScript = "binmode STDIN; for (1.." + blocks + ") { my $b = \"\";"
+            + " while (length($b) < " + blockSize + ") { my $n = read(STDIN, $b, " + blockSize + " - length($b), length($b));"
+            + " die \"$!\\n\" unless defined $n; last unless $n; }"
+            + " print " + perlHash + "($b), \"  -\\n\"; }";
+
+        return "sh -c " + shellQuote("if perl -M" + perlModule + " -e 1 2>/dev/null; then exec perl -M" + perlModule
+            + " -e " + shellQuote(perlScript) + " < " + file + "; fi; " + script);
+    }
+
+    static protected String shellQuote(String value) {
+        // single quotes preserve everything literally, other than a single quote itself, which must be spliced in
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    protected String toPosixHashExeName(Checksum checksum) {
+        switch (checksum) {
+            case CK:
+                return "cksum";
+            case MD5:
+                return "md5sum";
+            case SHA1:
+                return "sha1sum";
+            default:
+                throw new UnsupportedChecksumException("Unsupported checksum '" + checksum + "' on posix is not supported", null);
+        }
+    }
+
     static protected IOException toIOException(JSchException e) {
         return new IOException(e.getMessage(), e);
     }
@@ -523,20 +1193,7 @@ public class SftpVirtualFileSystem extends AbstractVirtualFileSystem {
 
     protected void hashFilesOnPosix(Checksum checksum, List<VirtualPath> paths) throws IOException {
         // name of the executable we will run
-        final String exeName;
-        switch (checksum) {
-            case CK:
-                exeName = "cksum";
-                break;
-            case MD5:
-                exeName = "md5sum";
-                break;
-            case SHA1:
-                exeName = "sha1sum";
-                break;
-            default:
-                throw new UnsupportedChecksumException("Unsupported checksum '" + checksum + "' on posix is not supported", null);
-        }
+        final String exeName = this.toPosixHashExeName(checksum);
 
         // we need to be smart about how many files we request in bulk, as the command line can only be so long
         final Map<String,VirtualPath> fileMappings = new HashMap<>();
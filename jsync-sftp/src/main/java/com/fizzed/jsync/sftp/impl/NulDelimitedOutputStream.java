@@ -0,0 +1,67 @@
+package com.fizzed.jsync.sftp.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Parses NUL-delimited records (e.g. "find -print0" output) as they are written, so the entire output never needs to
+ * be buffered in memory. Since this stream is usually written to by another thread (e.g. jsch), the first failure of
+ * the record handler is remembered rather than thrown, and should be checked once writing is finished.
+ */
+public class NulDelimitedOutputStream extends OutputStream {
+
+    private final Consumer<String> recordHandler;
+    private final ByteArrayOutputStream buffer;
+    private RuntimeException failure;
+
+    public NulDelimitedOutputStream(Consumer<String> recordHandler) {
+        this.recordHandler = recordHandler;
+        this.buffer = new ByteArrayOutputStream(256);
+    }
+
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (b == 0) {
+            this.flushRecord();
+        } else {
+            this.buffer.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int start = off;
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (b[i] == 0) {
+                this.buffer.write(b, start, i - start);
+                this.flushRecord();
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            this.buffer.write(b, start, end - start);
+        }
+    }
+
+    private void flushRecord() {
+        final String record = new String(this.buffer.toByteArray(), StandardCharsets.UTF_8);
+        this.buffer.reset();
+
+        if (this.failure == null) {
+            try {
+                this.recordHandler.accept(record);
+            } catch (RuntimeException e) {
+                this.failure = e;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.fizzed.jsync.sftp.impl;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A seekable channel on a remote file, built on the offset reads and writes of sftp. Sequential reads (or writes)
+ * share one underlying stream, which is only reopened when the position is moved or switching between reading and
+ * writing. Like the sftp channel it uses, this is not safe for use by multiple threads.
+ */
+public class SftpSeekableByteChannel implements SeekableByteChannel {
+
+    private final ChannelSftp sftp;
+    private final String path;
+    private final boolean writable;
+    private boolean open;
+    private long position;
+    private long size;
+    private InputStream input;
+    private long inputPosition;
+    private OutputStream output;
+    private long outputPosition;
+
+    public SftpSeekableByteChannel(ChannelSftp sftp, String path, boolean writable, long size) {
+        this.sftp = sftp;
+        this.path = path;
+        this.writable = writable;
+        this.open = true;
+        this.size = size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        this.ensureOpen();
+        this.closeOutput();
+
+        if (this.input == null || this.inputPosition != this.position) {
+            this.closeInput();
+            try {
+                this.input = this.sftp.get(this.path, null, this.position);
+            } catch (SftpException e) {
+                throw new IOException("Unable to read " + this.path + ": " + e.getMessage(), e);
+            }
+            this.inputPosition = this.position;
+        }
+
+        final byte[] buf = new byte[Math.min(dst.remaining(), 32 * 1024)];
+        final int n = this.input.read(buf);
+        if (n < 0) {
+            return -1;
+        }
+        dst.put(buf, 0, n);
+        this.position += n;
+        this.inputPosition = this.position;
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        this.ensureOpen();
+        if (!this.writable) {
+            throw new NonWritableChannelException();
+        }
+        this.closeInput();
+
+        if (this.output == null || this.outputPosition != this.position) {
+            this.closeOutput();
+            try {
+                // jsch only supports writing at an offset relative to the current size of the file
+                this.output = this.sftp.put(this.path, null, ChannelSftp.APPEND, this.position - this.size);
+            } catch (SftpException e) {
+                throw new IOException("Unable to write " + this.path + ": " + e.getMessage(), e);
+            }
+            this.outputPosition = this.position;
+        }
+
+        final int n = src.remaining();
+        final byte[] buf = new byte[n];
+        src.get(buf);
+        this.output.write(buf);
+        this.position += n;
+        this.outputPosition = this.position;
+        this.size = Math.max(this.size, this.position);
+        return n;
+    }
+
+    @Override
+    public long position() throws IOException {
+        this.ensureOpen();
+        return this.position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        this.ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Position cannot be negative");
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        this.ensureOpen();
+        // anything still being written must land before the remote size is accurate
+        this.closeOutput();
+        try {
+            this.size = this.sftp.stat(this.path).getSize();
+        } catch (SftpException e) {
+            throw new IOException("Unable to stat " + this.path + ": " + e.getMessage(), e);
+        }
+        return this.size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) throws IOException {
+        this.ensureOpen();
+        if (!this.writable) {
+            throw new NonWritableChannelException();
+        }
+        if (newSize < 0) {
+            throw new IllegalArgumentException("Size cannot be negative");
+        }
+        this.closeInput();
+        if (newSize < this.size()) {
+            try {
+                final SftpATTRS attrs = new SftpATTRS();
+                attrs.setSIZE(newSize);
+                this.sftp.setStat(this.path, attrs);
+            } catch (SftpException e) {
+                throw new IOException("Unable to truncate " + this.path + ": " + e.getMessage(), e);
+            }
+            this.size = newSize;
+        }
+        if (this.position > newSize) {
+            this.position = newSize;
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.open) {
+            this.open = false;
+            try {
+                this.closeInput();
+            } finally {
+                this.closeOutput();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void closeInput() throws IOException {
+        if (this.input != null) {
+            final InputStream in = this.input;
+            this.input = null;
+            in.close();
+        }
+    }
+
+    private void closeOutput() throws IOException {
+        if (this.output != null) {
+            final OutputStream out = this.output;
+            this.output = null;
+            out.close();
+        }
+    }
+
+}
@@ -2,8 +2,15 @@ package com.fizzed.jsync.sftp;
 
 import com.fizzed.crux.util.MoreFiles;
 import com.fizzed.crux.util.Resources;
+import com.fizzed.jsync.vfs.Checksum;
+import com.fizzed.jsync.vfs.StatUpdateOption;
+import com.fizzed.jsync.vfs.VirtualFileStat;
+import com.fizzed.jsync.vfs.VirtualFileTree;
 import com.fizzed.jsync.vfs.VirtualFileType;
 import com.fizzed.jsync.vfs.VirtualPath;
+import com.fizzed.jsync.vfs.VirtualStatUpdate;
+import com.fizzed.jsync.vfs.util.VirtualPathMatcher;
+import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,11 +18,23 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.*;
 
 class SftpVirtualFileSystemTest {
@@ -103,6 +122,33 @@ class SftpVirtualFileSystemTest {
         assertThat(list.get(2).getStat().getModifiedTime()).isCloseTo(Files.getLastModifiedTime(sftpRootDir.resolve("root.txt")).toMillis(), within(1500L));
     }
 
+    @Test
+    public void lsVisitor() throws Exception {
+        final List<VirtualPath> list = new ArrayList<>();
+        defaultVfs.ls(VirtualPath.parse("/"), list::add);
+        list.sort(Comparator.comparing(VirtualPath::toFullPath));
+
+        assertThat(list).extracting(VirtualPath::getName).containsExactly("a", "b", "root.txt");
+        assertThat(list.get(2).getStat().getSize()).isEqualTo(Files.size(sftpRootDir.resolve("root.txt")));
+
+        // a failure of the visitor stops the listing
+        assertThatThrownBy(() -> defaultVfs.ls(VirtualPath.parse("/"), v -> {
+            throw new IOException("stop");
+        })).isInstanceOf(IOException.class).hasMessage("stop");
+
+        // and the channel is still usable afterwards
+        assertThat(defaultVfs.ls(VirtualPath.parse("/"))).hasSize(3);
+    }
+
+    @Test
+    public void lsConcurrently() throws Exception {
+        final List<VirtualPath> list = defaultVfs.lsConcurrently(VirtualPath.parse("/"));
+        list.sort(Comparator.comparing(VirtualPath::toFullPath));
+
+        assertThat(list).extracting(VirtualPath::getName).containsExactly("a", "b", "root.txt");
+        assertThat(list.get(2).getStat().getSize()).isEqualTo(Files.size(sftpRootDir.resolve("root.txt")));
+    }
+
     @Test
     public void mkdir() throws Exception {
        defaultVfs.mkdir(VirtualPath.parse("/a/c"));
@@ -128,6 +174,116 @@ class SftpVirtualFileSystemTest {
         assertThat(sftpRootDir.resolve("root.txt")).doesNotExist();
     }
 
+    @Test
+    public void mkdirsAndRemoveAll() throws Exception {
+        // the test server has no shell, so these fall back to one path at a time
+        defaultVfs.mkdirs(asList(VirtualPath.parse("/a/c", true), VirtualPath.parse("/a/c/d", true), VirtualPath.parse("/a/e", true),
+            VirtualPath.parse("/a/f", true)));
+
+        assertThat(sftpRootDir.resolve("a/c/d")).isDirectory();
+        assertThat(sftpRootDir.resolve("a/f")).isDirectory();
+
+        defaultVfs.removeAll(asList(VirtualPath.parse("/a/c/d", true), VirtualPath.parse("/a/c", true), VirtualPath.parse("/b/b.txt", false),
+            VirtualPath.parse("/b", true)));
+
+        assertThat(sftpRootDir.resolve("a/c")).doesNotExist();
+        assertThat(sftpRootDir.resolve("a/e")).isDirectory();
+        assertThat(sftpRootDir.resolve("b")).doesNotExist();
+    }
+
+    @Test
+    public void rmtree() throws Exception {
+        Files.createDirectories(sftpRootDir.resolve("b/c/d"));
+        Files.write(sftpRootDir.resolve("b/c/d/e.txt"), "hello".getBytes());
+
+        // the test server has no shell, so this falls back to removing one path at a time
+        defaultVfs.rmtree(VirtualPath.parse("/b", true));
+
+        assertThat(sftpRootDir.resolve("b")).doesNotExist();
+        assertThat(sftpRootDir.resolve("a")).isDirectory();
+    }
+
+    @Test
+    public void isSafeToRemoveTree() throws Exception {
+        // pwd is "/"
+        assertThat(defaultVfs.isSafeToRemoveTree(VirtualPath.parse("/a/b", true))).isTrue();
+        assertThat(defaultVfs.isSafeToRemoveTree(VirtualPath.parse("/a", true))).isTrue();
+        assertThat(defaultVfs.isSafeToRemoveTree(VirtualPath.parse("/", true))).isFalse();
+        assertThat(defaultVfs.isSafeToRemoveTree(VirtualPath.parse("a/b", true))).isFalse();
+        assertThat(defaultVfs.isSafeToRemoveTree(VirtualPath.parse("/a/../b", true))).isFalse();
+        assertThat(defaultVfs.isSafeToRemoveTree(VirtualPath.parse("/a//b", true))).isFalse();
+    }
+
+    @Test
+    public void isArchiveSupported() throws Exception {
+        // the test server has no shell, so tar is unavailable
+        assertThat(defaultVfs.isArchiveSupported()).isFalse();
+    }
+
+    @Test
+    public void isCompressionSupported() throws Exception {
+        // the test server has no shell, so gzip is unavailable
+        assertThat(defaultVfs.isCompressionSupported()).isFalse();
+    }
+
+    @Test
+    public void buildUpdateStatCommand() throws Exception {
+        final VirtualFileStat stat = new VirtualFileStat(VirtualFileType.FILE, 5L, 1704164645678L, 1704164645000L, 0755);
+
+        assertThat(SftpVirtualFileSystem.buildUpdateStatCommand(new VirtualStatUpdate(VirtualPath.parse("/a/b c.txt"), stat,
+                EnumSet.of(StatUpdateOption.PERMISSIONS, StatUpdateOption.TIMESTAMPS))))
+            .isEqualTo("chmod -- 755 '/a/b c.txt' && touch -a -d 2024-01-02T03:04:05Z -- '/a/b c.txt' && touch -m -d 2024-01-02T03:04:05.678Z -- '/a/b c.txt'");
+
+        assertThat(SftpVirtualFileSystem.buildUpdateStatCommand(new VirtualStatUpdate(VirtualPath.parse("/a"), stat,
+                EnumSet.of(StatUpdateOption.PERMISSIONS))))
+            .isEqualTo("chmod -- 755 '/a'");
+    }
+
+    @Test
+    public void cpCommand() throws Exception {
+        // nothing in a name may be interpreted by the remote shell
+        assertThat(SftpVirtualFileSystem.cpCommand(VirtualPath.parse("/a/it's; rm -rf *.txt"), VirtualPath.parse("/b/`x` & $y")))
+            .isEqualTo("cp -f -- '/a/it'\\''s; rm -rf *.txt' '/b/`x` & $y'");
+    }
+
+    @Test
+    public void blockChecksumsCommand() throws Exception {
+        // the test server has no shell, so the command is run by the local one instead
+        final byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 251);
+        }
+        final Path file = sftpRootDir.resolve("it's a.bin");
+        Files.write(file, data);
+
+        for (Checksum checksum : asList(Checksum.MD5, Checksum.SHA1)) {
+            final String command = SftpVirtualFileSystem.blockChecksumsCommand(checksum, checksum == Checksum.MD5 ? "md5sum" : "sha1sum",
+                VirtualPath.parse(file.toString()), 1024L, 10L);
+            final Process process = new ProcessBuilder("sh", "-c", command).start();
+            final String output = new String(readAll(process.getInputStream()), StandardCharsets.UTF_8);
+            assertThat(process.waitFor()).isEqualTo(0);
+
+            // every block is hashed, including the partial last one
+            final List<String> expected = new ArrayList<>();
+            for (int offset = 0; offset < data.length; offset += 1024) {
+                final MessageDigest md = MessageDigest.getInstance(checksum == Checksum.MD5 ? "MD5" : "SHA-1");
+                md.update(data, offset, Math.min(1024, data.length - offset));
+                expected.add(String.format("%0" + (md.getDigestLength() * 2) + "x", new BigInteger(1, md.digest())) + "  -");
+            }
+            assertThat(output.split("\n")).containsExactlyElementsOf(expected);
+        }
+    }
+
+    static private byte[] readAll(InputStream input) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[8192];
+        int n;
+        while ((n = input.read(buf)) >= 0) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
     @Test
     public void stat() throws Exception {
         final VirtualPath vpWithStat = defaultVfs.stat(VirtualPath.parse("/root.txt"));
@@ -151,4 +307,117 @@ class SftpVirtualFileSystemTest {
         assertThat(notExists).isNull();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void readFileAtOffset() throws Exception {
+        try (InputStream input = defaultVfs.readFile(VirtualPath.parse("/root.txt"), 2L)) {
+            assertThat(input).hasContent("llo");
+        }
+    }
+
+    @Test
+    public void writeStreamAtOffset() throws Exception {
+        try (OutputStream output = defaultVfs.writeStream(VirtualPath.parse("/root.txt"), 1L)) {
+            output.write("EL".getBytes());
+        }
+
+        // existing content must not be truncated
+        assertThat(sftpRootDir.resolve("root.txt")).hasContent("hELlo");
+
+        try (OutputStream output = defaultVfs.writeStream(VirtualPath.parse("/root.txt"), 5L)) {
+            output.write(" world".getBytes());
+        }
+
+        assertThat(sftpRootDir.resolve("root.txt")).hasContent("hELlo world");
+    }
+
+    @Test
+    public void openChannel() throws Exception {
+        try (SeekableByteChannel channel = defaultVfs.openChannel(VirtualPath.parse("/root.txt"), true)) {
+            assertThat(channel.size()).isEqualTo(5L);
+
+            final ByteBuffer buf = ByteBuffer.allocate(3);
+            channel.position(2L);
+            assertThat(channel.read(buf)).isEqualTo(3);
+            assertThat(new String(buf.array(), StandardCharsets.UTF_8)).isEqualTo("llo");
+
+            channel.position(1L);
+            channel.write(ByteBuffer.wrap("EL".getBytes()));
+            channel.position(5L);
+            channel.write(ByteBuffer.wrap(" world".getBytes()));
+            assertThat(channel.size()).isEqualTo(11L);
+
+            channel.truncate(8L);
+            assertThat(channel.size()).isEqualTo(8L);
+        }
+
+        assertThat(sftpRootDir.resolve("root.txt")).hasContent("hELlo wo");
+
+        // a new file is created
+        try (SeekableByteChannel channel = defaultVfs.openChannel(VirtualPath.parse("/new.txt"), true)) {
+            channel.write(ByteBuffer.wrap("hello".getBytes()));
+        }
+
+        assertThat(sftpRootDir.resolve("new.txt")).hasContent("hello");
+    }
+
+    @Test
+    public void tree() throws Exception {
+        // the test server does not support exec, so this falls back to listing each directory
+        final VirtualFileTree tree = defaultVfs.tree(VirtualPath.parse("/", true));
+
+        assertThat(tree.size()).isEqualTo(4);
+        assertThat(tree.ls(VirtualPath.parse("/", true))).extracting(VirtualPath::getName).containsExactlyInAnyOrder("a", "b", "root.txt");
+        assertThat(tree.ls(VirtualPath.parse("/b", true))).extracting(VirtualPath::getName).containsExactly("b.txt");
+        assertThat(tree.ls(VirtualPath.parse("/a", true))).isEmpty();
+    }
+
+    @Test
+    public void parseFindRecord() throws Exception {
+        final VirtualPath root = VirtualPath.parse("/home/jsync", true);
+
+        final VirtualPath file = SftpVirtualFileSystem.parseFindRecord(root, "f 3 1792412544.5537403710 1792412500.5494208360 644 a b/x.txt");
+
+        assertThat(file.toFullPath()).isEqualTo("/home/jsync/a b/x.txt");
+        assertThat(file.getName()).isEqualTo("x.txt");
+        assertThat(file.isDirectory()).isFalse();
+        assertThat(file.getStat().getType()).isEqualTo(VirtualFileType.FILE);
+        assertThat(file.getStat().getSize()).isEqualTo(3L);
+        assertThat(file.getStat().getModifiedTime()).isEqualTo(1792412544000L);
+        assertThat(file.getStat().getAccessedTime()).isEqualTo(1792412500000L);
+        assertThat(file.getStat().getPermissionsOctal()).isEqualTo("644");
+
+        final VirtualPath dir = SftpVirtualFileSystem.parseFindRecord(root, "d 4096 1792412544.5494208360 1792412544.5494208360 755 a b");
+
+        assertThat(dir.toFullPath()).isEqualTo("/home/jsync/a b");
+        assertThat(dir.isDirectory()).isTrue();
+        assertThat(dir.getStat().getType()).isEqualTo(VirtualFileType.DIR);
+    }
+
+    @Test
+    public void toFindPredicate() throws Exception {
+        final VirtualPath root = VirtualPath.parse("/home/[jsync]", true);
+
+        assertThat(SftpVirtualFileSystem.toFindPredicate(root, VirtualPathMatcher.compile("node_modules/")))
+            .isEqualTo("-name 'node_modules'");
+        assertThat(SftpVirtualFileSystem.toFindPredicate(root, VirtualPathMatcher.compile("*.log")))
+            .isEqualTo("-name '*.log'");
+        assertThat(SftpVirtualFileSystem.toFindPredicate(root, VirtualPathMatcher.compile("/target")))
+            .isEqualTo("-path '/home/\\[jsync]/target'");
+        assertThat(SftpVirtualFileSystem.toFindPredicate(root, VirtualPathMatcher.compile("b/c.txt")))
+            .isEqualTo("-path '/home/\\[jsync]/b/c.txt' -o -path '/home/\\[jsync]/*/b/c.txt'");
+        // these cannot be evaluated exactly the same by find
+        assertThat(SftpVirtualFileSystem.toFindPredicate(root, VirtualPathMatcher.compile("b/*.txt"))).isNull();
+        assertThat(SftpVirtualFileSystem.toFindPredicate(root, VirtualPathMatcher.compile("docs/**/*.md"))).isNull();
+    }
+
+    @Test
+    public void buildFindCommand() throws Exception {
+        final VirtualPath root = VirtualPath.parse("/home/jsync", true);
+
+        assertThat(SftpVirtualFileSystem.buildFindCommand(root, null))
+            .isEqualTo("find '/home/jsync' -mindepth 1 -printf '%y %s %T@ %A@ %m %P\\0'");
+        assertThat(SftpVirtualFileSystem.buildFindCommand(root, VirtualPathMatchers.compile(asList(".git", "b/*.txt"))))
+            .isEqualTo("find '/home/jsync' -mindepth 1 \\( -name '.git' \\) -printf '%y %s %T@ %A@ %m %P\\0' -prune -o -printf '%y %s %T@ %A@ %m %P\\0'");
+    }
+
+}
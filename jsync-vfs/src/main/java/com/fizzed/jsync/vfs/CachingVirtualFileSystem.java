@@ -0,0 +1,651 @@
+package com.fizzed.jsync.vfs;
+
+import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+
+/**
+ * Wraps another filesystem and caches the results of stat, exists and ls, which are often asked for repeatedly on the
+ * same paths (e.g. walking parent directories) and are expensive on remote hosts. Missing paths are cached too. The
+ * cache is bounded in size (least recently used entries are evicted first) and each entry expires after a time to live.
+ * Any change made through this filesystem invalidates the entries it affects, but changes made by anything else are
+ * only seen once the affected entries expire. Callers always get their own copies of cached paths (e.g. the engine
+ * populates checksums on the stats it is given), so nothing they change leaks into the cache.
+ */
+public class CachingVirtualFileSystem implements VirtualFileSystem {
+
+    static public final int DEFAULT_MAX_ENTRIES = 10000;
+    static public final long DEFAULT_TTL_MILLIS = 30000L;
+
+    static private class Entry<T> {
+        final T value;
+        final long expiresAt;
+
+        Entry(T value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final VirtualFileSystem delegate;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String,Entry<VirtualPath>> stats;
+    private final LinkedHashMap<String,Entry<List<VirtualPath>>> listings;
+    private long hits;
+    private long misses;
+
+    public CachingVirtualFileSystem(VirtualFileSystem delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    public CachingVirtualFileSystem(VirtualFileSystem delegate, int maxEntries, long ttlMillis) {
+        Objects.requireNonNull(delegate, "delegate cannot be null");
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.stats = newLruMap(maxEntries);
+        this.listings = newLruMap(maxEntries);
+    }
+
+    static private <T> LinkedHashMap<String,Entry<T>> newLruMap(int maxEntries) {
+        // access order is what makes this least recently used
+        return new LinkedHashMap<String,Entry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Entry<T>> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    public VirtualFileSystem getDelegate() {
+        return delegate;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    synchronized public long getHits() {
+        return hits;
+    }
+
+    synchronized public long getMisses() {
+        return misses;
+    }
+
+    synchronized public int size() {
+        return this.stats.size() + this.listings.size();
+    }
+
+    /**
+     * Removes every cached entry, so the next request for anything goes to the underlying filesystem.
+     */
+    synchronized public void invalidateAll() {
+        this.stats.clear();
+        this.listings.clear();
+    }
+
+    /**
+     * Removes any cached entries for the path, along with the listing of its parent directory.
+     *
+     * @param path the path that was changed
+     */
+    synchronized public void invalidate(VirtualPath path) {
+        final String key = this.toKey(path.toString());
+        this.stats.remove(key);
+        this.listings.remove(key);
+        if (path.getParentPath() != null) {
+            this.listings.remove(this.toKey(path.getParentPath()));
+        }
+    }
+
+    /**
+     * Removes any cached entries for the path and each of its parent directories (along with their listings).
+     *
+     * @param path the path that was changed
+     */
+    synchronized public void invalidateAncestors(VirtualPath path) {
+        for (VirtualPath p = path; p != null; p = p.resolveParent()) {
+            this.invalidate(p);
+        }
+    }
+
+    /**
+     * Removes any cached entries for the path and everything within it, along with the listing of its parent directory.
+     *
+     * @param path the path that was changed
+     */
+    synchronized public void invalidateTree(VirtualPath path) {
+        this.invalidate(path);
+        final String prefix = this.toKey(path.toString()) + "/";
+        this.stats.keySet().removeIf(k -> k.startsWith(prefix));
+        this.listings.keySet().removeIf(k -> k.startsWith(prefix));
+    }
+
+    protected String toKey(String path) {
+        // trailing slashes do not make it a different path (e.g. the root is the exception)
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length()-1);
+        }
+        return this.delegate.isCaseSensitive() ? path : path.toLowerCase(Locale.ROOT);
+    }
+
+    synchronized private <T> Entry<T> lookup(LinkedHashMap<String,Entry<T>> cache, String key) {
+        final Entry<T> entry = cache.get(key);
+        if (entry != null && entry.expiresAt - System.currentTimeMillis() > 0) {
+            this.hits++;
+            return entry;
+        }
+        if (entry != null) {
+            cache.remove(key);
+        }
+        this.misses++;
+        return null;
+    }
+
+    synchronized private <T> void store(LinkedHashMap<String,Entry<T>> cache, String key, T value) {
+        cache.put(key, new Entry<>(value, System.currentTimeMillis() + this.ttlMillis));
+    }
+
+    static private VirtualPath copyOf(VirtualPath path) {
+        if (path == null) {
+            return null;
+        }
+        final VirtualFileStat stat = path.getStat();
+        return new VirtualPath(path.getParentPath(), path.getName(), path.isDirectory(), stat != null ? stat.copy() : null);
+    }
+
+    static private List<VirtualPath> copyOf(List<VirtualPath> paths) {
+        final List<VirtualPath> copies = new ArrayList<>(paths.size());
+        for (VirtualPath path : paths) {
+            copies.add(copyOf(path));
+        }
+        return copies;
+    }
+
+    //
+    // features are simply delegated
+    //
+
+    @Override
+    public String getName() {
+        return this.delegate.getName();
+    }
+
+    @Override
+    public boolean isRemote() {
+        return this.delegate.isRemote();
+    }
+
+    @Override
+    public boolean isCaseSensitive() {
+        return this.delegate.isCaseSensitive();
+    }
+
+    @Override
+    public StatModel getStatModel() {
+        return this.delegate.getStatModel();
+    }
+
+    @Override
+    public boolean isChecksumSupported(Checksum checksum) throws IOException {
+        return this.delegate.isChecksumSupported(checksum);
+    }
+
+    @Override
+    public Set<Checksum> getChecksumsSupported() throws IOException {
+        return this.delegate.getChecksumsSupported();
+    }
+
+    @Override
+    public boolean isCopySupported() {
+        return this.delegate.isCopySupported();
+    }
+
+    @Override
+    public boolean isDirectCopySupported(VirtualFileSystem sourceVfs) {
+        return this.delegate.isDirectCopySupported(sourceVfs);
+    }
+
+    @Override
+    public boolean isRandomAccessSupported() {
+        return this.delegate.isRandomAccessSupported();
+    }
+
+    @Override
+    public boolean isConcurrentListingSupported() {
+        return this.delegate.isConcurrentListingSupported();
+    }
+
+    @Override
+    public boolean isArchiveSupported() throws IOException {
+        return this.delegate.isArchiveSupported();
+    }
+
+    @Override
+    public boolean isCompressionSupported() throws IOException {
+        return this.delegate.isCompressionSupported();
+    }
+
+    @Override
+    public VirtualPath pwd() {
+        return this.delegate.pwd();
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.invalidateAll();
+        this.delegate.close();
+    }
+
+    //
+    // cached methods
+    //
+
+    @Override
+    public VirtualPath exists(VirtualPath path) throws IOException {
+        final String key = this.toKey(path.toString());
+        final Entry<VirtualPath> entry = this.lookup(this.stats, key);
+        if (entry != null) {
+            return copyOf(entry.value);
+        }
+        final VirtualPath value = this.delegate.exists(path);
+        this.store(this.stats, key, copyOf(value));
+        return value;
+    }
+
+    @Override
+    public VirtualPath stat(VirtualPath path) throws IOException {
+        final String key = this.toKey(path.toString());
+        final Entry<VirtualPath> entry = this.lookup(this.stats, key);
+        if (entry != null) {
+            if (entry.value == null) {
+                throw new NoSuchFileException(path.toString());
+            }
+            return copyOf(entry.value);
+        }
+        final VirtualPath value;
+        try {
+            value = this.delegate.stat(path);
+        } catch (NoSuchFileException e) {
+            this.store(this.stats, key, null);
+            throw e;
+        }
+        this.store(this.stats, key, copyOf(value));
+        return value;
+    }
+
+    @Override
+    public List<VirtualPath> ls(VirtualPath path) throws IOException {
+        return this.ls(path, false);
+    }
+
+    @Override
+    public List<VirtualPath> lsConcurrently(VirtualPath path) throws IOException {
+        return this.ls(path, true);
+    }
+
+    private List<VirtualPath> ls(VirtualPath path, boolean concurrently) throws IOException {
+        final String key = this.toKey(path.toString());
+        final Entry<List<VirtualPath>> entry = this.lookup(this.listings, key);
+        if (entry != null) {
+            return copyOf(entry.value);
+        }
+        final List<VirtualPath> childPaths = concurrently ? this.delegate.lsConcurrently(path) : this.delegate.ls(path);
+        final List<VirtualPath> cachedPaths = copyOf(childPaths);
+        this.store(this.listings, key, cachedPaths);
+        // the listing includes the stats of every child too
+        for (VirtualPath cachedPath : cachedPaths) {
+            this.store(this.stats, this.toKey(cachedPath.toString()), cachedPath);
+        }
+        return childPaths;
+    }
+
+    @Override
+    public void ls(VirtualPath path, VirtualPathVisitor visitor) throws IOException {
+        final Entry<List<VirtualPath>> entry = this.lookup(this.listings, this.toKey(path.toString()));
+        if (entry != null) {
+            for (VirtualPath childPath : copyOf(entry.value)) {
+                visitor.visit(childPath);
+            }
+            return;
+        }
+        // a streamed listing may be huge, so it is never cached
+        this.delegate.ls(path, visitor);
+    }
+
+    @Override
+    public VirtualFileTree tree(VirtualPath path, VirtualPathMatchers prune) throws IOException {
+        // the underlying filesystem may list trees far more efficiently than we could from the cache
+        return this.delegate.tree(path, prune);
+    }
+
+    //
+    // methods that change the filesystem invalidate what they change
+    //
+
+    @Override
+    public void updateStat(VirtualPath path, VirtualFileStat stats, Collection<StatUpdateOption> options) throws IOException {
+        try {
+            this.delegate.updateStat(path, stats, options);
+        } finally {
+            this.invalidate(path);
+        }
+    }
+
+    @Override
+    public void updateStats(List<VirtualStatUpdate> updates) throws IOException {
+        try {
+            this.delegate.updateStats(updates);
+        } finally {
+            for (VirtualStatUpdate update : updates) {
+                this.invalidate(update.getPath());
+            }
+        }
+    }
+
+    @Override
+    public void mkdirs(List<VirtualPath> paths) throws IOException {
+        try {
+            this.delegate.mkdirs(paths);
+        } finally {
+            // some filesystems create any missing parents too (e.g. "mkdir -p"), which may have been cached as missing
+            for (VirtualPath path : paths) {
+                this.invalidateAncestors(path);
+            }
+        }
+    }
+
+    @Override
+    public void extractArchive(InputStream input, VirtualPath path) throws IOException {
+        try {
+            this.delegate.extractArchive(input, path);
+        } finally {
+            this.invalidateTree(path);
+        }
+    }
+
+    @Override
+    public void writeFileCompressed(InputStream input, VirtualPath path) throws IOException {
+        try {
+            this.delegate.writeFileCompressed(input, path);
+        } finally {
+            this.invalidate(path);
+        }
+    }
+
+    @Override
+    public void rmtree(VirtualPath path) throws IOException {
+        try {
+            this.delegate.rmtree(path);
+        } finally {
+            this.invalidateTree(path);
+        }
+    }
+
+    @Override
+    public void removeAll(List<VirtualPath> paths) throws IOException {
+        try {
+            this.delegate.removeAll(paths);
+        } finally {
+            for (VirtualPath path : paths) {
+                if (path.isDirectory()) {
+                    this.invalidateTree(path);
+                } else {
+                    this.invalidate(path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void mkdir(VirtualPath path) throws IOException {
+        try {
+            this.delegate.mkdir(path);
+        } finally {
+            this.invalidate(path);
+        }
+    }
+
+    @Override
+    public void rm(VirtualPath path) throws IOException {
+        try {
+            this.delegate.rm(path);
+        } finally {
+            this.invalidate(path);
+        }
+    }
+
+    @Override
+    public void rmdir(VirtualPath path) throws IOException {
+        try {
+            this.delegate.rmdir(path);
+        } finally {
+            this.invalidateTree(path);
+        }
+    }
+
+    @Override
+    public void writeFile(InputStream input, VirtualPath path) throws IOException {
+        try {
+            this.delegate.writeFile(input, path);
+        } finally {
+            this.invalidate(path);
+        }
+    }
+
+    @Override
+    public OutputStream writeStream(VirtualPath path) throws IOException {
+        this.invalidate(path);
+        return new InvalidatingOutputStream(this.delegate.writeStream(path), path);
+    }
+
+    @Override
+    public OutputStream writeStream(VirtualPath path, long offset) throws IOException {
+        this.invalidate(path);
+        return new InvalidatingOutputStream(this.delegate.writeStream(path, offset), path);
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(VirtualPath path, boolean writable) throws IOException {
+        if (writable) {
+            // the file may be created now, and will be modified as its written
+            this.invalidate(path);
+            return new InvalidatingChannel(this.delegate.openChannel(path, true), path);
+        }
+        return this.delegate.openChannel(path, false);
+    }
+
+    @Override
+    public void cp(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        try {
+            this.delegate.cp(sourcePath, targetPath);
+        } finally {
+            this.invalidate(targetPath);
+        }
+    }
+
+    @Override
+    public void directCopy(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        try {
+            this.delegate.directCopy(sourceVfs, sourcePath, targetPath);
+        } finally {
+            this.invalidate(targetPath);
+        }
+    }
+
+    @Override
+    public void mv(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        try {
+            this.delegate.mv(sourcePath, targetPath);
+        } finally {
+            this.invalidateTree(sourcePath);
+            this.invalidateTree(targetPath);
+        }
+    }
+
+    //
+    // reading content is not cached
+    //
+
+    @Override
+    public InputStream readFile(VirtualPath path) throws IOException {
+        return this.delegate.readFile(path);
+    }
+
+    @Override
+    public InputStream readFile(VirtualPath path, long offset) throws IOException {
+        return this.delegate.readFile(path, offset);
+    }
+
+    @Override
+    public void createArchive(VirtualPath path, List<VirtualPath> paths, OutputStream output) throws IOException {
+        this.delegate.createArchive(path, paths, output);
+    }
+
+    @Override
+    public void readFileCompressed(VirtualPath path, OutputStream output) throws IOException {
+        this.delegate.readFileCompressed(path, output);
+    }
+
+    @Override
+    public List<String> blockChecksums(Checksum checksum, VirtualPath path, long blockSize) throws IOException {
+        return this.delegate.blockChecksums(checksum, path, blockSize);
+    }
+
+    @Override
+    public String prefixChecksum(Checksum checksum, VirtualPath path, long length) throws IOException {
+        return this.delegate.prefixChecksum(checksum, path, length);
+    }
+
+    @Override
+    public void inodes(List<VirtualPath> paths) throws IOException {
+        this.delegate.inodes(paths);
+    }
+
+    @Override
+    public void cksums(List<VirtualPath> paths) throws IOException {
+        this.delegate.cksums(paths);
+    }
+
+    @Override
+    public void md5sums(List<VirtualPath> paths) throws IOException {
+        this.delegate.md5sums(paths);
+    }
+
+    @Override
+    public void sha1sums(List<VirtualPath> paths) throws IOException {
+        this.delegate.sha1sums(paths);
+    }
+
+    private class InvalidatingOutputStream extends OutputStream {
+
+        private final OutputStream output;
+        private final VirtualPath path;
+
+        InvalidatingOutputStream(OutputStream output, VirtualPath path) {
+            this.output = output;
+            this.path = path;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.output.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.output.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.output.close();
+            } finally {
+                // anything cached while the content was being written is now out of date
+                CachingVirtualFileSystem.this.invalidate(this.path);
+            }
+        }
+
+    }
+
+    private class InvalidatingChannel implements SeekableByteChannel {
+
+        private final SeekableByteChannel channel;
+        private final VirtualPath path;
+
+        InvalidatingChannel(SeekableByteChannel channel, VirtualPath path) {
+            this.channel = channel;
+            this.path = path;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return this.channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return this.channel.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            this.channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            this.channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.channel.close();
+            } finally {
+                // anything cached while the content was being written is now out of date
+                CachingVirtualFileSystem.this.invalidate(this.path);
+            }
+        }
+
+    }
+
+}
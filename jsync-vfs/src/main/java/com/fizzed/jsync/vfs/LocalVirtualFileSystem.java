@@ -1,24 +1,42 @@
 package com.fizzed.jsync.vfs;
 
+import com.fizzed.jsync.vfs.util.BoundedInputStream;
 import com.fizzed.jsync.vfs.util.Checksums;
+import com.fizzed.jsync.vfs.util.DeviceLimiter;
+import com.fizzed.jsync.vfs.util.DeviceLimiter.Operation;
 import com.fizzed.jsync.vfs.util.Permissions;
+import com.fizzed.jsync.vfs.util.TarEntry;
+import com.fizzed.jsync.vfs.util.TarReader;
+import com.fizzed.jsync.vfs.util.TarWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static java.util.Arrays.asList;
 
 public class LocalVirtualFileSystem extends AbstractVirtualFileSystem {
     static private final Logger log = LoggerFactory.getLogger(LocalVirtualFileSystem.class);
+    static private final boolean UNIX_ATTRIBUTES = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
 
     private final boolean posix;
+    private DeviceLimiter deviceLimiter;
 
     public LocalVirtualFileSystem(String name, VirtualPath pwd, boolean caseSensitive, boolean posix) {
         super(name, pwd, caseSensitive);
@@ -55,6 +73,22 @@ public class LocalVirtualFileSystem extends AbstractVirtualFileSystem {
         return this.posix;
     }
 
+    public DeviceLimiter getDeviceLimiter() {
+        return deviceLimiter;
+    }
+
+    /**
+     * Limits how many files are concurrently hashed, read and written on each device, which may be shared with other
+     * filesystems. By default, there are no limits.
+     *
+     * @param deviceLimiter the limiter or null for no limits
+     * @return this filesystem
+     */
+    public LocalVirtualFileSystem setDeviceLimiter(DeviceLimiter deviceLimiter) {
+        this.deviceLimiter = deviceLimiter;
+        return this;
+    }
+
     @Override
     public boolean isRemote() {
         return false;
@@ -69,6 +103,36 @@ public class LocalVirtualFileSystem extends AbstractVirtualFileSystem {
         }
     }
 
+    @Override
+    public boolean isCopySupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isDirectCopySupported(VirtualFileSystem sourceVfs) {
+        return sourceVfs instanceof LocalVirtualFileSystem;
+    }
+
+    @Override
+    public boolean isRandomAccessSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isConcurrentListingSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isArchiveSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isCompressionSupported() {
+        return true;
+    }
+
     @Override
     protected List<Checksum> doDetectChecksums() throws IOException {
         // everything is supported
@@ -93,6 +157,10 @@ public class LocalVirtualFileSystem extends AbstractVirtualFileSystem {
             attrs = Files.readAttributes(nativePath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
         }
 
+        return this.withStat(path, nativePath, attrs, posixAttrs);
+    }
+
+    protected VirtualPath withStat(VirtualPath path, Path nativePath, BasicFileAttributes attrs, PosixFileAttributes posixAttrs) throws IOException {
         // basic attributes get us much of what we need
         final long size = attrs.size();
         final long modifiedTime = attrs.lastModifiedTime().toMillis();
@@ -171,24 +239,60 @@ public class LocalVirtualFileSystem extends AbstractVirtualFileSystem {
 
     @Override
     public List<VirtualPath> ls(VirtualPath path) throws IOException {
+        final List<VirtualPath> childPaths = new ArrayList<>();
+        this.ls(path, childPaths::add);
+        return childPaths;
+    }
+
+    @Override
+    public void ls(VirtualPath path, VirtualPathVisitor visitor) throws IOException {
         final Path nativePath = this.toNativePath(path);
-        if (Files.isDirectory(nativePath)) {
-            // TODO: apparently walkFileTree is way faster on windows as it includes BasicFileAttributes, negating the need for a 2nd kernel system call
-            List<VirtualPath> childPaths = new ArrayList<>();
-            try (Stream<Path> files = Files.list(nativePath)) {
-                for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
-                    Path nativeChildPath = it.next();
-
-                    // dir true/false doesn't matter, stats call next will correct it
-                    VirtualPath childPathWithoutStats = path.resolve(nativeChildPath.getFileName().toString(), false);
-
-                    VirtualPath childPath = this.withStat(childPathWithoutStats);
-                    childPaths.add(childPath);
+        if (!Files.isDirectory(nativePath)) {
+            throw new IOException("Not a directory: " + path);
+        }
+
+        if (!this.posix) {
+            // walking a directory provides the attributes of each child, which on some platforms (e.g. windows) are
+            // read along with the directory itself, rather than needing another call per child
+            Files.walkFileTree(nativePath, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path nativeChildPath, BasicFileAttributes attrs) throws IOException {
+                    // dir true/false doesn't matter, stats next will correct it
+                    final VirtualPath childPathWithoutStats = path.resolve(nativeChildPath.getFileName().toString(), false);
+                    visitor.visit(withStat(childPathWithoutStats, nativeChildPath, attrs, null));
+                    return FileVisitResult.CONTINUE;
                 }
+            });
+            return;
+        }
+
+        if (NativeListing.isAvailable()) {
+            // on linux with java 22+ (if enabled) the directory is read and every child stat'ed natively
+            NativeListing.ls(nativePath, path, visitor);
+            return;
+        }
+
+        // a directory stream reads entries as they are iterated, rather than all at once
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(nativePath)) {
+            // where supported, attributes are read relative to the open directory (e.g. fstatat), rather than resolving
+            // the full path of every child all over again
+            final SecureDirectoryStream<Path> secureFiles = files instanceof SecureDirectoryStream ? (SecureDirectoryStream<Path>)files : null;
+            for (Path nativeChildPath : files) {
+                final Path name = nativeChildPath.getFileName();
+
+                final PosixFileAttributes attrs;
+                if (secureFiles != null) {
+                    attrs = secureFiles.getFileAttributeView(name, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+                } else {
+                    attrs = Files.readAttributes(nativeChildPath, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                }
+
+                // dir true/false doesn't matter, stats next will correct it
+                final VirtualPath childPathWithoutStats = path.resolve(name.toString(), false);
+                visitor.visit(this.withStat(childPathWithoutStats, nativeChildPath, attrs, attrs));
             }
-            return childPaths;
-        } else {
-            throw new IOException("Not a directory: " + path);
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
         }
     }
 
@@ -212,30 +316,286 @@ public class LocalVirtualFileSystem extends AbstractVirtualFileSystem {
         Files.delete(nativePath);
     }
 
+    @Override
+    public void createArchive(VirtualPath path, List<VirtualPath> paths, OutputStream output) throws IOException {
+        final TarWriter tar = new TarWriter(output);
+        for (VirtualPath p : paths) {
+            final VirtualFileStat stat = p.getStat() != null ? p.getStat() : this.withStat(p).getStat();
+            final String name = path.relativize(p);
+            if (stat.getType() == VirtualFileType.DIR) {
+                tar.putDirectory(name, stat.getPermissions(), stat.getModifiedTime());
+            } else if (stat.getType() == VirtualFileType.FILE) {
+                try (InputStream input = this.readFile(p)) {
+                    tar.putFile(name, stat.getPermissions(), stat.getModifiedTime(), stat.getSize(), input);
+                }
+            } else {
+                log.warn("Skipping archiving of {} (only directories and files are supported)", p);
+            }
+        }
+        tar.finish();
+    }
+
+    @Override
+    public void extractArchive(InputStream input, VirtualPath path) throws IOException {
+        final Path nativeDir = this.toNativePath(path);
+        final TarReader tar = new TarReader(input);
+        final List<VirtualStatUpdate> dirUpdates = new ArrayList<>();
+        TarEntry entry;
+        while ((entry = tar.next()) != null) {
+            // never allow an entry to escape the directory (e.g. "../../etc/passwd")
+            final Path nativeEntryPath = nativeDir.resolve(entry.getName()).normalize();
+            if (entry.getName().isEmpty() || !nativeEntryPath.startsWith(nativeDir) || nativeEntryPath.equals(nativeDir)) {
+                throw new IOException("Tar entry " + entry.getName() + " is not within " + path);
+            }
+
+            if (entry.isDirectory()) {
+                Files.createDirectories(nativeEntryPath);
+            } else if (entry.isFile()) {
+                Files.createDirectories(nativeEntryPath.getParent());
+                try (DeviceLimiter.Permit permit = this.acquire(Operation.WRITE, nativeEntryPath)) {
+                    Files.copy(tar.getContent(), nativeEntryPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                log.warn("Skipping extraction of {} (only directories and files are supported)", entry.getName());
+                continue;
+            }
+
+            final VirtualFileStat stat = new VirtualFileStat(entry.getType(), entry.getSize(), entry.getModifiedTime(),
+                entry.getModifiedTime(), entry.getMode());
+            final VirtualStatUpdate update = new VirtualStatUpdate(VirtualPath.parse(nativeEntryPath.toString(), entry.isDirectory()),
+                stat, asList(StatUpdateOption.PERMISSIONS, StatUpdateOption.TIMESTAMPS));
+            if (entry.isDirectory()) {
+                dirUpdates.add(update);
+            } else {
+                this.updateStat(update.getPath(), update.getStat(), update.getOptions());
+            }
+        }
+
+        // directories are updated last (deepest first), since extracting anything into them changes their modified time
+        Collections.reverse(dirUpdates);
+        this.updateStats(dirUpdates);
+    }
+
+    @Override
+    public void rmtree(VirtualPath path) throws IOException {
+        final Path nativePath = this.toNativePath(path);
+        try {
+            // each directory is emptied in its own task, so large trees are deleted in parallel
+            ForkJoinPool.commonPool().invoke(new DeleteTreeTask(nativePath));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static private class DeleteTreeTask extends RecursiveAction {
+
+        private final Path dir;
+
+        DeleteTreeTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                final List<DeleteTreeTask> subtasks = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir)) {
+                    for (Path child : stream) {
+                        // symlinks to directories are removed as links, never followed
+                        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            subtasks.add(new DeleteTreeTask(child));
+                        } else {
+                            Files.delete(child);
+                        }
+                    }
+                }
+                invokeAll(subtasks);
+                Files.delete(this.dir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
     @Override
     public InputStream readFile(VirtualPath path) throws IOException {
         final Path nativePath = this.toNativePath(path);
-        return Files.newInputStream(nativePath);
+        final DeviceLimiter.Permit permit = this.acquire(Operation.READ, nativePath);
+        try {
+            return releaseOnClose(Files.newInputStream(nativePath), permit);
+        } catch (IOException | RuntimeException e) {
+            release(permit);
+            throw e;
+        }
     }
 
     @Override
     public void writeFile(InputStream input, VirtualPath path) throws IOException {
         final Path nativePath = this.toNativePath(path);
-        // its important we allow replacing existing files
-        Files.copy(input, nativePath, StandardCopyOption.REPLACE_EXISTING);
+        try (DeviceLimiter.Permit permit = this.acquire(Operation.WRITE, nativePath)) {
+            // its important we allow replacing existing files
+            Files.copy(input, nativePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void readFileCompressed(VirtualPath path, OutputStream output) throws IOException {
+        final Path nativePath = this.toNativePath(path);
+        try (DeviceLimiter.Permit permit = this.acquire(Operation.READ, nativePath)) {
+            // the gzip stream is finished, but the output it wraps is left open
+            final GZIPOutputStream gzipOutput = new GZIPOutputStream(output, 64 * 1024);
+            Files.copy(nativePath, gzipOutput);
+            gzipOutput.finish();
+            gzipOutput.flush();
+        }
+    }
+
+    @Override
+    public void writeFileCompressed(InputStream input, VirtualPath path) throws IOException {
+        final GZIPInputStream gzipInput = new GZIPInputStream(input, 64 * 1024);
+        this.writeFile(gzipInput, path);
     }
 
     @Override
     public OutputStream writeStream(VirtualPath path) throws IOException {
         final Path nativePath = this.toNativePath(path);
-        // it's important we allow replacing existing files
-        return Files.newOutputStream(nativePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        final DeviceLimiter.Permit permit = this.acquire(Operation.WRITE, nativePath);
+        try {
+            // it's important we allow replacing existing files
+            return releaseOnClose(Files.newOutputStream(nativePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), permit);
+        } catch (IOException | RuntimeException e) {
+            release(permit);
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream readFile(VirtualPath path, long offset) throws IOException {
+        final Path nativePath = this.toNativePath(path);
+        final DeviceLimiter.Permit permit = this.acquire(Operation.READ, nativePath);
+        try {
+            final FileChannel channel = FileChannel.open(nativePath, StandardOpenOption.READ);
+            try {
+                channel.position(offset);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return releaseOnClose(Channels.newInputStream(channel), permit);
+        } catch (IOException | RuntimeException e) {
+            release(permit);
+            throw e;
+        }
+    }
+
+    @Override
+    public OutputStream writeStream(VirtualPath path, long offset) throws IOException {
+        final Path nativePath = this.toNativePath(path);
+        final DeviceLimiter.Permit permit = this.acquire(Operation.WRITE, nativePath);
+        try {
+            // it's important we do NOT truncate the existing file
+            final FileChannel channel = FileChannel.open(nativePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                channel.position(offset);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return releaseOnClose(Channels.newOutputStream(channel), permit);
+        } catch (IOException | RuntimeException e) {
+            release(permit);
+            throw e;
+        }
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(VirtualPath path, boolean writable) throws IOException {
+        final Path nativePath = this.toNativePath(path);
+        final DeviceLimiter.Permit permit = this.acquire(writable ? Operation.WRITE : Operation.READ, nativePath);
+        try {
+            if (writable) {
+                // it's important we do NOT truncate the existing file
+                return releaseOnClose(FileChannel.open(nativePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), permit);
+            }
+            return releaseOnClose(FileChannel.open(nativePath, StandardOpenOption.READ), permit);
+        } catch (IOException | RuntimeException e) {
+            release(permit);
+            throw e;
+        }
+    }
+
+    @Override
+    public void cp(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        final Path nativeSourcePath = this.toNativePath(sourcePath);
+        final Path nativeTargetPath = this.toNativePath(targetPath);
+        try (DeviceLimiter.Permit readPermit = this.acquire(Operation.READ, nativeSourcePath);
+             DeviceLimiter.Permit writePermit = this.acquire(Operation.WRITE, nativeTargetPath)) {
+            // it's important we allow replacing existing files
+            Files.copy(nativeSourcePath, nativeTargetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void directCopy(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        if (!(sourceVfs instanceof LocalVirtualFileSystem)) {
+            throw new IOException("Direct copy from " + sourceVfs.getName() + " is not supported by " + this.getName());
+        }
+
+        final LocalVirtualFileSystem localSourceVfs = (LocalVirtualFileSystem)sourceVfs;
+        final Path nativeSourcePath = localSourceVfs.toNativePath(sourcePath);
+        final Path nativeTargetPath = this.toNativePath(targetPath);
+
+        // the kernel copies the content (e.g. with copy_file_range or sendfile on linux), rather than it being read
+        // into and written out of the heap
+        try (DeviceLimiter.Permit readPermit = localSourceVfs.acquire(Operation.READ, nativeSourcePath);
+             DeviceLimiter.Permit writePermit = this.acquire(Operation.WRITE, nativeTargetPath);
+             FileChannel input = FileChannel.open(nativeSourcePath, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(nativeTargetPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final long size = input.size();
+            long position = 0;
+            while (position < size) {
+                // may transfer less than asked for, so we loop till its all done
+                final long n = input.transferTo(position, size - position, output);
+                if (n <= 0) {
+                    break;      // the source was truncated while copying
+                }
+                position += n;
+            }
+        }
+    }
+
+    @Override
+    public void mv(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        final Path nativeSourcePath = this.toNativePath(sourcePath);
+        final Path nativeTargetPath = this.toNativePath(targetPath);
+        Files.move(nativeSourcePath, nativeTargetPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void inodes(List<VirtualPath> paths) throws IOException {
+        if (!UNIX_ATTRIBUTES) {
+            return;
+        }
+        for (VirtualPath path : paths) {
+            // a native listing already knows the inode
+            if (path.getStat() != null && path.getStat().getInode() == 0L) {
+                try {
+                    final Number inode = (Number)Files.getAttribute(this.toNativePath(path), "unix:ino", LinkOption.NOFOLLOW_LINKS);
+                    path.getStat().setInode(inode.longValue());
+                } catch (NoSuchFileException e) {
+                    // only used for ordering, so whatever happens to the file later will deal with it
+                }
+            }
+        }
     }
 
     @Override
     public void cksums(List<VirtualPath> paths) throws IOException {
         for (VirtualPath path : paths) {
-            try (InputStream input = this.readFile(path)) {
+            final Path nativePath = this.toNativePath(path);
+            try (DeviceLimiter.Permit permit = this.acquire(Operation.HASH, nativePath);
+                 InputStream input = Files.newInputStream(nativePath)) {
                 long cksum = Checksums.cksum(input);
                 path.getStat().setCksum(cksum);
             }
@@ -252,17 +612,144 @@ public class LocalVirtualFileSystem extends AbstractVirtualFileSystem {
         this.hashFiles("SHA1", paths);
     }
 
+    @Override
+    public List<String> blockChecksums(Checksum checksum, VirtualPath path, long blockSize) throws IOException {
+        final Path nativePath = this.toNativePath(path);
+        final long size = Files.size(nativePath);
+        try (DeviceLimiter.Permit permit = this.acquire(Operation.HASH, nativePath);
+             InputStream input = Files.newInputStream(nativePath)) {
+            return Checksums.blockChecksums(checksum, input, size, blockSize);
+        }
+    }
+
+    @Override
+    public String prefixChecksum(Checksum checksum, VirtualPath path, long length) throws IOException {
+        final Path nativePath = this.toNativePath(path);
+        try (DeviceLimiter.Permit permit = this.acquire(Operation.HASH, nativePath);
+             InputStream input = Files.newInputStream(nativePath)) {
+            return Checksums.checksum(checksum, new BoundedInputStream(input, length));
+        }
+    }
+
     protected void hashFiles(String algorithm, List<VirtualPath> paths) throws IOException {
         for (VirtualPath path : paths) {
-            try (InputStream input = this.readFile(path)) {
-                String digest = Checksums.hash(algorithm, input);
+            final Path nativePath = this.toNativePath(path);
+            try (DeviceLimiter.Permit permit = this.acquire(Operation.HASH, nativePath);
+                 InputStream input = Files.newInputStream(nativePath)) {
+                final byte[] digest = Checksums.digest(algorithm, input);
                 if ("MD5".equals(algorithm)) {
-                    path.getStat().setMd5(digest);
+                    path.getStat().setMd5Digest(digest);
                 } else if ("SHA1".equals(algorithm)) {
-                    path.getStat().setSha1(digest);
+                    path.getStat().setSha1Digest(digest);
+                }
+            }
+        }
+    }
+
+    //
+    // device limits
+    //
+
+    protected DeviceLimiter.Permit acquire(Operation operation, Path nativePath) throws IOException {
+        // a null permit is fine in a try-with-resources
+        return this.deviceLimiter != null ? this.deviceLimiter.acquire(operation, nativePath) : null;
+    }
+
+    static private void release(DeviceLimiter.Permit permit) {
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    static private InputStream releaseOnClose(InputStream input, DeviceLimiter.Permit permit) {
+        if (permit == null) {
+            return input;
+        }
+        return new FilterInputStream(input) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    permit.close();
                 }
             }
+        };
+    }
+
+    static private OutputStream releaseOnClose(OutputStream output, DeviceLimiter.Permit permit) {
+        if (permit == null) {
+            return output;
         }
+        return new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // the default writes one byte at a time
+                this.out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    this.out.close();
+                } finally {
+                    permit.close();
+                }
+            }
+        };
+    }
+
+    static private SeekableByteChannel releaseOnClose(SeekableByteChannel channel, DeviceLimiter.Permit permit) {
+        if (permit == null) {
+            return channel;
+        }
+        return new SeekableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                return channel.read(dst);
+            }
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                return channel.write(src);
+            }
+
+            @Override
+            public long position() throws IOException {
+                return channel.position();
+            }
+
+            @Override
+            public SeekableByteChannel position(long newPosition) throws IOException {
+                channel.position(newPosition);
+                return this;
+            }
+
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public SeekableByteChannel truncate(long size) throws IOException {
+                channel.truncate(size);
+                return this;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    channel.close();
+                } finally {
+                    permit.close();
+                }
+            }
+        };
     }
 
 }
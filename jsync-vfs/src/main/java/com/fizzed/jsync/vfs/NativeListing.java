@@ -0,0 +1,29 @@
+package com.fizzed.jsync.vfs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A native fast path for listing a local directory along with the stats of every child. This version is never
+ * available, and listings fall back to NIO. On java 22+ the multi-release jar replaces this class with one built on the
+ * foreign function API (see src/main/java22), which can be enabled on linux.
+ */
+class NativeListing {
+
+    static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Lists the child paths (with stats) of a directory, in the order they are read from the directory.
+     *
+     * @param dir the native path of the directory
+     * @param path the virtual path of the directory, which the child paths are resolved against
+     * @param visitor the visitor of each child path
+     * @throws IOException if an I/O error occurs (including any thrown by the visitor)
+     */
+    static void ls(Path dir, VirtualPath path, VirtualPathVisitor visitor) throws IOException {
+        throw new IOException("Native listing is not available (requires java 22+)");
+    }
+
+}
@@ -1,5 +1,9 @@
 package com.fizzed.jsync.vfs;
 
+import com.fizzed.jsync.vfs.util.Checksums;
+
+import java.util.Arrays;
+
 public class VirtualFileStat {
 
     final private VirtualFileType type;
@@ -7,10 +11,14 @@ public class VirtualFileStat {
     final private long modifiedTime;
     final private long accessedTime;
     final private int permissions;
+    // the inode (or file id) is only known on some filesystems, and 0 otherwise
+    private long inode;
     // there are values that can be populated later as they are expensive operations
-    private Long cksum;
-    private String md5;
-    private String sha1;
+    // NOTE: these are kept raw (not boxed or as hex strings) since there can be millions of stats in memory
+    private boolean hasCksum;
+    private long cksum;
+    private byte[] md5;
+    private byte[] sha1;
 
     public VirtualFileStat(VirtualFileType type, long size, long modifiedTime, long accessedTime, int permissions) {
         this.size = size;
@@ -24,6 +32,21 @@ public class VirtualFileStat {
         return new VirtualFileStat(type, size, modifiedTime, accessedTime, permissions);
     }
 
+    /**
+     * A copy of this stat, including any inode and checksums populated so far, that can be changed independently.
+     *
+     * @return the copy
+     */
+    public VirtualFileStat copy() {
+        final VirtualFileStat copy = new VirtualFileStat(type, size, modifiedTime, accessedTime, permissions);
+        copy.inode = this.inode;
+        copy.hasCksum = this.hasCksum;
+        copy.cksum = this.cksum;
+        copy.md5 = this.md5 != null ? this.md5.clone() : null;
+        copy.sha1 = this.sha1 != null ? this.sha1.clone() : null;
+        return copy;
+    }
+
     public VirtualFileType getType() {
         return type;
     }
@@ -48,31 +71,120 @@ public class VirtualFileStat {
         return Integer.toOctalString(this.permissions);
     }
 
+    public long getInode() {
+        return inode;
+    }
+
+    public VirtualFileStat setInode(long inode) {
+        this.inode = inode;
+        return this;
+    }
+
+    public boolean hasCksum() {
+        return this.hasCksum;
+    }
+
     public Long getCksum() {
-        return cksum;
+        return this.hasCksum ? this.cksum : null;
     }
 
-    public VirtualFileStat setCksum(Long cksum) {
+    public VirtualFileStat setCksum(long cksum) {
         this.cksum = cksum;
+        this.hasCksum = true;
+        return this;
+    }
+
+    public VirtualFileStat setCksum(Long cksum) {
+        this.cksum = cksum != null ? cksum : 0L;
+        this.hasCksum = cksum != null;
         return this;
     }
 
+    /**
+     * The md5 as a lowercase hex string, which is formatted on every call, so prefer {@link #getMd5Digest()} or
+     * {@link #isMd5Equal(VirtualFileStat)} when comparing.
+     *
+     * @return the md5 hex string or null if not yet computed
+     */
     public String getMd5() {
-        return md5;
+        return this.md5 != null ? Checksums.toHex(this.md5) : null;
     }
 
+    /**
+     * Sets the md5 from a hex string, which callers parsing untrusted output should check with
+     * {@link Checksums#isHex(String)} first.
+     *
+     * @param md5 the md5 hex string or null
+     * @return this stat
+     * @throws IllegalArgumentException if the value is not a hex string
+     */
     public VirtualFileStat setMd5(String md5) {
+        this.md5 = md5 != null ? Checksums.fromHex(md5) : null;
+        return this;
+    }
+
+    public byte[] getMd5Digest() {
+        return this.md5;
+    }
+
+    public VirtualFileStat setMd5Digest(byte[] md5) {
         this.md5 = md5;
         return this;
     }
 
+    /**
+     * The sha1 as a lowercase hex string, which is formatted on every call, so prefer {@link #getSha1Digest()} or
+     * {@link #isSha1Equal(VirtualFileStat)} when comparing.
+     *
+     * @return the sha1 hex string or null if not yet computed
+     */
     public String getSha1() {
-        return sha1;
+        return this.sha1 != null ? Checksums.toHex(this.sha1) : null;
     }
 
+    /**
+     * Sets the sha1 from a hex string, which callers parsing untrusted output should check with
+     * {@link Checksums#isHex(String)} first.
+     *
+     * @param sha1 the sha1 hex string or null
+     * @return this stat
+     * @throws IllegalArgumentException if the value is not a hex string
+     */
     public VirtualFileStat setSha1(String sha1) {
+        this.sha1 = sha1 != null ? Checksums.fromHex(sha1) : null;
+        return this;
+    }
+
+    public byte[] getSha1Digest() {
+        return this.sha1;
+    }
+
+    public VirtualFileStat setSha1Digest(byte[] sha1) {
         this.sha1 = sha1;
         return this;
     }
 
+    // helpers
+
+    /**
+     * Whether both stats have a cksum and they are equal.
+     */
+    public boolean isCksumEqual(VirtualFileStat other) {
+        return this.hasCksum && other.hasCksum && this.cksum == other.cksum;
+    }
+
+    /**
+     * Whether both stats have an md5 and they are equal.
+     */
+    public boolean isMd5Equal(VirtualFileStat other) {
+        return this.md5 != null && other.md5 != null && Arrays.equals(this.md5, other.md5);
+    }
+
+    /**
+     * Whether both stats have a sha1 and they are equal.
+     */
+    public boolean isSha1Equal(VirtualFileStat other) {
+        return this.sha1 != null && other.sha1 != null && Arrays.equals(this.sha1, other.sha1);
+    }
+
 }
@@ -1,12 +1,13 @@
 package com.fizzed.jsync.vfs;
 
+import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.NoSuchFileException;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 public interface VirtualFileSystem extends AutoCloseable {
 
@@ -24,6 +25,75 @@ public interface VirtualFileSystem extends AutoCloseable {
 
     Set<Checksum> getChecksumsSupported() throws IOException;
 
+    /**
+     * Whether this filesystem can duplicate a file it already contains without the content passing through this
+     * client (e.g. a local copy or a server-side copy on a remote host). If true, then {@link #cp(VirtualPath, VirtualPath)}
+     * is expected to work.
+     *
+     * @return true if server-side copies are supported, otherwise false
+     */
+    default boolean isCopySupported() {
+        return false;
+    }
+
+    /**
+     * Whether this filesystem can copy a file directly from the source filesystem, without its content streaming
+     * through this client (e.g. the kernel copying between two local files). If true, then
+     * {@link #directCopy(VirtualFileSystem, VirtualPath, VirtualPath)} is expected to work.
+     *
+     * @param sourceVfs the filesystem to copy from
+     * @return true if files can be copied directly from the source filesystem, otherwise false
+     */
+    default boolean isDirectCopySupported(VirtualFileSystem sourceVfs) {
+        return false;
+    }
+
+    /**
+     * Whether this filesystem can read and write files at any offset, and truncate them. If true, then
+     * {@link #readFile(VirtualPath, long)}, {@link #writeStream(VirtualPath, long)} and
+     * {@link #openChannel(VirtualPath, boolean)} are expected to work.
+     *
+     * @return true if random access is supported, otherwise false
+     */
+    default boolean isRandomAccessSupported() {
+        return false;
+    }
+
+    /**
+     * Whether {@link #lsConcurrently(VirtualPath)} may be called from another thread while other operations are in
+     * progress on this filesystem (e.g. to list directories ahead of time).
+     *
+     * @return true if directories can be listed concurrently, otherwise false
+     */
+    default boolean isConcurrentListingSupported() {
+        return false;
+    }
+
+    /**
+     * Whether this filesystem can create and extract tar archives of many paths at once, in a single stream (e.g. a
+     * "tar" command on a remote host). If true, then {@link #createArchive(VirtualPath, List, OutputStream)} and
+     * {@link #extractArchive(InputStream, VirtualPath)} are expected to work.
+     *
+     * @return true if archives are supported, otherwise false
+     * @throws IOException if an I/O error occurs while detecting support
+     */
+    default boolean isArchiveSupported() throws IOException {
+        return false;
+    }
+
+    /**
+     * Whether this filesystem can read and write the content of files as a gzip stream, with the compression done by
+     * the filesystem itself (e.g. a "gzip" command on a remote host). If true, then
+     * {@link #readFileCompressed(VirtualPath, OutputStream)} and {@link #writeFileCompressed(InputStream, VirtualPath)}
+     * are expected to work.
+     *
+     * @return true if compressed content is supported, otherwise false
+     * @throws IOException if an I/O error occurs while detecting support
+     */
+    default boolean isCompressionSupported() throws IOException {
+        return false;
+    }
+
     default boolean isFileNameEqual(String name1, String name2) {
         if (this.isCaseSensitive()) {
             return name1.equals(name2);
@@ -64,20 +134,336 @@ public interface VirtualFileSystem extends AutoCloseable {
 
     void updateStat(VirtualPath path, VirtualFileStat stats, Collection<StatUpdateOption> options) throws IOException;
 
+    /**
+     * Updates the stat of many paths, which is equivalent to calling {@link #updateStat(VirtualPath, VirtualFileStat, Collection)}
+     * on each one, but some filesystems can do this far more efficiently in bulk (e.g. a single command on a remote host).
+     * If an exception is thrown, some of the updates may have still been applied.
+     *
+     * @param updates the updates to apply, in order
+     * @throws IOException if an I/O error occurs
+     */
+    default void updateStats(List<VirtualStatUpdate> updates) throws IOException {
+        for (VirtualStatUpdate update : updates) {
+            this.updateStat(update.getPath(), update.getStat(), update.getOptions());
+        }
+    }
+
     List<VirtualPath> ls(VirtualPath path) throws IOException;
 
+    /**
+     * Lists the child paths (with stats) of a directory from a background thread, while other operations may be in
+     * progress on this filesystem. Only called if {@link #isConcurrentListingSupported()} is true.
+     *
+     * @param path the directory to list
+     * @return the child paths
+     * @throws IOException if an I/O error occurs
+     */
+    default List<VirtualPath> lsConcurrently(VirtualPath path) throws IOException {
+        return this.ls(path);
+    }
+
+    /**
+     * Lists the child paths (with stats) of a directory, in no particular order, visiting each one as it is read
+     * rather than returning them all at once, so even directories with millions of entries can be listed in bounded
+     * memory. The visitor must not list this filesystem itself.
+     *
+     * @param path the directory to list
+     * @param visitor the visitor of each child path
+     * @throws IOException if an I/O error occurs (including any thrown by the visitor)
+     */
+    default void ls(VirtualPath path, VirtualPathVisitor visitor) throws IOException {
+        for (VirtualPath childPath : this.ls(path)) {
+            visitor.visit(childPath);
+        }
+    }
+
+    /**
+     * Lists an entire tree of paths (with stats) starting at a directory, which is equivalent to recursively calling
+     * {@link #ls(VirtualPath)} on every directory, but some filesystems can do this far more efficiently (e.g. in a
+     * single command on a remote host).
+     *
+     * @param path the directory to start at
+     * @return the tree of paths
+     * @throws IOException if an I/O error occurs
+     */
+    default VirtualFileTree tree(VirtualPath path) throws IOException {
+        return this.tree(path, null);
+    }
+
+    /**
+     * Lists an entire tree of paths (with stats) starting at a directory, but does not descend into any directory that
+     * matches the prune matchers (e.g. excluded directories). Paths that match are still included in the tree, so
+     * callers can still see them, although some filesystems may prune even more efficiently than others.
+     *
+     * @param path the directory to start at
+     * @param prune the matchers (relative to the path) of directories to not descend into, or null for none
+     * @return the tree of paths
+     * @throws IOException if an I/O error occurs
+     */
+    default VirtualFileTree tree(VirtualPath path, VirtualPathMatchers prune) throws IOException {
+        return VirtualFileTree.walk(this, path, prune);
+    }
+
     void mkdir(VirtualPath path) throws IOException;
 
     void rm(VirtualPath path) throws IOException;
 
     void rmdir(VirtualPath path) throws IOException;
 
+    /**
+     * Creates many directories, which is equivalent to calling {@link #mkdir(VirtualPath)} on each one, but some
+     * filesystems can do this far more efficiently in bulk (e.g. a single command on a remote host). Parents are not
+     * created automatically, so each parent must either already exist or come earlier in the list.
+     *
+     * @param paths the directories to create, in order
+     * @throws IOException if an I/O error occurs
+     */
+    default void mkdirs(List<VirtualPath> paths) throws IOException {
+        for (VirtualPath path : paths) {
+            this.mkdir(path);
+        }
+    }
+
+    /**
+     * Writes the content of a file, compressed with gzip, to a stream.
+     *
+     * @param path the file to read
+     * @param output the stream to write the compressed content to (it is not closed)
+     * @throws IOException if an I/O error occurs
+     */
+    default void readFileCompressed(VirtualPath path, OutputStream output) throws IOException {
+        throw new IOException("Reading compressed content is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Writes a file from a stream of gzip compressed content, replacing the file if it exists.
+     *
+     * @param input the stream to read the compressed content from
+     * @param path the file to write
+     * @throws IOException if an I/O error occurs
+     */
+    default void writeFileCompressed(InputStream input, VirtualPath path) throws IOException {
+        throw new IOException("Writing compressed content is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Writes a tar archive of paths within a directory to a stream, with their permissions and modified times, and
+     * named relative to the directory. Only the paths themselves are included (a directory does not include what it
+     * contains), and directories should come before anything within them.
+     *
+     * @param path the directory the paths are within
+     * @param paths the directories and files to include
+     * @param output the stream to write the archive to (it is not closed)
+     * @throws IOException if an I/O error occurs
+     */
+    default void createArchive(VirtualPath path, List<VirtualPath> paths, OutputStream output) throws IOException {
+        throw new IOException("Creating archives is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Extracts a tar archive from a stream into a directory, with the permissions and modified times of its entries
+     * preserved. Any existing files are replaced.
+     *
+     * @param input the stream to read the archive from
+     * @param path the directory to extract into
+     * @throws IOException if an I/O error occurs
+     */
+    default void extractArchive(InputStream input, VirtualPath path) throws IOException {
+        throw new IOException("Extracting archives is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Removes a directory and everything within it. By default, this lists each directory and removes everything in
+     * bulk with {@link #removeAll(List)}, but some filesystems can do this far more efficiently (e.g. a single command
+     * on a remote host, or in parallel on a local disk).
+     *
+     * @param path the directory to remove
+     * @throws IOException if an I/O error occurs
+     */
+    default void rmtree(VirtualPath path) throws IOException {
+        // everything is visited parent first, so once reversed, everything comes before the directory its within
+        final List<VirtualPath> paths = new ArrayList<>();
+        final Deque<VirtualPath> stack = new ArrayDeque<>();
+        stack.push(path);
+        while (!stack.isEmpty()) {
+            final VirtualPath p = stack.pop();
+            paths.add(p);
+            if (p.isDirectory()) {
+                for (VirtualPath childPath : this.ls(p)) {
+                    stack.push(childPath);
+                }
+            }
+        }
+        Collections.reverse(paths);
+        this.removeAll(paths);
+    }
+
+    /**
+     * Removes many files and directories, which is equivalent to calling {@link #rm(VirtualPath)} on each file and
+     * {@link #rmdir(VirtualPath)} on each directory, but some filesystems can do this far more efficiently in bulk (e.g.
+     * a single command on a remote host). A directory must be empty by the time its removed, so anything within it
+     * must come earlier in the list.
+     *
+     * @param paths the files and directories to remove, in order
+     * @throws IOException if an I/O error occurs
+     */
+    default void removeAll(List<VirtualPath> paths) throws IOException {
+        for (VirtualPath path : paths) {
+            if (path.isDirectory()) {
+                this.rmdir(path);
+            } else {
+                this.rm(path);
+            }
+        }
+    }
+
+    /**
+     * Fills in the inodes of the stats of many paths, where not already known, so that work on many files can be
+     * ordered by where they likely are on disk. By default, this does nothing and inodes are left unknown (0).
+     *
+     * @param paths the paths (with stats)
+     * @throws IOException if an I/O error occurs
+     */
+    default void inodes(List<VirtualPath> paths) throws IOException {
+        // inodes are unknown by default
+    }
+
     InputStream readFile(VirtualPath path) throws IOException;
 
     void writeFile(InputStream input, VirtualPath path) throws IOException;
 
     OutputStream writeStream(VirtualPath path) throws IOException;
 
+    /**
+     * Reads a file starting at an offset. By default, this reads the file from the start and skips up to the offset,
+     * but most filesystems can start reading at the offset.
+     *
+     * @param path the file to read
+     * @param offset the number of bytes to skip from the start of the file
+     * @return the stream of content starting at the offset
+     * @throws IOException if an I/O error occurs
+     */
+    default InputStream readFile(VirtualPath path, long offset) throws IOException {
+        final InputStream input = this.readFile(path);
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                final long n = input.skip(remaining);
+                if (n <= 0) {
+                    // skip may give up early, so a read tells us if the end of the file was reached
+                    if (input.read() < 0) {
+                        break;
+                    }
+                    remaining--;
+                } else {
+                    remaining -= n;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+        return input;
+    }
+
+    /**
+     * Writes a file starting at an offset. Unlike {@link #writeStream(VirtualPath)}, the file is NOT truncated, so
+     * any existing content before the offset and after the written bytes is retained. The file will be created if it
+     * does not yet exist.
+     *
+     * @param path the file to write
+     * @param offset the position in the file to start writing at
+     * @return the stream to write content to
+     * @throws IOException if an I/O error occurs
+     */
+    default OutputStream writeStream(VirtualPath path, long offset) throws IOException {
+        throw new IOException("Writing at an offset is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Opens a channel on a file for reading (and optionally writing) at any position. If writable, the file will be
+     * created if it does not yet exist, but is NOT truncated, and the channel can be used to truncate it. Reading or
+     * writing sequentially is the most efficient, since some filesystems (e.g. sftp) must reopen a stream whenever the
+     * position is moved.
+     *
+     * @param path the file to open
+     * @param writable true to open the file for writing as well as reading
+     * @return the channel, positioned at the start of the file
+     * @throws IOException if an I/O error occurs
+     */
+    default SeekableByteChannel openChannel(VirtualPath path, boolean writable) throws IOException {
+        throw new IOException("Random access is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Copies an existing file to another path on this same filesystem, replacing the target if it already exists.
+     * The content is copied by the filesystem itself (e.g. on the remote host), so no bytes are transferred thru this
+     * client. Only the content is guaranteed to be copied, the stat of the target may or may not match the source.
+     *
+     * @param sourcePath the existing file to copy
+     * @param targetPath the path of the new copy
+     * @throws IOException if an I/O error occurs or copying is not supported
+     */
+    default void cp(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        throw new IOException("Copying is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Copies an existing file on the source filesystem to a path on this filesystem, replacing the target if it already
+     * exists, and as efficiently as the two filesystems allow. Only the content is guaranteed to be copied, the stat of
+     * the target may or may not match the source.
+     *
+     * @param sourceVfs the filesystem to copy from
+     * @param sourcePath the existing file to copy
+     * @param targetPath the path of the new copy
+     * @throws IOException if an I/O error occurs or copying directly is not supported
+     */
+    default void directCopy(VirtualFileSystem sourceVfs, VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        throw new IOException("Copying directly is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Moves (renames) an existing file or directory to another path on this same filesystem, replacing the target if
+     * it already exists and the filesystem supports that. The stat of the path (e.g. timestamps, permissions) moves
+     * along with it.
+     *
+     * @param sourcePath the existing path to move
+     * @param targetPath the new path
+     * @throws IOException if an I/O error occurs
+     */
+    default void mv(VirtualPath sourcePath, VirtualPath targetPath) throws IOException {
+        throw new IOException("Moving is not supported by filesystem " + this.getName());
+    }
+
+    /**
+     * Calculates a checksum of each consecutive fixed-size block of a file, which allows comparing which regions of
+     * two files differ. The last block may be smaller than the block size.
+     *
+     * @param checksum the checksum to calculate
+     * @param path the file to checksum
+     * @param blockSize the size of each block
+     * @return the checksum values of every block, in order (a decimal number for CK, a lowercase hex string for others)
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedChecksumException if the checksum (or block checksums at all) are not supported
+     */
+    default List<String> blockChecksums(Checksum checksum, VirtualPath path, long blockSize) throws IOException {
+        throw new UnsupportedChecksumException("Block checksums are not supported by filesystem " + this.getName(), null);
+    }
+
+    /**
+     * Calculates a checksum of only the first bytes of a file (e.g. to verify one file is a prefix of another).
+     *
+     * @param checksum the checksum to calculate
+     * @param path the file to checksum
+     * @param length the number of bytes from the start of the file to checksum
+     * @return the checksum value (a decimal number for CK, a lowercase hex string for others)
+     * @throws IOException if an I/O error occurs
+     * @throws UnsupportedChecksumException if the checksum (or prefix checksums at all) are not supported
+     */
+    default String prefixChecksum(Checksum checksum, VirtualPath path, long length) throws IOException {
+        throw new UnsupportedChecksumException("Prefix checksums are not supported by filesystem " + this.getName(), null);
+    }
+
     default void checksums(Checksum checksum, List<VirtualPath> paths) throws IOException {
         switch (checksum) {
             case CK:
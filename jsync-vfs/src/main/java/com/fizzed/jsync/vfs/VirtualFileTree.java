@@ -0,0 +1,112 @@
+package com.fizzed.jsync.vfs;
+
+import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A snapshot of an entire tree of paths (with stats) on a virtual filesystem, which can serve the listing of any
+ * directory within it without another call to the filesystem.
+ */
+public class VirtualFileTree {
+
+    private final VirtualPath root;
+    private final Map<String,List<VirtualPath>> childPathsByParentPath;
+    private int size;
+
+    public VirtualFileTree(VirtualPath root) {
+        Objects.requireNonNull(root, "root cannot be null");
+        this.root = root;
+        this.childPathsByParentPath = new HashMap<>();
+        this.childPathsByParentPath.put(toKey(root.toFullPath()), new ArrayList<>());
+    }
+
+    public VirtualPath getRoot() {
+        return root;
+    }
+
+    /**
+     * The number of paths in this tree, not including the root.
+     *
+     * @return the number of paths
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a path to the tree. Its parent directory is expected to be (or will be) added as well.
+     *
+     * @param path the path to add, with its stats
+     */
+    public void add(VirtualPath path) {
+        this.childPathsByParentPath.computeIfAbsent(toKey(path.getParentPath()), k -> new ArrayList<>()).add(path);
+
+        // a directory with no children must still be known to exist
+        if (path.isDirectory() != null && path.isDirectory()) {
+            this.childPathsByParentPath.computeIfAbsent(toKey(path.toFullPath()), k -> new ArrayList<>());
+        }
+
+        this.size++;
+    }
+
+    /**
+     * Lists the child paths of a directory in this tree, in the same manner as {@link VirtualFileSystem#ls(VirtualPath)}.
+     *
+     * @param path the directory to list
+     * @return a new list of the child paths, or null if the directory is not part of this tree
+     */
+    public List<VirtualPath> ls(VirtualPath path) {
+        final List<VirtualPath> childPaths = this.childPathsByParentPath.get(toKey(path.toFullPath()));
+        if (childPaths == null) {
+            return null;
+        }
+        return new ArrayList<>(childPaths);
+    }
+
+    /**
+     * Builds a tree by recursively listing every directory, which works with any virtual filesystem.
+     *
+     * @param vfs the virtual filesystem to list
+     * @param root the directory to start at
+     * @param prune the matchers (relative to the root) of directories to not descend into, or null for none
+     * @return the tree
+     * @throws IOException if an I/O error occurs
+     */
+    static public VirtualFileTree walk(VirtualFileSystem vfs, VirtualPath root, VirtualPathMatchers prune) throws IOException {
+        final VirtualFileTree tree = new VirtualFileTree(root);
+        walk(vfs, root, root, prune, tree);
+        return tree;
+    }
+
+    static private void walk(VirtualFileSystem vfs, VirtualPath root, VirtualPath dir, VirtualPathMatchers prune, VirtualFileTree tree) throws IOException {
+        for (VirtualPath childPath : vfs.ls(dir)) {
+            tree.add(childPath);
+            if (childPath.isDirectory() && (prune == null || !prune.matches(root, childPath))) {
+                walk(vfs, root, childPath, prune, tree);
+            }
+        }
+    }
+
+    static private String toKey(String path) {
+        // the parent path of a child of "/" (or "C:/") is "" (or "C:"), so we key on paths without a trailing slash
+        if (path == null) {
+            return "";
+        }
+        if (path.endsWith("/")) {
+            return path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualFileTree{root=" + root + ", size=" + size + "}";
+    }
+
+}
@@ -1,15 +1,19 @@
 package com.fizzed.jsync.vfs;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class VirtualPath {
 
+    // NOTE: the children of a directory all share the same parent path instance (see resolve), so a huge tree of paths
+    // does not keep a copy of every parent path for every child. Only a directory keeps its full path once built (it is
+    // what its children share), while a file builds it whenever its needed, since files vastly outnumber directories
     private final String parentPath;
     private final String name;
-    private final String fullPath;
     private final Boolean directory;
     private final VirtualFileStat stat;
+    private String fullPath;
 
     public VirtualPath(String parentPath, String name, Boolean directory, VirtualFileStat stat) {
         Objects.requireNonNull(name, "name cannot be null");
@@ -17,11 +21,6 @@ public class VirtualPath {
         this.name = name;
         this.directory = directory;
         this.stat = stat;
-        if (this.parentPath == null) {
-            this.fullPath = name;
-        } else {
-            this.fullPath = parentPath + "/" + name;
-        }
     }
 
     static public VirtualPath parse(String path) {
@@ -42,7 +41,7 @@ public class VirtualPath {
 
         if (lastSlashPos < 0) {
             // fully relative, no parent path
-            return new VirtualPath(null, path, directory, null);
+            return new VirtualPath(null, path, directory, stat);
         } else {
             // split the parent path and name
             String parentPath = path.substring(0, lastSlashPos);
@@ -62,7 +61,15 @@ public class VirtualPath {
     }
 
     public String toFullPath() {
-        return this.fullPath;
+        // safe to race, since every thread would build an equal (immutable) string
+        String fullPath = this.fullPath;
+        if (fullPath == null) {
+            fullPath = this.parentPath == null ? this.name : this.parentPath + "/" + this.name;
+            if (Boolean.TRUE.equals(this.directory)) {
+                this.fullPath = fullPath;
+            }
+        }
+        return fullPath;
     }
 
     public boolean isAbsolute() {
@@ -96,11 +103,11 @@ public class VirtualPath {
     }
 
     public boolean startsWith(VirtualPath path) {
-        return this.fullPath.startsWith(path.toFullPath());
+        return this.toFullPath().startsWith(path.toFullPath());
     }
 
     public boolean startsWith(String path) {
-        return this.fullPath.startsWith(path);
+        return this.toFullPath().startsWith(path);
     }
 
     /**
@@ -114,21 +121,28 @@ public class VirtualPath {
     }
 
     public VirtualPath normalize() {
+        final String fullPath = this.toFullPath();
+
+        // 1. Nearly every path is already normalized, which needs nothing rebuilt
+        if (isNormalized(fullPath)) {
+            return this;
+        }
+
         final boolean isAbsolute = this.isAbsolute();
 
-        String p = this.fullPath;
+        String p = fullPath;
         String dl = null;
         // handle windows case, where we'll chop off drive letter and add it back
-        if (this.fullPath.length() > 2 && this.fullPath.charAt(1) == ':') {
-            dl = this.fullPath.substring(0, 2);
-            p = this.fullPath.substring(2);
+        if (fullPath.length() > 2 && fullPath.charAt(1) == ':') {
+            dl = fullPath.substring(0, 2);
+            p = fullPath.substring(2);
         }
 
         // 2. Split by slash
         String[] parts = p.split("/");
 
-        // 3. Use a LinkedList as a stack to process parts
-        LinkedList<String> stack = new LinkedList<>();
+        // 3. Use a list as a stack to process parts
+        List<String> stack = new ArrayList<>(parts.length);
 
         for (String part : parts) {
             // Skip empty parts (caused by //) and current dir (.)
@@ -138,9 +152,9 @@ public class VirtualPath {
 
             // Handle parent dir (..)
             if ("..".equals(part)) {
-                if (!stack.isEmpty() && !stack.getLast().equals("..")) {
+                if (!stack.isEmpty() && !stack.get(stack.size() - 1).equals("..")) {
                     // If we have a path to go back from, pop it
-                    stack.removeLast();
+                    stack.remove(stack.size() - 1);
                 } else if (!isAbsolute) {
                     // If it's relative (and stack is empty or has ..), we keep the ..
                     // Example: "../../file.txt" -> we must keep the dots
@@ -169,6 +183,43 @@ public class VirtualPath {
         return VirtualPath.parse(normalized, this.directory, this.stat);
     }
 
+    static boolean isNormalized(String path) {
+        if (path.isEmpty() || path.indexOf('\\') >= 0) {
+            return false;
+        }
+
+        int start = 0;
+        // windows drive letter must be followed by a slash (e.g. C:/a)
+        if (path.length() > 2 && path.charAt(1) == ':') {
+            if (path.charAt(2) != '/') {
+                return false;
+            }
+            start = 2;
+        }
+        if (path.charAt(start) == '/') {
+            start++;
+            if (start == path.length()) {
+                return true;        // the root
+            }
+        }
+
+        // every segment must be a real name (not empty, "." or "..")
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            final int length = end - start;
+            if (length == 0
+                    || (length == 1 && path.charAt(start) == '.')
+                    || (length == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.')) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
     public VirtualPath resolve(String path, boolean directory) {
         return this.resolve(path, directory, null);
     }
@@ -176,11 +227,33 @@ public class VirtualPath {
     public VirtualPath resolve(String path, boolean directory, VirtualFileStat stats) {
         Objects.requireNonNull(path, "path cannot be null");
 
+        // the common case of a child within this directory (e.g. listing a directory) shares this full path as its
+        // parent path, rather than building a new copy of it
+        if (isSimpleName(path)) {
+            final String fullPath = this.toFullPath();
+            if (!fullPath.isEmpty() && fullPath.charAt(fullPath.length() - 1) != '/') {
+                return new VirtualPath(fullPath, path, directory, stats);
+            }
+        }
+
         VirtualPath otherPath = VirtualPath.parse(path, directory, stats);
 
         return this.resolve(otherPath);
     }
 
+    static private boolean isSimpleName(String name) {
+        if (name.isEmpty() || name.equals(".") || name.equals("..") || (name.length() > 1 && name.charAt(1) == ':')) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '/' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public VirtualPath resolve(VirtualPath path) {
         Objects.requireNonNull(path, "path cannot be null");
 
@@ -200,6 +273,23 @@ public class VirtualPath {
         }
     }
 
+    /**
+     * Gets the path of another path, relative to this one (e.g. "b/c" for "/a/b/c" relative to "/a").
+     *
+     * @param path the path within this one
+     * @return the relative path, with /'s
+     * @throws IllegalArgumentException if the path is not within this one
+     */
+    public String relativize(VirtualPath path) {
+        final String fullPath = this.toFullPath();
+        final String prefix = fullPath.endsWith("/") ? fullPath : fullPath + "/";
+        final String other = path.toFullPath();
+        if (!other.startsWith(prefix) || other.length() == prefix.length()) {
+            throw new IllegalArgumentException("Path " + path + " is not within " + this);
+        }
+        return other.substring(prefix.length());
+    }
+
     @Override
     public String toString() {
         return this.toFullPath();
@@ -0,0 +1,13 @@
+package com.fizzed.jsync.vfs;
+
+import java.io.IOException;
+
+/**
+ * Visits paths one at a time as they are listed, so a listing never needs to be held in memory all at once.
+ */
+@FunctionalInterface
+public interface VirtualPathVisitor {
+
+    void visit(VirtualPath path) throws IOException;
+
+}
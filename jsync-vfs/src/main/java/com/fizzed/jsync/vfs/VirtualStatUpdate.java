@@ -0,0 +1,29 @@
+package com.fizzed.jsync.vfs;
+
+import java.util.Collection;
+
+public class VirtualStatUpdate {
+
+    private final VirtualPath path;
+    private final VirtualFileStat stat;
+    private final Collection<StatUpdateOption> options;
+
+    public VirtualStatUpdate(VirtualPath path, VirtualFileStat stat, Collection<StatUpdateOption> options) {
+        this.path = path;
+        this.stat = stat;
+        this.options = options;
+    }
+
+    public VirtualPath getPath() {
+        return path;
+    }
+
+    public VirtualFileStat getStat() {
+        return stat;
+    }
+
+    public Collection<StatUpdateOption> getOptions() {
+        return options;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.fizzed.jsync.vfs.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of reusable byte buffers, in power of 2 size classes (from 8 KB to 1 MB), so that copying and
+ * hashing many files does not allocate a new buffer for each one. Only a limited number of buffers of each size are
+ * retained, anything released beyond that is simply left for the garbage collector.
+ */
+public class BufferPool {
+
+    static public final int MIN_SIZE = 8 * 1024;
+    static public final int MAX_SIZE = 1024 * 1024;
+    static private final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    static private final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+    static private final BufferPool SHARED = new BufferPool(16);
+
+    /**
+     * The pool shared by everything in jsync.
+     *
+     * @return the shared pool
+     */
+    static public BufferPool shared() {
+        return SHARED;
+    }
+
+    private final int maxRetained;
+    private final ConcurrentLinkedQueue<byte[]>[] queues;
+    private final AtomicInteger[] retained;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxRetained) {
+        this.maxRetained = maxRetained;
+        this.queues = new ConcurrentLinkedQueue[CLASSES];
+        this.retained = new AtomicInteger[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            this.queues[i] = new ConcurrentLinkedQueue<>();
+            this.retained[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * The size of buffer that suits copying content of a known length, which is just large enough to hold all of it
+     * (so small files do not tie up large buffers), but never smaller than 8 KB or larger than 1 MB.
+     *
+     * @param contentLength the length of the content, or -1 if unknown
+     * @return the size of buffer to acquire
+     */
+    static public int sizeFor(long contentLength) {
+        if (contentLength < 0) {
+            return 64 * 1024;
+        }
+        if (contentLength <= MIN_SIZE) {
+            return MIN_SIZE;
+        }
+        if (contentLength >= MAX_SIZE) {
+            return MAX_SIZE;
+        }
+        return Integer.highestOneBit((int)contentLength - 1) << 1;
+    }
+
+    /**
+     * Acquires a buffer of at least the size (rounded up to its size class), which should be released once done with.
+     *
+     * @param size the minimum size of the buffer
+     * @return the buffer, whose content is undefined
+     */
+    public byte[] acquire(int size) {
+        final int index = classOf(size);
+        if (index < 0) {
+            return new byte[size];          // larger than any size class, so never pooled
+        }
+        final byte[] buffer = this.queues[index].poll();
+        if (buffer != null) {
+            this.retained[index].decrementAndGet();
+            return buffer;
+        }
+        return new byte[MIN_SIZE << index];
+    }
+
+    /**
+     * Releases a buffer back to the pool. It must not be used after being released.
+     *
+     * @param buffer the buffer to release
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+        final int index = classOf(buffer.length);
+        if (index < 0) {
+            return;
+        }
+        if (this.retained[index].incrementAndGet() <= this.maxRetained) {
+            this.queues[index].offer(buffer);
+        } else {
+            this.retained[index].decrementAndGet();
+        }
+    }
+
+    /**
+     * The number of buffers currently retained in the pool.
+     *
+     * @return the number of buffers
+     */
+    public int size() {
+        int size = 0;
+        for (AtomicInteger r : this.retained) {
+            size += r.get();
+        }
+        return size;
+    }
+
+    static private int classOf(int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SHIFT;
+    }
+
+}
@@ -1,9 +1,12 @@
 package com.fizzed.jsync.vfs.util;
 
+import com.fizzed.jsync.vfs.Checksum;
+import com.fizzed.jsync.vfs.UnsupportedChecksumException;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Checksums {
@@ -41,22 +44,26 @@ public class Checksums {
         int crc = 0;
         long length = 0;
 
-        // Optimization: Create a buffer to read 8KB chunks
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int bytesRead;
-
-        // 1. Process file in chunks
-        while ((bytesRead = input.read(buffer)) != -1) {
-            length += bytesRead;
-
-            // Process the chunk in memory (Fast CPU loop, no I/O overhead)
-            for (int i = 0; i < bytesRead; i++) {
-                // IMPORTANT: buffer[i] is a signed byte (-128 to 127).
-                // We use & 0xFF to convert it to an unsigned int (0 to 255)
-                // just like input.read() would have returned.
-                int b = buffer[i] & 0xFF;
-                crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xFF];
+        // Optimization: Borrow a pooled buffer to read 32KB chunks
+        final byte[] buffer = BufferPool.shared().acquire(BUFFER_SIZE);
+        try {
+            int bytesRead;
+
+            // 1. Process file in chunks
+            while ((bytesRead = input.read(buffer)) != -1) {
+                length += bytesRead;
+
+                // Process the chunk in memory (Fast CPU loop, no I/O overhead)
+                for (int i = 0; i < bytesRead; i++) {
+                    // IMPORTANT: buffer[i] is a signed byte (-128 to 127).
+                    // We use & 0xFF to convert it to an unsigned int (0 to 255)
+                    // just like input.read() would have returned.
+                    int b = buffer[i] & 0xFF;
+                    crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xFF];
+                }
             }
+        } finally {
+            BufferPool.shared().release(buffer);
         }
 
         // 2. POSIX requirement: Append the length of the file to the stream.
@@ -80,29 +87,81 @@ public class Checksums {
      * @throws IOException If an I/O error occurs.
      */
     public static String hash(String algorithm, InputStream inputStream) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        MessageDigest digest;
+        return toHex(digest(algorithm, inputStream));
+    }
 
+    /**
+     * Calculates the raw digest of an InputStream, reading until EOF, but does NOT close the stream.
+     *
+     * @param algorithm the digest algorithm (e.g. MD5 or SHA1)
+     * @param inputStream the stream to read
+     * @return the raw digest bytes
+     * @throws IOException If an I/O error occurs.
+     */
+    public static byte[] digest(String algorithm, InputStream inputStream) throws IOException {
+        // both the buffer and digest are borrowed, since this is called for every file (or block of a file)
+        final byte[] buffer = BufferPool.shared().acquire(BUFFER_SIZE);
+        final MessageDigest digest = DigestPool.shared().acquire(algorithm);
         try {
-            digest = MessageDigest.getInstance(algorithm);
-        } catch (NoSuchAlgorithmException e) {
-            // MD5 is a standard algorithm guaranteed to be present in all JVMs
-            throw new RuntimeException(algorithm + " algorithm not found", e);
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
+
+            return digest.digest();
+        } finally {
+            DigestPool.shared().release(algorithm, digest);
+            BufferPool.shared().release(buffer);
         }
+    }
 
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            digest.update(buffer, 0, bytesRead);
+    /**
+     * Calculates a checksum of an InputStream, reading until EOF, but does NOT close the stream.
+     *
+     * @param checksum the checksum to calculate
+     * @param input the stream to read
+     * @return the checksum value as a string (a decimal number for CK, a lowercase hex string for others)
+     * @throws IOException If an I/O error occurs.
+     */
+    static public String checksum(Checksum checksum, InputStream input) throws IOException {
+        switch (checksum) {
+            case CK:
+                return Long.toString(cksum(input));
+            case MD5:
+                return hash("MD5", input);
+            case SHA1:
+                return hash("SHA1", input);
+            default:
+                throw new UnsupportedChecksumException("Unsupported checksum '" + checksum + "'", null);
+        }
+    }
+
+    /**
+     * Calculates a checksum of each consecutive fixed-size block of an InputStream. The last block may be smaller
+     * than the block size. Does NOT close the stream.
+     *
+     * @param checksum the checksum to calculate
+     * @param input the stream to read
+     * @param length the number of bytes to read from the stream
+     * @param blockSize the size of each block
+     * @return the checksum values of every block, in order
+     * @throws IOException If an I/O error occurs.
+     */
+    static public List<String> blockChecksums(Checksum checksum, InputStream input, long length, long blockSize) throws IOException {
+        final List<String> values = new ArrayList<>((int)((length + blockSize - 1) / blockSize));
+
+        for (long offset = 0; offset < length; offset += blockSize) {
+            values.add(checksum(checksum, new BoundedInputStream(input, Math.min(blockSize, length - offset))));
         }
 
-        return bytesToHex(digest.digest());
+        return values;
     }
 
     /**
      * Extremely fast conversion of raw bytes to a Hex String.
      * Avoiding String.format() improves performance significantly.
      */
-    private static String bytesToHex(byte[] bytes) {
+    static public String toHex(byte[] bytes) {
         char[] hexChars = new char[bytes.length * 2];
         for (int i = 0; i < bytes.length; i++) {
             int v = bytes[i] & 0xFF;
@@ -114,6 +173,44 @@ public class Checksums {
         return new String(hexChars);
     }
 
+    /**
+     * Converts a Hex String (of either case) back to raw bytes.
+     *
+     * @param hex the hex string, which must have an even length
+     * @return the raw bytes
+     * @throws IllegalArgumentException if the string is not valid hex
+     */
+    static public byte[] fromHex(String hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("Hex string '" + hex + "' has an odd length");
+        }
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(hex.charAt(i * 2), 16);
+            final int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Hex string '" + hex + "' has an invalid character");
+            }
+            bytes[i] = (byte)((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Whether the value is a non-empty hex string of whole bytes (e.g. a valid md5 or sha1 as output by a tool).
+     */
+    static public boolean isHex(String value) {
+        if (value == null || value.isEmpty() || (value.length() & 1) != 0) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     static public class HashEntry {
 
         private final long cksum;
@@ -157,13 +254,15 @@ public class Checksums {
             int spacePos1 = line.indexOf(" ");
             int spacePos2 = line.indexOf(" ", spacePos1 + 1);
 
-            if (spacePos1 < 0 || spacePos2 < 0) {
+            if (spacePos1 < 0) {
                 throw new IllegalArgumentException("Invalid cksum file output: " + line);
             }
 
+            // if the data was piped in, cksum does not output a file
+            final boolean hasFile = spacePos2 >= 0;
             final long cksum = Long.parseLong(line.substring(0, spacePos1).trim());
-            final long size = Long.parseLong(line.substring(spacePos1 + 1, spacePos2).trim());
-            final String file = line.substring(spacePos2 + 1).trim();
+            final long size = Long.parseLong(line.substring(spacePos1 + 1, hasFile ? spacePos2 : line.length()).trim());
+            final String file = hasFile ? line.substring(spacePos2 + 1).trim() : "";
 
             entries.add(new HashEntry(cksum, null, file));
         }
@@ -184,11 +283,23 @@ public class Checksums {
             int spacePos = line.indexOf(" ");
 
             if (spacePos < 0) {
-                throw new IllegalArgumentException("Invalid hash file output: " + line);
+                // not a hash line
+                continue;
+            }
+
+            String hash = line.substring(0, spacePos).trim();
+            String file = line.substring(spacePos + 1).trim();
+
+            // gnu coreutils prefixes the line with a backslash if it had to escape the file name (e.g. a newline in it)
+            if (hash.startsWith("\\")) {
+                hash = hash.substring(1);
+                file = unescapeFileName(file);
             }
 
-            final String hash = line.substring(0, spacePos).trim();
-            final String file = line.substring(spacePos + 1).trim();
+            // anything else is not a hash either (e.g. a warning), and the file will simply have no checksum
+            if (!isHex(hash)) {
+                continue;
+            }
 
             entries.add(new HashEntry(0L, hash.toLowerCase(), file));
         }
@@ -196,6 +307,20 @@ public class Checksums {
         return entries;
     }
 
+    static private String unescapeFileName(String file) {
+        final StringBuilder sb = new StringBuilder(file.length());
+        for (int i = 0; i < file.length(); i++) {
+            final char c = file.charAt(i);
+            if (c == '\\' && i + 1 < file.length()) {
+                final char next = file.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
     static public List<HashEntry> parsePowershellHashFileOutput(String output) {
         final String[] lines = output.split("\n");
         final List<HashEntry> entries = new java.util.ArrayList<>(lines.length);
@@ -221,7 +346,7 @@ public class Checksums {
                 file += fileToAppend;
             } else {
                 // we are ready to keep whatever we read last
-                if (hash != null && file != null) {
+                if (hash != null && file != null && isHex(hash)) {
                     // always use lowercase for hash
                     entries.add(new HashEntry(0L, hash.toLowerCase(), file));
                     hash = null;
@@ -242,7 +367,7 @@ public class Checksums {
         }
 
         // we are ready to keep whatever we read last
-        if (hash != null && file != null) {
+        if (hash != null && file != null && isHex(hash)) {
             // always use lowercase for hash
             entries.add(new HashEntry(0L, hash.toLowerCase(), file));
         }
@@ -0,0 +1,198 @@
+package com.fizzed.jsync.vfs.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits how many files are concurrently hashed, read and written on each local device (identified by its
+ * {@link FileStore}), so parallel work is spread across the disks of a tree spanning several mounts, rather than
+ * thrashing the slowest one. Each device has its own limits. A limiter may be shared by several filesystems (e.g. the
+ * source and target of a local sync, or many syncs running at once), so their limits are shared too. The limits must be
+ * set before the limiter is used. Anything holding more than one permit at once must take its read permit before its
+ * write permit (e.g. opening the source of a copy before its target), otherwise concurrent copies may deadlock.
+ */
+public class DeviceLimiter {
+
+    static private final int MAX_CACHED_DIRS = 4096;
+
+    public enum Operation {
+        HASH,
+        READ,
+        WRITE
+    }
+
+    private final Map<String,FileStore> storesByDir;
+    private final ConcurrentHashMap<FileStore,Semaphore[]> semaphoresByStore;
+    private int maxHashes;
+    private int maxReads;
+    private int maxWrites;
+
+    public DeviceLimiter() {
+        // finding the store of a path is expensive (e.g. parsing the mount table), so the stores of recently used
+        // directories are remembered
+        this.storesByDir = Collections.synchronizedMap(new LinkedHashMap<String,FileStore>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,FileStore> eldest) {
+                return this.size() > MAX_CACHED_DIRS;
+            }
+        });
+        this.semaphoresByStore = new ConcurrentHashMap<>();
+        this.maxHashes = 2;
+        this.maxReads = 4;
+        this.maxWrites = 2;
+    }
+
+    public int getMaxHashes() {
+        return maxHashes;
+    }
+
+    /**
+     * The max number of files concurrently hashed (e.g. checksums) on each device.
+     *
+     * @param maxHashes the max number of files, or 0 for no limit
+     * @return this limiter
+     */
+    public DeviceLimiter setMaxHashes(int maxHashes) {
+        this.maxHashes = checkMax("maxHashes", maxHashes);
+        return this;
+    }
+
+    public int getMaxReads() {
+        return maxReads;
+    }
+
+    /**
+     * The max number of files concurrently open for reading on each device.
+     *
+     * @param maxReads the max number of files, or 0 for no limit
+     * @return this limiter
+     */
+    public DeviceLimiter setMaxReads(int maxReads) {
+        this.maxReads = checkMax("maxReads", maxReads);
+        return this;
+    }
+
+    public int getMaxWrites() {
+        return maxWrites;
+    }
+
+    /**
+     * The max number of files concurrently open for writing on each device.
+     *
+     * @param maxWrites the max number of files, or 0 for no limit
+     * @return this limiter
+     */
+    public DeviceLimiter setMaxWrites(int maxWrites) {
+        this.maxWrites = checkMax("maxWrites", maxWrites);
+        return this;
+    }
+
+    /**
+     * Waits for a permit to hash, read or write a file on the device the file is on, which must be closed once done.
+     *
+     * @param operation the operation on the file
+     * @param file the file, which does not need to exist yet (its closest existing parent identifies the device)
+     * @return the permit
+     * @throws IOException if an I/O error occurs identifying the device, or if interrupted while waiting
+     */
+    public Permit acquire(Operation operation, Path file) throws IOException {
+        final int max = this.getMax(operation);
+        if (max <= 0) {
+            return Permit.NONE;
+        }
+
+        final FileStore store = this.store(file);
+        final Semaphore semaphore = this.semaphoresByStore.computeIfAbsent(store, s -> new Semaphore[] {
+            new Semaphore(this.maxHashes, true), new Semaphore(this.maxReads, true), new Semaphore(this.maxWrites, true)
+        })[operation.ordinal()];
+
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to " + operation.name().toLowerCase() + " " + file);
+        }
+
+        return new Permit(semaphore);
+    }
+
+    FileStore store(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir == null) {
+            dir = file.toAbsolutePath();
+        }
+
+        final String key = dir.toString();
+        FileStore store = this.storesByDir.get(key);
+        if (store == null) {
+            // a file being written may be in a directory that doesn't exist yet, but it will be on the same device as
+            // its closest parent that does
+            Path existing = dir;
+            while (true) {
+                try {
+                    store = Files.getFileStore(existing);
+                    break;
+                } catch (NoSuchFileException e) {
+                    existing = existing.getParent();
+                    if (existing == null) {
+                        throw e;
+                    }
+                }
+            }
+            this.storesByDir.put(key, store);
+        }
+        return store;
+    }
+
+    private int getMax(Operation operation) {
+        switch (operation) {
+            case HASH:
+                return this.maxHashes;
+            case READ:
+                return this.maxReads;
+            default:
+                return this.maxWrites;
+        }
+    }
+
+    static private int checkMax(String name, int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException(name + " must be >= 0");
+        }
+        return max;
+    }
+
+    /**
+     * A permit to hash, read or write a file on a device, which is released when closed (only the first time).
+     */
+    static public class Permit implements Closeable {
+
+        static private final Permit NONE = new Permit(null);
+
+        private final Semaphore semaphore;
+        private boolean released;
+
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (this.semaphore != null && !this.released) {
+                this.released = true;
+                this.semaphore.release();
+            }
+        }
+    }
+
+}
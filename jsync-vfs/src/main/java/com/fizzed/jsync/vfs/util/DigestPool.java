@@ -0,0 +1,69 @@
+package com.fizzed.jsync.vfs.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread-safe pool of reusable message digests, since looking up a new one from the security providers for every
+ * file (or every block of a file) is surprisingly expensive.
+ */
+public class DigestPool {
+
+    static private final DigestPool SHARED = new DigestPool();
+
+    /**
+     * The pool shared by everything in jsync.
+     *
+     * @return the shared pool
+     */
+    static public DigestPool shared() {
+        return SHARED;
+    }
+
+    private final Map<String,Queue<MessageDigest>> digests;
+
+    public DigestPool() {
+        this.digests = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Acquires a digest of the algorithm, which is reset and ready to use, and should be released once done with.
+     *
+     * @param algorithm the algorithm (e.g. "MD5")
+     * @return the digest
+     */
+    public MessageDigest acquire(String algorithm) {
+        final MessageDigest digest = this.queueOf(algorithm).poll();
+        if (digest != null) {
+            return digest;
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 and SHA1 are standard algorithms guaranteed to be present in all JVMs
+            throw new RuntimeException(algorithm + " algorithm not found", e);
+        }
+    }
+
+    /**
+     * Releases a digest back to the pool, after resetting it. It must not be used after being released.
+     *
+     * @param algorithm the algorithm it was acquired with
+     * @param digest the digest to release
+     */
+    public void release(String algorithm, MessageDigest digest) {
+        if (digest != null) {
+            digest.reset();
+            this.queueOf(algorithm).offer(digest);
+        }
+    }
+
+    private Queue<MessageDigest> queueOf(String algorithm) {
+        return this.digests.computeIfAbsent(algorithm, k -> new ConcurrentLinkedQueue<>());
+    }
+
+}
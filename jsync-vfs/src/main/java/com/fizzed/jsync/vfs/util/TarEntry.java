@@ -0,0 +1,67 @@
+package com.fizzed.jsync.vfs.util;
+
+import com.fizzed.jsync.vfs.VirtualFileType;
+
+/**
+ * An entry (header) within a tar archive.
+ */
+public class TarEntry {
+
+    private final String name;
+    private final VirtualFileType type;
+    private final int mode;
+    private final long size;
+    private final long modifiedTime;
+
+    public TarEntry(String name, VirtualFileType type, int mode, long size, long modifiedTime) {
+        this.name = name;
+        this.type = type;
+        this.mode = mode;
+        this.size = size;
+        this.modifiedTime = modifiedTime;
+    }
+
+    /**
+     * The relative path of the entry, always with /'s and never with a trailing /, even for directories.
+     *
+     * @return the relative path of the entry
+     */
+    public String getName() {
+        return name;
+    }
+
+    public VirtualFileType getType() {
+        return type;
+    }
+
+    public boolean isDirectory() {
+        return this.type == VirtualFileType.DIR;
+    }
+
+    public boolean isFile() {
+        return this.type == VirtualFileType.FILE;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * The modified time of the entry, in epoch millis.
+     *
+     * @return the modified time
+     */
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -0,0 +1,268 @@
+package com.fizzed.jsync.vfs.util;
+
+import com.fizzed.jsync.vfs.VirtualFileType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a tar archive from a stream, one entry at a time. Understands ustar, pax (path, size and mtime) and gnu long
+ * name headers, which covers what gnu and bsd tar create by default.
+ */
+public class TarReader {
+
+    static private final int BLOCK_SIZE = TarWriter.BLOCK_SIZE;
+
+    private final InputStream input;
+    private final byte[] header;
+    private final byte[] skipBuffer;
+    private BoundedInputStream content;
+    private long padding;
+
+    public TarReader(InputStream input) {
+        this.input = input;
+        this.header = new byte[BLOCK_SIZE];
+        this.skipBuffer = new byte[BLOCK_SIZE * 16];
+    }
+
+    /**
+     * Moves to the next entry in the archive, skipping over whatever was not read of the current entry's content.
+     *
+     * @return the next entry or null if the end of the archive was reached
+     * @throws IOException if an I/O error occurs or the archive is invalid
+     */
+    public TarEntry next() throws IOException {
+        this.skipContent();
+
+        String paxName = null;
+        Long paxSize = null;
+        Long paxModifiedTime = null;
+        String longName = null;
+
+        while (true) {
+            if (!this.readBlock()) {
+                return null;
+            }
+
+            if (isZeros(this.header)) {
+                // end of archive (which is normally 2 empty blocks, but one is enough for us)
+                return null;
+            }
+
+            verifyChecksum(this.header);
+
+            final char type = (char)this.header[156];
+            final long size = parseNumber(this.header, 124, 12);
+
+            this.content = new BoundedInputStream(this.input, size);
+            this.padding = (BLOCK_SIZE - (size % BLOCK_SIZE)) % BLOCK_SIZE;
+
+            if (type == 'x') {
+                // pax extended header applies to the next entry
+                // NOTE: the length of each record is in bytes, not characters
+                final byte[] records = this.readContent();
+                int pos = 0;
+                while (pos < records.length) {
+                    int space = pos;
+                    while (space < records.length && records[space] != ' ') {
+                        space++;
+                    }
+                    if (space >= records.length) {
+                        break;
+                    }
+                    final int length = Integer.parseInt(new String(records, pos, space - pos, StandardCharsets.US_ASCII));
+                    if (length <= 0 || pos + length > records.length) {
+                        throw new IOException("Invalid pax header record length " + length);
+                    }
+                    final String record = new String(records, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+                    final int equals = record.indexOf('=');
+                    final String key = record.substring(0, equals);
+                    final String value = record.substring(equals + 1);
+                    if (key.equals("path")) {
+                        paxName = value;
+                    } else if (key.equals("size")) {
+                        paxSize = Long.parseLong(value);
+                    } else if (key.equals("mtime")) {
+                        paxModifiedTime = (long)(Double.parseDouble(value) * 1000d);
+                    }
+                    pos += length;
+                }
+                continue;
+            } else if (type == 'g' || type == 'K') {
+                // global pax headers and gnu long link names are not needed
+                this.skipContent();
+                continue;
+            } else if (type == 'L') {
+                // gnu long name applies to the next entry
+                longName = trimNul(new String(this.readContent(), StandardCharsets.UTF_8));
+                continue;
+            }
+
+            String name;
+            if (paxName != null) {
+                name = paxName;
+            } else if (longName != null) {
+                name = longName;
+            } else {
+                name = parseString(this.header, 0, 100);
+                final String prefix = parseString(this.header, 345, 155);
+                if (parseString(this.header, 257, 5).equals("ustar") && !prefix.isEmpty()) {
+                    name = prefix + "/" + name;
+                }
+            }
+
+            final VirtualFileType fileType;
+            switch (type) {
+                case '0':
+                case '\0':
+                case '7':
+                    fileType = VirtualFileType.FILE;
+                    break;
+                case '5':
+                    fileType = VirtualFileType.DIR;
+                    break;
+                case '2':
+                    fileType = VirtualFileType.SYMLINK;
+                    break;
+                default:
+                    fileType = VirtualFileType.OTHER;
+                    break;
+            }
+
+            // normalize the name (e.g. "./a/b/" -> "a/b")
+            while (name.startsWith("./")) {
+                name = name.substring(2);
+            }
+            while (name.endsWith("/")) {
+                name = name.substring(0, name.length() - 1);
+            }
+
+            final long entrySize = paxSize != null ? paxSize : size;
+            if (paxSize != null) {
+                this.content = new BoundedInputStream(this.input, entrySize);
+                this.padding = (BLOCK_SIZE - (entrySize % BLOCK_SIZE)) % BLOCK_SIZE;
+            }
+
+            final int mode = (int)parseNumber(this.header, 100, 8) & 07777;
+            final long modifiedTime = paxModifiedTime != null ? paxModifiedTime : parseNumber(this.header, 136, 12) * 1000L;
+
+            return new TarEntry(name, fileType, mode, fileType == VirtualFileType.FILE ? entrySize : 0L, modifiedTime);
+        }
+    }
+
+    /**
+     * The content of the current entry, which does not need to be closed (and closing it does not close the archive).
+     *
+     * @return the content of the current entry
+     */
+    public InputStream getContent() {
+        return this.content;
+    }
+
+    private boolean readBlock() throws IOException {
+        int read = 0;
+        while (read < BLOCK_SIZE) {
+            final int n = this.input.read(this.header, read, BLOCK_SIZE - read);
+            if (n < 0) {
+                if (read == 0) {
+                    return false;       // a missing end of archive is forgiven
+                }
+                throw new EOFException("Unexpected end of tar archive");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private byte[] readContent() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[BLOCK_SIZE];
+        int n;
+        while ((n = this.content.read(buf)) > 0) {
+            baos.write(buf, 0, n);
+        }
+        this.skipContent();
+        return baos.toByteArray();
+    }
+
+    private void skipContent() throws IOException {
+        if (this.content != null) {
+            this.skipFully(this.content.getRemaining() + this.padding);
+            this.content = null;
+            this.padding = 0;
+        }
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            final int read = this.input.read(this.skipBuffer, 0, (int)Math.min(this.skipBuffer.length, n));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of tar archive");
+            }
+            n -= read;
+        }
+    }
+
+    static private boolean isZeros(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static private void verifyChecksum(byte[] header) throws IOException {
+        final long expected = parseNumber(header, 148, 8);
+        long actual = 0;
+        for (int i = 0; i < header.length; i++) {
+            actual += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xff);
+        }
+        if (expected != actual) {
+            throw new IOException("Invalid tar header checksum (expected " + expected + " but was " + actual + ")");
+        }
+    }
+
+    static private String trimNul(String value) {
+        final int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+
+    static private String parseString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    static long parseNumber(byte[] header, int offset, int length) {
+        // gnu tar uses base-256 (with the high bit set) for values that do not fit in octal
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) {
+                    break;
+                }
+                continue;       // leading spaces
+            }
+            if (b < '0' || b > '7') {
+                break;
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.fizzed.jsync.vfs.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a tar archive (ustar format, with pax headers for names or sizes that do not fit) to a stream, which both gnu
+ * and bsd tar can extract. Only directories and regular files are supported, with their permissions and modified times
+ * preserved.
+ */
+public class TarWriter implements AutoCloseable {
+
+    static public final int BLOCK_SIZE = 512;
+    static private final long MAX_OCTAL_SIZE = 077777777777L;
+    static private final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+
+    private final OutputStream output;
+    private final byte[] buffer;
+    private boolean finished;
+
+    public TarWriter(OutputStream output) {
+        this.output = output;
+        this.buffer = new byte[32 * 1024];
+    }
+
+    public void putDirectory(String name, int mode, long modifiedTime) throws IOException {
+        this.writeHeader(name + "/", '5', mode, 0L, modifiedTime);
+    }
+
+    public void putFile(String name, int mode, long modifiedTime, long size, InputStream content) throws IOException {
+        this.writeHeader(name, '0', mode, size, modifiedTime);
+
+        // the header already promised exactly this many bytes
+        long remaining = size;
+        while (remaining > 0) {
+            final int n = content.read(this.buffer, 0, (int)Math.min(this.buffer.length, remaining));
+            if (n < 0) {
+                throw new IOException("Content of " + name + " ended " + remaining + " bytes short of its size " + size
+                    + " (was it modified while being archived?)");
+            }
+            this.output.write(this.buffer, 0, n);
+            remaining -= n;
+        }
+
+        this.writePadding(size);
+    }
+
+    /**
+     * Writes the end of the archive, but does not close the underlying stream.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (!this.finished) {
+            // two empty blocks mark the end of an archive
+            this.output.write(ZERO_BLOCK);
+            this.output.write(ZERO_BLOCK);
+            this.output.flush();
+            this.finished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finish();
+        this.output.close();
+    }
+
+    private void writeHeader(String name, char type, int mode, long size, long modifiedTime) throws IOException {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final boolean longName = nameBytes.length > 100 || nameBytes.length != name.length();
+        final boolean largeSize = size > MAX_OCTAL_SIZE;
+
+        // anything that does not fit in a plain ustar header is described by a pax header that precedes it
+        if (longName || largeSize) {
+            final StringBuilder records = new StringBuilder();
+            if (longName) {
+                records.append(paxRecord("path", name));
+            }
+            if (largeSize) {
+                records.append(paxRecord("size", Long.toString(size)));
+            }
+            final byte[] paxBytes = records.toString().getBytes(StandardCharsets.UTF_8);
+            this.output.write(buildHeader("PaxHeaders/" + truncate(name), 'x', 0644, paxBytes.length, modifiedTime));
+            this.output.write(paxBytes);
+            this.writePadding(paxBytes.length);
+        }
+
+        this.output.write(buildHeader(longName ? truncate(name) : name, type, mode, largeSize ? 0L : size, modifiedTime));
+    }
+
+    private void writePadding(long size) throws IOException {
+        final int padding = (int)((BLOCK_SIZE - (size % BLOCK_SIZE)) % BLOCK_SIZE);
+        if (padding > 0) {
+            this.output.write(ZERO_BLOCK, 0, padding);
+        }
+    }
+
+    static private String truncate(String name) {
+        // only used for the ustar name when a pax header has the real one, so it just needs to be plain ascii
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length() && sb.length() < 80; i++) {
+            final char c = name.charAt(i);
+            sb.append(c < 0x80 ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    static String paxRecord(String key, String value) {
+        // each record is "<length> <key>=<value>\n", where the length includes the digits of the length itself
+        final int baseLength = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = baseLength + Integer.toString(baseLength).length();
+        if (Integer.toString(length).length() != Integer.toString(baseLength).length()) {
+            length = baseLength + Integer.toString(length).length();
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    static byte[] buildHeader(String name, char type, int mode, long size, long modifiedTime) {
+        final byte[] header = new byte[BLOCK_SIZE];
+        putString(header, 0, 100, name);
+        putOctal(header, 100, 8, mode & 07777);
+        putOctal(header, 108, 8, 0);                        // uid
+        putOctal(header, 116, 8, 0);                        // gid
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, modifiedTime / 1000L);
+        header[156] = (byte)type;
+        putString(header, 257, 6, "ustar");
+        header[263] = '0';
+        header[264] = '0';
+
+        // checksum is calculated as if its own field were all spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += (b & 0xff);
+        }
+        putOctal(header, 148, 7, checksum);
+
+        return header;
+    }
+
+    static private void putString(byte[] header, int offset, int length, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    static private void putOctal(byte[] header, int offset, int length, long value) {
+        // zero padded, and terminated with a NUL
+        final String octal = Long.toOctalString(value);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = octal.length(); i < length - 1; i++) {
+            sb.append('0');
+        }
+        sb.append(octal);
+        putString(header, offset, length - 1, sb.toString());
+        header[offset + length - 1] = 0;
+    }
+
+}
@@ -8,14 +8,29 @@ import java.nio.file.Paths;
 
 public class VirtualPathMatcher {
 
+    private final String rule;
     private final String globRule;
     private final PathMatcher matcher;
 
-    public VirtualPathMatcher(String globRule, PathMatcher matcher) {
+    public VirtualPathMatcher(String rule, String globRule, PathMatcher matcher) {
+        this.rule = rule;
         this.globRule = globRule;
         this.matcher = matcher;
     }
 
+    /**
+     * The original (git-like) rule this matcher was compiled from, e.g. "target/" or "*.log".
+     *
+     * @return the original rule
+     */
+    public String getRule() {
+        return rule;
+    }
+
+    public String getGlobRule() {
+        return globRule;
+    }
+
     public boolean matches(VirtualPath rootPath, VirtualPath currentPath) {
         final String relativePath;
 
@@ -95,7 +110,7 @@ public class VirtualPathMatcher {
         String globRule = finalGlob.toString();
         PathMatcher matcher = FileSystems.getDefault().getPathMatcher(globRule);
 
-        return new  VirtualPathMatcher(globRule, matcher);
+        return new VirtualPathMatcher(rule, globRule, matcher);
     }
 
 }
\ No newline at end of file
@@ -13,6 +13,14 @@ public class VirtualPathMatchers {
         this.matchers = matchers;
     }
 
+    public List<VirtualPathMatcher> getMatchers() {
+        return matchers;
+    }
+
+    public boolean isEmpty() {
+        return this.matchers.isEmpty();
+    }
+
     public boolean matches(VirtualPath rootPath, VirtualPath path) {
         for  (VirtualPathMatcher matcher : this.matchers) {
             if (matcher.matches(rootPath, path)) {
@@ -27,6 +35,16 @@ public class VirtualPathMatchers {
         return this.matchers.toString();
     }
 
+    static public VirtualPathMatchers concat(VirtualPathMatchers... matchers) {
+        List<VirtualPathMatcher> concatenated = new ArrayList<>();
+        for (VirtualPathMatchers m : matchers) {
+            if (m != null) {
+                concatenated.addAll(m.getMatchers());
+            }
+        }
+        return new VirtualPathMatchers(concatenated);
+    }
+
     static public VirtualPathMatchers compile(List<String> rules) {
         List<VirtualPathMatcher> matchers = new ArrayList<>();
         if (rules != null) {
@@ -0,0 +1,339 @@
+package com.fizzed.jsync.vfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_INT_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT_UNALIGNED;
+
+/**
+ * A native fast path for listing a local directory along with the stats of every child, built on the foreign function
+ * API (java 22+). On linux, a directory is read in bulk with getdents64, and each child is stat'ed relative to the open
+ * directory with statx, straight into the primitives of its stat (skipping the attribute objects and permission sets
+ * NIO would create). Since it calls restricted methods, it is opt-in: run with -Djsync.native=true along with
+ * --enable-native-access=ALL-UNNAMED (or the name of the module jsync is loaded in), otherwise it is not available (and
+ * nothing native is ever linked, so the jvm never warns) and listings fall back to NIO.
+ */
+class NativeListing {
+    static private final Logger log = LoggerFactory.getLogger(NativeListing.class);
+
+    static private final int AT_FDCWD = -100;
+    static private final int AT_SYMLINK_NOFOLLOW = 0x100;
+    static private final int O_RDONLY = 0;
+    static private final int O_CLOEXEC = 02000000;
+    static private final int STATX_TYPE = 0x1;
+    static private final int STATX_MODE = 0x2;
+    static private final int STATX_ATIME = 0x20;
+    static private final int STATX_MTIME = 0x40;
+    static private final int STATX_INO = 0x100;
+    static private final int STATX_SIZE = 0x200;
+    static private final int STATX_MASK = STATX_TYPE | STATX_MODE | STATX_ATIME | STATX_MTIME | STATX_INO | STATX_SIZE;
+    static private final int S_IFMT = 0170000;
+    static private final int S_IFDIR = 0040000;
+    static private final int S_IFREG = 0100000;
+    static private final int S_IFLNK = 0120000;
+    static private final int EPERM = 1;
+    static private final int ENOENT = 2;
+    static private final int EACCES = 13;
+    static private final int ENOTDIR = 20;
+
+    // offsets into struct statx (which is 256 bytes)
+    static private final long STATX_SIZEOF = 256;
+    static private final long STX_MODE = 28;
+    static private final long STX_INO = 32;
+    static private final long STX_SIZE = 40;
+    static private final long STX_ATIME = 64;
+    static private final long STX_MTIME = 112;
+
+    // offsets into struct linux_dirent64
+    static private final long D_RECLEN = 16;
+    static private final long D_NAME = 19;
+
+    static private final int DIRENT_BUFFER_SIZE = 64 * 1024;
+
+    static private final boolean AVAILABLE;
+    static private final int O_DIRECTORY;
+    static private final MethodHandle OPEN;
+    static private final MethodHandle GETDENTS64;
+    static private final MethodHandle STATX;
+    static private final MethodHandle CLOSE;
+    static private final StructLayout CAPTURED_STATE;
+    static private final VarHandle ERRNO;
+
+    static {
+        boolean available = false;
+        int oDirectory = 0;
+        MethodHandle open = null;
+        MethodHandle getdents64 = null;
+        MethodHandle statx = null;
+        MethodHandle close = null;
+        StructLayout capturedState = null;
+        VarHandle errno = null;
+        try {
+            final String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+            final String arch = System.getProperty("os.arch", "").toLowerCase(Locale.ROOT);
+            if (!"true".equalsIgnoreCase(System.getProperty("jsync.native"))) {
+                log.debug("Native listing is not enabled (-Djsync.native=true)");
+            } else if (!NativeListing.class.getModule().isNativeAccessEnabled()) {
+                log.warn("Native listing is not available without native access (--enable-native-access=ALL-UNNAMED)");
+            } else if (!os.startsWith("linux")) {
+                log.debug("Native listing is not available on {}", os);
+            } else if (!arch.equals("amd64") && !arch.equals("x86_64") && !arch.equals("aarch64")) {
+                log.debug("Native listing is not available on arch {}", arch);
+            } else if (!isUtf8FileNames()) {
+                // names are decoded as utf-8, which must match how nio decodes them, or paths won't round trip
+                log.debug("Native listing is not available with file name encoding {}", System.getProperty("sun.jnu.encoding"));
+            } else {
+                // O_DIRECTORY is one of the few flags that differ between architectures
+                oDirectory = arch.equals("aarch64") ? 040000 : 0200000;
+
+                final Linker linker = Linker.nativeLinker();
+                final SymbolLookup libc = linker.defaultLookup();
+                final Linker.Option captureErrno = Linker.Option.captureCallState("errno");
+                capturedState = Linker.Option.captureStateLayout();
+                errno = capturedState.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+                // int open(const char *pathname, int flags, ... /* mode_t mode */)
+                open = linker.downcallHandle(libc.find("open").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT),
+                    captureErrno, Linker.Option.firstVariadicArg(2));
+                // ssize_t getdents64(int fd, void *dirp, size_t count)
+                getdents64 = linker.downcallHandle(libc.find("getdents64").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG),
+                    captureErrno);
+                // int statx(int dirfd, const char *pathname, int flags, unsigned int mask, struct statx *statxbuf)
+                statx = linker.downcallHandle(libc.find("statx").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS),
+                    captureErrno);
+                // int close(int fd)
+                close = linker.downcallHandle(libc.find("close").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+
+                // statx needs linux 4.11+ (older kernels fail with ENOSYS), so try it once
+                try (Arena arena = Arena.ofConfined()) {
+                    final MemorySegment state = arena.allocate(capturedState);
+                    final MemorySegment buf = arena.allocate(STATX_SIZEOF, 8);
+                    final int result = (int)statx.invokeExact(state, AT_FDCWD, arena.allocateFrom("/"), AT_SYMLINK_NOFOLLOW, STATX_MASK, buf);
+                    if (result == 0) {
+                        available = true;
+                    } else {
+                        log.debug("Native listing is not available (statx failed with errno {})", (int)errno.get(state, 0L));
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            log.debug("Native listing is not available", t);
+            available = false;
+        }
+        AVAILABLE = available;
+        O_DIRECTORY = oDirectory;
+        OPEN = open;
+        GETDENTS64 = getdents64;
+        STATX = statx;
+        CLOSE = close;
+        CAPTURED_STATE = capturedState;
+        ERRNO = errno;
+    }
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Lists the child paths (with stats) of a directory, in the order they are read from the directory.
+     *
+     * @param dir the native path of the directory
+     * @param path the virtual path of the directory, which the child paths are resolved against
+     * @param visitor the visitor of each child path
+     * @throws IOException if an I/O error occurs (including any thrown by the visitor)
+     */
+    static void ls(Path dir, VirtualPath path, VirtualPathVisitor visitor) throws IOException {
+        if (!AVAILABLE) {
+            throw new IOException("Native listing is not available");
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment state = arena.allocate(CAPTURED_STATE);
+            final MemorySegment dirents = arena.allocate(DIRENT_BUFFER_SIZE, 8);
+            final MemorySegment statxBuf = arena.allocate(STATX_SIZEOF, 8);
+
+            final int fd = open(state, arena.allocateFrom(dir.toString()));
+            if (fd < 0) {
+                throw toException("open", dir.toString(), errno(state));
+            }
+            try {
+                while (true) {
+                    final long n = getdents64(state, fd, dirents);
+                    if (n == 0) {
+                        break;
+                    } else if (n < 0) {
+                        throw toException("getdents64", dir.toString(), errno(state));
+                    }
+
+                    long pos = 0;
+                    while (pos < n) {
+                        final int reclen = dirents.get(JAVA_SHORT_UNALIGNED, pos + D_RECLEN) & 0xffff;
+                        final long nameOffset = pos + D_NAME;
+                        pos += reclen;
+
+                        if (isDotOrDotDot(dirents, nameOffset)) {
+                            continue;
+                        }
+
+                        // the name is nul-terminated in the buffer, so it's passed to statx as-is
+                        final String name = dirents.getString(nameOffset);
+                        if (statx(state, fd, dirents.asSlice(nameOffset), statxBuf) != 0) {
+                            throw toException("statx", dir.resolve(name).toString(), errno(state));
+                        }
+
+                        final VirtualFileStat stat = toStat(statxBuf);
+                        visitor.visit(path.resolve(name, stat.getType() == VirtualFileType.DIR, stat));
+                    }
+                }
+            } finally {
+                close(fd);
+            }
+        }
+    }
+
+    static private VirtualFileStat toStat(MemorySegment statxBuf) {
+        final int mode = statxBuf.get(JAVA_SHORT_UNALIGNED, STX_MODE) & 0xffff;
+        final long inode = statxBuf.get(JAVA_LONG_UNALIGNED, STX_INO);
+        final long size = statxBuf.get(JAVA_LONG_UNALIGNED, STX_SIZE);
+        final long accessedTime = toMillis(statxBuf, STX_ATIME);
+        final long modifiedTime = toMillis(statxBuf, STX_MTIME);
+
+        final VirtualFileType type;
+        switch (mode & S_IFMT) {
+            case S_IFDIR:
+                type = VirtualFileType.DIR;
+                break;
+            case S_IFREG:
+                type = VirtualFileType.FILE;
+                break;
+            case S_IFLNK:
+                type = VirtualFileType.SYMLINK;
+                break;
+            default:
+                type = VirtualFileType.OTHER;
+                break;
+        }
+
+        // only the rwx bits, same as what nio provides as posix file permissions
+        return new VirtualFileStat(type, size, modifiedTime, accessedTime, mode & 0777)
+            .setInode(inode);
+    }
+
+    static private long toMillis(MemorySegment statxBuf, long offset) {
+        // struct statx_timestamp { __s64 tv_sec; __u32 tv_nsec; }
+        final long seconds = statxBuf.get(JAVA_LONG_UNALIGNED, offset);
+        final int nanos = statxBuf.get(JAVA_INT_UNALIGNED, offset + 8);
+        return Math.addExact(Math.multiplyExact(seconds, 1000L), nanos / 1_000_000);
+    }
+
+    static private boolean isDotOrDotDot(MemorySegment dirents, long nameOffset) {
+        if (dirents.get(JAVA_BYTE, nameOffset) != '.') {
+            return false;
+        }
+        final byte b1 = dirents.get(JAVA_BYTE, nameOffset + 1);
+        return b1 == 0 || (b1 == '.' && dirents.get(JAVA_BYTE, nameOffset + 2) == 0);
+    }
+
+    static private boolean isUtf8FileNames() {
+        try {
+            return Charset.forName(System.getProperty("sun.jnu.encoding", "UTF-8")).equals(StandardCharsets.UTF_8);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    static private int errno(MemorySegment state) {
+        return (int)ERRNO.get(state, 0L);
+    }
+
+    static private IOException toException(String function, String file, int errno) {
+        switch (errno) {
+            case ENOENT:
+                return new NoSuchFileException(file);
+            case EPERM:
+            case EACCES:
+                return new AccessDeniedException(file);
+            case ENOTDIR:
+                return new NotDirectoryException(file);
+            default:
+                return new IOException("Native " + function + " of " + file + " failed (errno " + errno + ")");
+        }
+    }
+
+    //
+    // downcalls (which never throw anything checked, but invokeExact is declared to throw Throwable)
+    //
+
+    static private int open(MemorySegment state, MemorySegment pathname) {
+        try {
+            return (int)OPEN.invokeExact(state, pathname, O_RDONLY | O_DIRECTORY | O_CLOEXEC, 0);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static private long getdents64(MemorySegment state, int fd, MemorySegment dirents) {
+        try {
+            return (long)GETDENTS64.invokeExact(state, fd, dirents, dirents.byteSize());
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static private int statx(MemorySegment state, int dirfd, MemorySegment pathname, MemorySegment statxBuf) {
+        try {
+            return (int)STATX.invokeExact(state, dirfd, pathname, AT_SYMLINK_NOFOLLOW, STATX_MASK, statxBuf);
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static private void close(int fd) {
+        try {
+            final int result = (int)CLOSE.invokeExact(fd);
+            if (result != 0) {
+                log.warn("Native close of directory fd {} failed", fd);
+            }
+        } catch (Throwable t) {
+            throw propagate(t);
+        }
+    }
+
+    static private RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException)t;
+        } else if (t instanceof Error) {
+            throw (Error)t;
+        }
+        return new IllegalStateException(t);
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.fizzed.jsync.vfs;
+
+import com.fizzed.crux.util.MoreFiles;
+import com.fizzed.crux.util.Resources;
+import com.fizzed.jsync.vfs.util.Permissions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CachingVirtualFileSystemTest {
+
+    static Path projectDir;
+    private Path sourceDir;
+    private AtomicInteger stats;
+    private AtomicInteger listings;
+    private VirtualPath root;
+
+    @BeforeAll
+    static public void setup() throws Exception {
+        projectDir = Resources.file("/locator.txt").resolve("../..").toAbsolutePath().normalize();
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        this.sourceDir = projectDir.resolve("caching-vfs-source");
+        MoreFiles.deleteDirectoryIfExists(this.sourceDir);
+        Files.createDirectories(this.sourceDir);
+        this.stats = new AtomicInteger();
+        this.listings = new AtomicInteger();
+        this.root = VirtualPath.parse(this.sourceDir.toString(), true);
+    }
+
+    private CachingVirtualFileSystem open(int maxEntries, long ttlMillis) {
+        final boolean posix = Permissions.isPosixDefaultFileSystem();
+        final LocalVirtualFileSystem local = new LocalVirtualFileSystem("<local>", this.root, posix, posix) {
+            @Override
+            public VirtualPath stat(VirtualPath path) throws IOException {
+                stats.incrementAndGet();
+                return super.stat(path);
+            }
+
+            @Override
+            public List<VirtualPath> ls(VirtualPath path) throws IOException {
+                listings.incrementAndGet();
+                return super.ls(path);
+            }
+        };
+        return new CachingVirtualFileSystem(local, maxEntries, ttlMillis);
+    }
+
+    @Test
+    public void statAndExistsAreCached() throws Exception {
+        Files.write(this.sourceDir.resolve("a.txt"), "hello".getBytes());
+        final CachingVirtualFileSystem vfs = this.open(100, 60000L);
+
+        assertThat(vfs.stat(this.root.resolve("a.txt", false)).getStat().getSize()).isEqualTo(5L);
+        assertThat(vfs.exists(this.root.resolve("a.txt", false))).isNotNull();
+        assertThat(this.stats.get()).isEqualTo(1);
+
+        // missing paths are cached too
+        assertThat(vfs.exists(this.root.resolve("b.txt", false))).isNull();
+        assertThrows(NoSuchFileException.class, () -> vfs.stat(this.root.resolve("b.txt", false)));
+        assertThat(this.stats.get()).isEqualTo(2);
+        assertThat(vfs.getHits()).isEqualTo(2L);
+    }
+
+    @Test
+    public void lsIsCachedAndIncludesStats() throws Exception {
+        Files.write(this.sourceDir.resolve("a.txt"), "hello".getBytes());
+        final CachingVirtualFileSystem vfs = this.open(100, 60000L);
+
+        assertThat(vfs.ls(this.root)).extracting(VirtualPath::getName).containsExactly("a.txt");
+        assertThat(vfs.ls(this.root)).extracting(VirtualPath::getName).containsExactly("a.txt");
+        assertThat(vfs.stat(this.root.resolve("a.txt", false)).getStat().getSize()).isEqualTo(5L);
+        assertThat(this.listings.get()).isEqualTo(1);
+        assertThat(this.stats.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void mutationsInvalidate() throws Exception {
+        final CachingVirtualFileSystem vfs = this.open(100, 60000L);
+        final VirtualPath file = this.root.resolve("a.txt", false);
+        final VirtualPath dir = this.root.resolve("b", true);
+
+        assertThat(vfs.exists(file)).isNull();
+        assertThat(vfs.ls(this.root)).isEmpty();
+
+        vfs.writeFile(new ByteArrayInputStream("hello".getBytes()), file);
+        assertThat(vfs.exists(file).getStat().getSize()).isEqualTo(5L);
+        assertThat(vfs.ls(this.root)).extracting(VirtualPath::getName).containsExactly("a.txt");
+
+        try (OutputStream output = vfs.writeStream(file)) {
+            output.write("hello world".getBytes());
+        }
+        assertThat(vfs.stat(file).getStat().getSize()).isEqualTo(11L);
+
+        vfs.mkdir(dir);
+        assertThat(vfs.exists(dir)).isNotNull();
+        vfs.mv(file, dir.resolve("a.txt", false));
+        assertThat(vfs.exists(file)).isNull();
+        assertThat(vfs.ls(dir)).extracting(VirtualPath::getName).containsExactly("a.txt");
+
+        vfs.rm(dir.resolve("a.txt", false));
+        vfs.rmdir(dir);
+        assertThat(vfs.exists(dir)).isNull();
+        assertThat(vfs.ls(this.root)).isEmpty();
+    }
+
+    @Test
+    public void cachedPathsAreCopies() throws Exception {
+        Files.write(this.sourceDir.resolve("a.txt"), "hello".getBytes());
+        final CachingVirtualFileSystem vfs = this.open(100, 60000L);
+        final VirtualPath file = this.root.resolve("a.txt", false);
+
+        // whatever a caller populates on a stat it was given never leaks into the cache
+        vfs.ls(this.root).get(0).getStat().setCksum(1L);
+        vfs.stat(file).getStat().setMd5("d41d8cd98f00b204e9800998ecf8427e");
+
+        assertThat(vfs.stat(file).getStat().hasCksum()).isFalse();
+        assertThat(vfs.exists(file).getStat().getMd5()).isNull();
+        assertThat(vfs.ls(this.root).get(0).getStat().hasCksum()).isFalse();
+        assertThat(this.stats.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void mkdirsInvalidatesParents() throws Exception {
+        final CachingVirtualFileSystem vfs = this.open(100, 60000L);
+        final VirtualPath dir = this.root.resolve("a", true);
+        final VirtualPath subdir = dir.resolve("b", true);
+
+        assertThat(vfs.exists(dir)).isNull();
+        assertThat(vfs.ls(this.root)).isEmpty();
+
+        // the parent is created behind the cache's back, the same as a filesystem that creates missing parents
+        Files.createDirectories(this.sourceDir.resolve("a"));
+        vfs.mkdirs(Collections.singletonList(subdir));
+
+        assertThat(vfs.exists(dir)).isNotNull();
+        assertThat(vfs.ls(this.root)).extracting(VirtualPath::getName).containsExactly("a");
+        assertThat(vfs.ls(dir)).extracting(VirtualPath::getName).containsExactly("b");
+    }
+
+    @Test
+    public void expiresAndEvicts() throws Exception {
+        Files.write(this.sourceDir.resolve("a.txt"), "hello".getBytes());
+        Files.write(this.sourceDir.resolve("b.txt"), "hello".getBytes());
+
+        // expired immediately
+        final CachingVirtualFileSystem expiringVfs = this.open(100, 0L);
+        expiringVfs.stat(this.root.resolve("a.txt", false));
+        expiringVfs.stat(this.root.resolve("a.txt", false));
+        assertThat(this.stats.get()).isEqualTo(2);
+
+        // only room for one entry, so the least recently used is evicted
+        this.stats.set(0);
+        final CachingVirtualFileSystem smallVfs = this.open(1, 60000L);
+        smallVfs.stat(this.root.resolve("a.txt", false));
+        smallVfs.stat(this.root.resolve("b.txt", false));
+        smallVfs.stat(this.root.resolve("a.txt", false));
+        assertThat(this.stats.get()).isEqualTo(3);
+        assertThat(smallVfs.size()).isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.fizzed.jsync.vfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares listing a huge local directory (with the stats of every child) the way it used to be done (list, then read
+ * the attributes of each child by its full path) against {@link LocalVirtualFileSystem#ls(VirtualPath)}. Not run as
+ * part of the tests, run its main from the test classpath (e.g. with -Dentries=100000).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 8, time = 2)
+@Fork(2)
+public class LocalListingBenchmark {
+
+    @Param({"100000"})
+    public int entries;
+
+    private Path dir;
+    private LocalVirtualFileSystem vfs;
+    private VirtualPath path;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("jsync-listing-bench");
+        for (int i = 0; i < this.entries; i++) {
+            Files.createFile(this.dir.resolve("file-" + i + ".txt"));
+        }
+        this.vfs = LocalVirtualFileSystem.open();
+        this.path = VirtualPath.parse(this.dir.toAbsolutePath().toString(), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        this.vfs.rmtree(this.path);
+    }
+
+    @Benchmark
+    public void listThenStat(Blackhole blackhole) throws IOException {
+        // how ls used to work, with a stat of each child by its full path
+        final List<VirtualPath> childPaths = new ArrayList<>();
+        try (Stream<Path> files = Files.list(this.dir)) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                final Path file = it.next();
+                childPaths.add(this.vfs.withStat(this.path.resolve(file.getFileName().toString(), false)));
+            }
+        }
+        blackhole.consume(childPaths);
+    }
+
+    @Benchmark
+    public void ls(Blackhole blackhole) throws IOException {
+        blackhole.consume(this.vfs.ls(this.path));
+    }
+
+    @Benchmark
+    public void lsVisitor(Blackhole blackhole) throws IOException {
+        this.vfs.ls(this.path, blackhole::consume);
+    }
+
+    static public void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(LocalListingBenchmark.class.getSimpleName())
+            .param("entries", System.getProperty("entries", "100000"))
+            .build()).run();
+    }
+
+}
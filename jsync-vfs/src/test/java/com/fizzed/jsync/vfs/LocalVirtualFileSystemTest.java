@@ -2,15 +2,25 @@ package com.fizzed.jsync.vfs;
 
 import com.fizzed.crux.util.MoreFiles;
 import com.fizzed.crux.util.Resources;
+import com.fizzed.jsync.vfs.util.VirtualPathMatchers;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
@@ -54,4 +64,171 @@ class LocalVirtualFileSystemTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void lsNonPosix() throws Exception {
+        Files.write(this.sourceDir.resolve("a.txt"), "hello".getBytes());
+        Files.createDirectories(this.sourceDir.resolve("b"));
+        Files.write(this.sourceDir.resolve("b/c.txt"), "hello".getBytes());
+
+        // everything but posix walks the directory to get the attributes of each child
+        final LocalVirtualFileSystem vfs = new LocalVirtualFileSystem("<local>", this.defaultVfs.pwd(), this.defaultVfs.isCaseSensitive(), false);
+
+        final VirtualPath root = vfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        final List<VirtualPath> childPaths = vfs.ls(root);
+        childPaths.sort(Comparator.comparing(VirtualPath::getName));
+
+        assertThat(childPaths).extracting(VirtualPath::getName).containsExactly("a.txt", "b");
+        for (VirtualPath childPath : childPaths) {
+            final VirtualFileStat expected = this.defaultVfs.stat(root.resolve(childPath.getName(), false)).getStat();
+            assertThat(childPath.isDirectory()).isEqualTo(expected.getType() == VirtualFileType.DIR);
+            assertThat(childPath.getStat().getType()).isEqualTo(expected.getType());
+            assertThat(childPath.getStat().getModifiedTime()).isEqualTo(expected.getModifiedTime());
+        }
+        assertThat(childPaths.get(0).getStat().getSize()).isEqualTo(5L);
+    }
+
+    @Test
+    public void inodes() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+
+        Files.write(this.sourceDir.resolve("a.txt"), "a".getBytes());
+        Files.write(this.sourceDir.resolve("b.txt"), "b".getBytes());
+
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        final List<VirtualPath> files = asList(
+            this.defaultVfs.stat(root.resolve("a.txt", false)),
+            this.defaultVfs.stat(root.resolve("b.txt", false)));
+
+        this.defaultVfs.inodes(files);
+
+        assertThat(files.get(0).getStat().getInode()).isEqualTo(Files.getAttribute(this.sourceDir.resolve("a.txt"), "unix:ino"));
+        assertThat(files.get(1).getStat().getInode()).isEqualTo(Files.getAttribute(this.sourceDir.resolve("b.txt"), "unix:ino"));
+        assertThat(files.get(0).getStat().getInode()).isNotEqualTo(files.get(1).getStat().getInode());
+    }
+
+    @Test
+    public void tree() throws Exception {
+        Files.createDirectories(this.sourceDir.resolve("a/b"));
+        Files.createDirectories(this.sourceDir.resolve("c"));
+        Files.write(this.sourceDir.resolve("a/b/d.txt"), "hello".getBytes());
+        Files.write(this.sourceDir.resolve("e.txt"), "hello".getBytes());
+
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        final VirtualFileTree tree = this.defaultVfs.tree(root);
+
+        assertThat(tree.size()).isEqualTo(5);
+        assertThat(tree.ls(root)).extracting(VirtualPath::getName).containsExactlyInAnyOrder("a", "c", "e.txt");
+        assertThat(tree.ls(root.resolve("a/b", true))).extracting(VirtualPath::getName).containsExactly("d.txt");
+        assertThat(tree.ls(root.resolve("a/b", true)).get(0).getStat().getSize()).isEqualTo(5L);
+        assertThat(tree.ls(root.resolve("c", true))).isEmpty();
+        assertThat(tree.ls(root.resolve("missing", true))).isNull();
+    }
+
+    @Test
+    public void treeWithPrune() throws Exception {
+        Files.createDirectories(this.sourceDir.resolve("a/node_modules/b"));
+        Files.write(this.sourceDir.resolve("a/node_modules/b/c.txt"), "hello".getBytes());
+        Files.write(this.sourceDir.resolve("a/d.txt"), "hello".getBytes());
+
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        final VirtualFileTree tree = this.defaultVfs.tree(root, VirtualPathMatchers.compile(asList("node_modules")));
+
+        // the pruned directory itself is still listed, but nothing within it
+        assertThat(tree.ls(root.resolve("a", true))).extracting(VirtualPath::getName).containsExactlyInAnyOrder("node_modules", "d.txt");
+        assertThat(tree.ls(root.resolve("a/node_modules", true))).isEmpty();
+        assertThat(tree.ls(root.resolve("a/node_modules/b", true))).isNull();
+    }
+
+    @Test
+    public void rmtree() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Files.createDirectories(this.sourceDir.resolve("a/b" + i + "/c"));
+            Files.write(this.sourceDir.resolve("a/b" + i + "/c/d.txt"), "hello".getBytes());
+            Files.write(this.sourceDir.resolve("a/b" + i + "/e.txt"), "hello".getBytes());
+        }
+        Files.write(this.sourceDir.resolve("f.txt"), "hello".getBytes());
+
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        this.defaultVfs.rmtree(root.resolve("a", true));
+
+        assertThat(this.sourceDir.resolve("a")).doesNotExist();
+        assertThat(this.sourceDir.resolve("f.txt")).exists();
+    }
+
+    @Test
+    public void createAndExtractArchive() throws Exception {
+        Files.createDirectories(this.sourceDir.resolve("a/b"));
+        Files.write(this.sourceDir.resolve("a/b/c.txt"), "hello".getBytes());
+        Files.write(this.sourceDir.resolve("a/d.txt"), "hello world".getBytes());
+        Files.setLastModifiedTime(this.sourceDir.resolve("a/d.txt"), FileTime.fromMillis(1700000000000L));
+
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        final VirtualPath a = this.defaultVfs.stat(root.resolve("a", true));
+        final List<VirtualPath> paths = asList(
+            this.defaultVfs.stat(a.resolve("b", true)),
+            this.defaultVfs.stat(a.resolve("b/c.txt", false)),
+            this.defaultVfs.stat(a.resolve("d.txt", false)));
+
+        final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        this.defaultVfs.createArchive(a, paths, archive);
+
+        final VirtualPath target = root.resolve("target", true);
+        this.defaultVfs.mkdir(target);
+        this.defaultVfs.extractArchive(new ByteArrayInputStream(archive.toByteArray()), target);
+
+        assertThat(this.sourceDir.resolve("target/b/c.txt")).hasContent("hello");
+        assertThat(this.sourceDir.resolve("target/d.txt")).hasContent("hello world");
+        assertThat(Files.getLastModifiedTime(this.sourceDir.resolve("target/d.txt")).toMillis()).isEqualTo(1700000000000L);
+    }
+
+    @Test
+    public void readAndWriteFileCompressed() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("hello world ").append(i).append("\n");
+        }
+        Files.write(this.sourceDir.resolve("a.txt"), content.toString().getBytes());
+
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        this.defaultVfs.readFileCompressed(root.resolve("a.txt", false), compressed);
+
+        assertThat(compressed.size()).isLessThan(content.length() / 4);
+
+        this.defaultVfs.writeFileCompressed(new ByteArrayInputStream(compressed.toByteArray()), root.resolve("b.txt", false));
+
+        assertThat(this.sourceDir.resolve("b.txt")).hasContent(content.toString());
+    }
+
+    @Test
+    public void directCopy() throws Exception {
+        Files.write(this.sourceDir.resolve("a.txt"), "hello world".getBytes());
+        Files.write(this.sourceDir.resolve("b.txt"), "this will be replaced".getBytes());
+
+        final LocalVirtualFileSystem otherVfs = LocalVirtualFileSystem.open(this.sourceDir);
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+
+        assertThat(this.defaultVfs.isDirectCopySupported(otherVfs)).isTrue();
+
+        this.defaultVfs.directCopy(otherVfs, root.resolve("a.txt", false), root.resolve("b.txt", false));
+        this.defaultVfs.directCopy(otherVfs, root.resolve("a.txt", false), root.resolve("c.txt", false));
+
+        assertThat(this.sourceDir.resolve("b.txt")).hasContent("hello world");
+        assertThat(this.sourceDir.resolve("c.txt")).hasContent("hello world");
+    }
+
+    @Test
+    public void openChannel() throws Exception {
+        Files.write(this.sourceDir.resolve("a.txt"), "hello".getBytes());
+
+        final VirtualPath root = this.defaultVfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        try (SeekableByteChannel channel = this.defaultVfs.openChannel(root.resolve("a.txt", false), true)) {
+            channel.position(5L);
+            channel.write(ByteBuffer.wrap(" world".getBytes()));
+            channel.truncate(8L);
+        }
+
+        assertThat(this.sourceDir.resolve("a.txt")).hasContent("hello wo");
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.fizzed.jsync.vfs;
+
+import com.fizzed.crux.util.MoreFiles;
+import com.fizzed.crux.util.Resources;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs (by failsafe) against the packaged multi-release jar on java 22+, since only then is the native listing loaded.
+ */
+class NativeListingIT {
+
+    private Path sourceDir;
+    private LocalVirtualFileSystem vfs;
+
+    @BeforeEach
+    public void before() throws IOException {
+        final Path projectDir = Resources.file("/locator.txt").resolve("../..").toAbsolutePath().normalize();
+        this.sourceDir = projectDir.resolve("native-listing-source");
+        MoreFiles.deleteDirectoryIfExists(this.sourceDir);
+        Files.createDirectories(this.sourceDir);
+        this.vfs = LocalVirtualFileSystem.open(this.sourceDir);
+    }
+
+    @Test
+    public void isAvailable() {
+        assumeTrue(System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("linux"));
+        assumeTrue(Boolean.getBoolean("jsync.native"));
+
+        // once enabled on linux it must be used, otherwise nothing below actually tests it
+        assertThat(NativeListing.isAvailable()).isTrue();
+    }
+
+    @Test
+    public void ls() throws Exception {
+        assumeTrue(NativeListing.isAvailable());
+
+        Files.write(this.sourceDir.resolve("a.txt"), "hello".getBytes());
+        Files.createDirectories(this.sourceDir.resolve("b"));
+        Files.createSymbolicLink(this.sourceDir.resolve("c"), this.sourceDir.resolve("a.txt"));
+        // more than fit in one read of the directory
+        for (int i = 0; i < 2000; i++) {
+            Files.write(this.sourceDir.resolve("file-" + i + ".txt"), new byte[i]);
+        }
+
+        final VirtualPath root = this.vfs.stat(VirtualPath.parse(this.sourceDir.toString()));
+        final List<VirtualPath> childPaths = this.vfs.ls(root);
+
+        assertThat(childPaths).hasSize(2003);
+        for (VirtualPath childPath : childPaths) {
+            // the native stats must match what nio stats
+            final VirtualFileStat expected = this.vfs.stat(root.resolve(childPath.getName(), false)).getStat();
+            assertThat(childPath.isDirectory()).isEqualTo(expected.getType() == VirtualFileType.DIR);
+            assertThat(childPath.getStat().getType()).isEqualTo(expected.getType());
+            assertThat(childPath.getStat().getSize()).isEqualTo(expected.getSize());
+            assertThat(childPath.getStat().getModifiedTime()).isEqualTo(expected.getModifiedTime());
+            assertThat(childPath.getStat().getPermissions()).isEqualTo(expected.getPermissions());
+            assertThat(childPath.getStat().getInode())
+                .isEqualTo(Files.getAttribute(this.sourceDir.resolve(childPath.getName()), "unix:ino", LinkOption.NOFOLLOW_LINKS));
+        }
+    }
+
+    @Test
+    public void lsMissing() throws Exception {
+        assumeTrue(NativeListing.isAvailable());
+
+        final VirtualPath missing = VirtualPath.parse(this.sourceDir.resolve("missing").toString(), true);
+
+        assertThrows(IOException.class, () -> this.vfs.ls(missing));
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.fizzed.jsync.vfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VirtualFileSystemTest {
+
+    /**
+     * A filesystem implementing only the methods every filesystem has always needed, so anything added since then must
+     * have a default.
+     */
+    static class MinimalVirtualFileSystem extends AbstractVirtualFileSystem {
+
+        MinimalVirtualFileSystem() {
+            super("minimal", VirtualPath.parse("/", true), true);
+        }
+
+        @Override
+        protected List<Checksum> doDetectChecksums() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isRemote() {
+            return false;
+        }
+
+        @Override
+        public StatModel getStatModel() {
+            return StatModel.POSIX;
+        }
+
+        @Override
+        public VirtualPath stat(VirtualPath path) {
+            return path;
+        }
+
+        @Override
+        public void updateStat(VirtualPath path, VirtualFileStat stats, Collection<StatUpdateOption> options) {
+        }
+
+        @Override
+        public List<VirtualPath> ls(VirtualPath path) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void mkdir(VirtualPath path) {
+        }
+
+        @Override
+        public void rm(VirtualPath path) {
+        }
+
+        @Override
+        public void rmdir(VirtualPath path) {
+        }
+
+        @Override
+        public InputStream readFile(VirtualPath path) {
+            return new ByteArrayInputStream("hello world".getBytes());
+        }
+
+        @Override
+        public void writeFile(InputStream input, VirtualPath path) {
+        }
+
+        @Override
+        public OutputStream writeStream(VirtualPath path) {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void cksums(List<VirtualPath> paths) {
+        }
+
+        @Override
+        public void md5sums(List<VirtualPath> paths) {
+        }
+
+        @Override
+        public void sha1sums(List<VirtualPath> paths) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void defaults() throws Exception {
+        final VirtualFileSystem vfs = new MinimalVirtualFileSystem();
+        final VirtualPath a = VirtualPath.parse("/a.txt");
+        final VirtualPath b = VirtualPath.parse("/b.txt");
+
+        assertThat(vfs.isCopySupported()).isFalse();
+        assertThat(vfs.isDirectCopySupported(vfs)).isFalse();
+        assertThat(vfs.isRandomAccessSupported()).isFalse();
+        assertThat(vfs.isConcurrentListingSupported()).isFalse();
+        assertThat(vfs.isArchiveSupported()).isFalse();
+        assertThat(vfs.isCompressionSupported()).isFalse();
+
+        assertThrows(IOException.class, () -> vfs.cp(a, b));
+        assertThrows(IOException.class, () -> vfs.directCopy(vfs, a, b));
+        assertThrows(IOException.class, () -> vfs.mv(a, b));
+        assertThrows(IOException.class, () -> vfs.writeStream(a, 1L));
+        assertThrows(IOException.class, () -> vfs.openChannel(a, false));
+        assertThrows(IOException.class, () -> vfs.readFileCompressed(a, new ByteArrayOutputStream()));
+        assertThrows(IOException.class, () -> vfs.writeFileCompressed(new ByteArrayInputStream(new byte[0]), a));
+        assertThrows(IOException.class, () -> vfs.createArchive(a, Collections.emptyList(), new ByteArrayOutputStream()));
+        assertThrows(IOException.class, () -> vfs.extractArchive(new ByteArrayInputStream(new byte[0]), a));
+        assertThrows(UnsupportedChecksumException.class, () -> vfs.blockChecksums(Checksum.MD5, a, 1024L));
+        assertThrows(UnsupportedChecksumException.class, () -> vfs.prefixChecksum(Checksum.MD5, a, 1024L));
+
+        // reading at an offset skips up to it
+        try (InputStream input = vfs.readFile(a, 6L)) {
+            assertThat(input).hasContent("world");
+        }
+        try (InputStream input = vfs.readFile(a, 100L)) {
+            assertThat(input.read()).isEqualTo(-1);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.fizzed.jsync.vfs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap used by a large tree of paths, as listing a directory would create them. Each operation is one
+ * path, so with the GC profiler "gc.alloc.rate.norm" is the bytes allocated per path, which is an upper bound of the
+ * heap each path retains (without asking for the full path of files, nearly all of it is retained). Not run as part of
+ * the tests, run its main from the test classpath and compare before and after changes to VirtualPath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class VirtualPathHeapBenchmark {
+
+    static private final int DIRS = 1000;
+    static private final int FILES_PER_DIR = 100;
+    static private final int PATHS = DIRS * (FILES_PER_DIR + 1);
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public List<VirtualPath> resolve() {
+        return this.buildTree(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATHS)
+    public List<VirtualPath> resolveWithFullPaths() {
+        // what a sync does with every path at least once
+        return this.buildTree(true);
+    }
+
+    private List<VirtualPath> buildTree(boolean fullPaths) {
+        final List<VirtualPath> paths = new ArrayList<>(PATHS);
+        final VirtualPath root = VirtualPath.parse("/home/builder/workspace/projects/example-project/src/main/resources", true);
+        for (int d = 0; d < DIRS; d++) {
+            final VirtualPath dir = root.resolve("directory-" + d, true);
+            paths.add(dir);
+            for (int f = 0; f < FILES_PER_DIR; f++) {
+                final VirtualPath file = dir.resolve("file-" + f + ".txt", false);
+                if (fullPaths) {
+                    file.toFullPath();
+                }
+                paths.add(file);
+            }
+        }
+        return paths;
+    }
+
+    static public void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(VirtualPathHeapBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+}
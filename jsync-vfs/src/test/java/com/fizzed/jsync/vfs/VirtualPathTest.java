@@ -236,4 +236,42 @@ class VirtualPathTest {
         assertThat(vp.normalize().toFullPath()).isEqualTo("C:/b");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void normalizeAlreadyNormalized() {
+        assertThat(VirtualPath.isNormalized("/")).isTrue();
+        assertThat(VirtualPath.isNormalized("/a/b")).isTrue();
+        assertThat(VirtualPath.isNormalized("a/b.txt")).isTrue();
+        assertThat(VirtualPath.isNormalized("C:/a")).isTrue();
+        assertThat(VirtualPath.isNormalized("..a/.b")).isTrue();
+        assertThat(VirtualPath.isNormalized("")).isFalse();
+        assertThat(VirtualPath.isNormalized("/a/")).isFalse();
+        assertThat(VirtualPath.isNormalized("/a//b")).isFalse();
+        assertThat(VirtualPath.isNormalized("./a")).isFalse();
+        assertThat(VirtualPath.isNormalized("a/..")).isFalse();
+        assertThat(VirtualPath.isNormalized("C:a")).isFalse();
+
+        // nothing is rebuilt
+        final VirtualPath vp = VirtualPath.parse("/a/b", true);
+        assertThat(vp.normalize()).isSameAs(vp);
+    }
+
+    @Test
+    public void resolveSharesParentPath() {
+        final VirtualPath dir = VirtualPath.parse("/a/b", true);
+
+        final VirtualPath c = dir.resolve("c.txt", false);
+        final VirtualPath d = dir.resolve("d.txt", false);
+
+        assertThat(c.toFullPath()).isEqualTo("/a/b/c.txt");
+        assertThat(c.getParentPath()).isEqualTo("/a/b");
+        // every child of the directory shares one parent path
+        assertThat(c.getParentPath()).isSameAs(dir.toFullPath());
+        assertThat(d.getParentPath()).isSameAs(c.getParentPath());
+
+        // anything other than a simple name is resolved as before
+        assertThat(dir.resolve("c/d.txt", false).getParentPath()).isEqualTo("/a/b/c");
+        assertThat(dir.resolve("..", true).toFullPath()).isEqualTo("/a/b/..");
+        assertThat(VirtualPath.parse("/", true).resolve("a", true).toFullPath()).isEqualTo("/a");
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.fizzed.jsync.vfs.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BufferPoolTest {
+
+    @Test
+    public void sizeFor() {
+        assertThat(BufferPool.sizeFor(-1L)).isEqualTo(64 * 1024);
+        assertThat(BufferPool.sizeFor(0L)).isEqualTo(8 * 1024);
+        assertThat(BufferPool.sizeFor(8 * 1024L)).isEqualTo(8 * 1024);
+        assertThat(BufferPool.sizeFor(8 * 1024L + 1)).isEqualTo(16 * 1024);
+        assertThat(BufferPool.sizeFor(100 * 1024L)).isEqualTo(128 * 1024);
+        assertThat(BufferPool.sizeFor(1024 * 1024L)).isEqualTo(1024 * 1024);
+        assertThat(BufferPool.sizeFor(5L * 1024 * 1024 * 1024)).isEqualTo(1024 * 1024);
+    }
+
+    @Test
+    public void acquireAndRelease() {
+        final BufferPool pool = new BufferPool(1);
+
+        final byte[] a = pool.acquire(10000);
+        assertThat(a).hasSize(16 * 1024);
+        final byte[] b = pool.acquire(10000);
+
+        pool.release(a);
+        pool.release(b);
+        // only 1 is retained
+        assertThat(pool.size()).isEqualTo(1);
+
+        // and is reused
+        assertThat(pool.acquire(16 * 1024)).isSameAs(a);
+        assertThat(pool.size()).isEqualTo(0);
+
+        // anything larger than the largest size class is never pooled
+        final byte[] huge = pool.acquire(2 * 1024 * 1024);
+        assertThat(huge).hasSize(2 * 1024 * 1024);
+        pool.release(huge);
+        assertThat(pool.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void digests() {
+        final DigestPool pool = new DigestPool();
+
+        final MessageDigest md5 = pool.acquire("MD5");
+        md5.update("hello".getBytes());
+        pool.release("MD5", md5);
+
+        // reused, and reset
+        final MessageDigest again = pool.acquire("MD5");
+        assertThat(again).isSameAs(md5);
+        assertThat(again.digest()).isEqualTo(pool.acquire("MD5").digest());
+    }
+
+}
@@ -1,10 +1,16 @@
 package com.fizzed.jsync.vfs.util;
 
+import com.fizzed.jsync.vfs.Checksum;
+import com.fizzed.jsync.vfs.VirtualFileStat;
+import com.fizzed.jsync.vfs.VirtualFileType;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class ChecksumsTest {
 
@@ -42,6 +48,31 @@ class ChecksumsTest {
         assertThat(entries.get(2).getFile()).isEqualTo("README.md");
     }
 
+    @Test
+    public void parsePosixCksumOutputFromStdin() throws Exception {
+        final String output = "2172985434 2414902\n" +
+            "4294967295 0\n";
+
+        final List<Checksums.HashEntry> entries = Checksums.parsePosixCksumOutput(output);
+
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).getCksum()).isEqualTo(2172985434L);
+        assertThat(entries.get(0).getFile()).isEqualTo("");
+        assertThat(entries.get(1).getCksum()).isEqualTo(4294967295L);
+    }
+
+    @Test
+    public void blockChecksums() throws Exception {
+        final byte[] data = "aaaabbbbaaaacc".getBytes(StandardCharsets.UTF_8);
+
+        final List<String> values = Checksums.blockChecksums(Checksum.MD5, new ByteArrayInputStream(data), data.length, 4);
+
+        assertThat(values).hasSize(4);
+        assertThat(values.get(0)).isEqualTo(values.get(2));
+        assertThat(values.get(0)).isNotEqualTo(values.get(1));
+        assertThat(values.get(3)).isEqualTo(Checksums.hash("MD5", new ByteArrayInputStream("cc".getBytes(StandardCharsets.UTF_8))));
+    }
+
     @Test
     public void parsePosixMd5Output() throws Exception {
         final String output = "\n" +
@@ -74,6 +105,32 @@ class ChecksumsTest {
         assertThat(entries.get(2).getFile()).isEqualTo("README.md");
     }
 
+    @Test
+    public void parsePosixHashOutputSkipsInvalidLines() throws Exception {
+        final String output = "\n" +
+            "84e7baeaf93b7ddd9b13ca1187a32c26  blaze.jar\n" +
+            "md5sum: WARNING: 1 listed file could not be read\n" +
+            "garbage\n" +
+            "\\e91b799c968c5f55bef214d296e35312  a\\nb\\\\c.txt\n";
+
+        final List<Checksums.HashEntry> entries = Checksums.parsePosixHashOutput(output);
+
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(0).getFile()).isEqualTo("blaze.jar");
+        // an escaped file name is unescaped
+        assertThat(entries.get(1).getHash()).isEqualTo("e91b799c968c5f55bef214d296e35312");
+        assertThat(entries.get(1).getFile()).isEqualTo("a\nb\\c.txt");
+    }
+
+    @Test
+    public void isHex() {
+        assertThat(Checksums.isHex("84e7BAEA")).isTrue();
+        assertThat(Checksums.isHex("84e")).isFalse();
+        assertThat(Checksums.isHex("84eg")).isFalse();
+        assertThat(Checksums.isHex("")).isFalse();
+        assertThat(Checksums.isHex(null)).isFalse();
+    }
+
     @Test
     public void parsePowershellHashFileOutput() throws Exception {
         final String output = "\n" +
@@ -137,4 +194,42 @@ class ChecksumsTest {
         assertThat(entries.get(6).getFile()).isEqualTo("C:\\Users\\builder\\test-sync\\.git\\modules\\MdeModulePkg\\Library\\BrotliCustomDecompressLib\\brotli\\hooks\\pre-merge-commit.sample");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void hexRoundTrip() {
+        final byte[] bytes = Checksums.fromHex("CE562E08d8098926a3862fc6e7905199");
+
+        assertThat(bytes).hasSize(16);
+        assertThat(bytes[0]).isEqualTo((byte)0xce);
+        assertThat(Checksums.toHex(bytes)).isEqualTo("ce562e08d8098926a3862fc6e7905199");
+        assertThrows(IllegalArgumentException.class, () -> Checksums.fromHex("abc"));
+        assertThrows(IllegalArgumentException.class, () -> Checksums.fromHex("zz"));
+    }
+
+    @Test
+    public void statChecksumsEqual() {
+        final VirtualFileStat stat1 = new VirtualFileStat(VirtualFileType.FILE, 1L, 0L, 0L, 0);
+        final VirtualFileStat stat2 = new VirtualFileStat(VirtualFileType.FILE, 1L, 0L, 0L, 0);
+
+        // nothing to compare yet
+        assertThat(stat1.getCksum()).isNull();
+        assertThat(stat1.isCksumEqual(stat2)).isFalse();
+        assertThat(stat1.isMd5Equal(stat2)).isFalse();
+
+        stat1.setCksum(2172985434L);
+        stat2.setCksum(2172985434L);
+        assertThat(stat1.getCksum()).isEqualTo(2172985434L);
+        assertThat(stat1.isCksumEqual(stat2)).isTrue();
+
+        // hex of either case is the same digest
+        stat1.setMd5("305EADBBCD6F6D2567E033AD12AABBC4");
+        stat2.setMd5Digest(Checksums.fromHex("305eadbbcd6f6d2567e033ad12aabbc4"));
+        assertThat(stat1.getMd5()).isEqualTo("305eadbbcd6f6d2567e033ad12aabbc4");
+        assertThat(stat1.isMd5Equal(stat2)).isTrue();
+
+        stat2.setSha1("da39a3ee5e6b4b0d3255bfef95601890afd80709");
+        assertThat(stat1.isSha1Equal(stat2)).isFalse();
+        stat1.setSha1("da39a3ee5e6b4b0d3255bfef95601890afd80708");
+        assertThat(stat1.isSha1Equal(stat2)).isFalse();
+    }
+
+}
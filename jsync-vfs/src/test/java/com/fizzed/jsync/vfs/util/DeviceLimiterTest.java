@@ -0,0 +1,62 @@
+package com.fizzed.jsync.vfs.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeviceLimiterTest {
+
+    @Test
+    public void store() throws Exception {
+        final Path dir = Files.createTempDirectory("jsync-device");
+        try {
+            final DeviceLimiter limiter = new DeviceLimiter();
+
+            // a file (and even its directory) does not need to exist yet
+            assertThat(limiter.store(dir.resolve("a/b/c.txt"))).isEqualTo(Files.getFileStore(dir));
+            assertThat(limiter.store(dir.resolve("d.txt"))).isEqualTo(Files.getFileStore(dir));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void acquire() throws Exception {
+        final Path dir = Files.createTempDirectory("jsync-device");
+        try {
+            final DeviceLimiter limiter = new DeviceLimiter()
+                .setMaxReads(1)
+                .setMaxWrites(0);
+
+            final DeviceLimiter.Permit permit = limiter.acquire(DeviceLimiter.Operation.READ, dir.resolve("a.txt"));
+
+            // another read on the same device must wait for the permit to be released
+            final CompletableFuture<DeviceLimiter.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return limiter.acquire(DeviceLimiter.Operation.READ, dir.resolve("b.txt"));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+
+            // but writes are unlimited
+            limiter.acquire(DeviceLimiter.Operation.WRITE, dir.resolve("c.txt")).close();
+
+            // only the first close releases the permit
+            permit.close();
+            permit.close();
+            waiting.get(5, TimeUnit.SECONDS).close();
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.fizzed.jsync.vfs.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TarWriterTest {
+
+    @Test
+    public void paxRecord() {
+        assertThat(TarWriter.paxRecord("path", "a")).isEqualTo("9 path=a\n");
+        // the length includes its own digits, which can roll over to another digit
+        assertThat(TarWriter.paxRecord("path", repeat("a", 90))).startsWith("99 path=").hasSize(99);
+        assertThat(TarWriter.paxRecord("path", repeat("a", 91))).startsWith("101 path=").hasSize(101);
+        // and is in bytes
+        assertThat(TarWriter.paxRecord("path", "café")).isEqualTo("14 path=café\n");
+    }
+
+    @Test
+    public void parseNumber() {
+        final byte[] header = TarWriter.buildHeader("a.txt", '0', 0644, 12345L, 1700000000000L);
+
+        assertThat(TarReader.parseNumber(header, 100, 8)).isEqualTo(0644L);
+        assertThat(TarReader.parseNumber(header, 124, 12)).isEqualTo(12345L);
+        assertThat(TarReader.parseNumber(header, 136, 12)).isEqualTo(1700000000L);
+
+        // base-256
+        final byte[] big = new byte[12];
+        big[0] = (byte)0x80;
+        big[7] = 0x01;
+        assertThat(TarReader.parseNumber(big, 0, 12)).isEqualTo(1L << 32);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final String longName = "a/" + repeat("b", 120) + "/c.txt";
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (TarWriter writer = new TarWriter(baos)) {
+            writer.putDirectory("a", 0755, 1700000000000L);
+            writer.putFile("a/hello.txt", 0640, 1700000001000L, 5L, bytes("hello"));
+            writer.putFile("a/empty.txt", 0600, 1700000002000L, 0L, bytes(""));
+            writer.putFile(longName, 0644, 1700000003000L, 3L, bytes("abc"));
+            writer.putFile("a/café.txt", 0644, 1700000004000L, 2L, bytes("hi"));
+        }
+
+        assertThat(baos.size() % TarWriter.BLOCK_SIZE).isEqualTo(0);
+
+        final TarReader reader = new TarReader(new ByteArrayInputStream(baos.toByteArray()));
+
+        TarEntry entry = reader.next();
+        assertThat(entry.getName()).isEqualTo("a");
+        assertThat(entry.isDirectory()).isTrue();
+        assertThat(entry.getMode()).isEqualTo(0755);
+        assertThat(entry.getModifiedTime()).isEqualTo(1700000000000L);
+
+        entry = reader.next();
+        assertThat(entry.getName()).isEqualTo("a/hello.txt");
+        assertThat(entry.isFile()).isTrue();
+        assertThat(entry.getMode()).isEqualTo(0640);
+        assertThat(entry.getSize()).isEqualTo(5L);
+        assertThat(read(reader.getContent())).isEqualTo("hello");
+
+        // content not read is skipped
+        entry = reader.next();
+        assertThat(entry.getName()).isEqualTo("a/empty.txt");
+        assertThat(entry.getSize()).isEqualTo(0L);
+
+        entry = reader.next();
+        assertThat(entry.getName()).isEqualTo(longName);
+        assertThat(read(reader.getContent())).isEqualTo("abc");
+
+        entry = reader.next();
+        assertThat(entry.getName()).isEqualTo("a/café.txt");
+        assertThat(read(reader.getContent())).isEqualTo("hi");
+
+        assertThat(reader.next()).isNull();
+    }
+
+    @Test
+    public void putFileWithShortContent() throws Exception {
+        try (TarWriter writer = new TarWriter(new ByteArrayOutputStream())) {
+            assertThrows(IOException.class, () -> writer.putFile("a.txt", 0644, 0L, 10L, bytes("hello")));
+        }
+    }
+
+    @Test
+    public void readSystemTar() throws Exception {
+        // an archive from the real tar (if its available) must be readable too
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (TarWriter writer = new TarWriter(baos)) {
+            writer.putDirectory("x", 0755, 1700000000000L);
+            writer.putFile("x/" + repeat("y", 150) + ".txt", 0644, 1700000000000L, 5L, bytes("hello"));
+        }
+
+        final Process process;
+        try {
+            process = new ProcessBuilder("tar", "-c", "-f", "-", "-C", "/etc", "hostname").start();
+        } catch (IOException e) {
+            assumeTrue(false, "tar is not available");
+            return;
+        }
+        final byte[] archive = readBytes(process.getInputStream());
+        assumeTrue(process.waitFor(10, TimeUnit.SECONDS) && process.exitValue() == 0, "tar of /etc/hostname failed");
+
+        final TarReader reader = new TarReader(new ByteArrayInputStream(archive));
+        final TarEntry entry = reader.next();
+        assertThat(entry.getName()).isEqualTo("hostname");
+        assertThat(entry.isFile()).isTrue();
+        assertThat(read(reader.getContent()).length()).isEqualTo((int)entry.getSize());
+        assertThat(reader.next()).isNull();
+
+        // and the real tar must be able to list ours
+        final Process list = new ProcessBuilder("tar", "-t", "-f", "-").start();
+        list.getOutputStream().write(baos.toByteArray());
+        list.getOutputStream().close();
+        final String names = read(list.getInputStream());
+        assertThat(list.waitFor(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(names).contains("x/" + repeat("y", 150) + ".txt");
+    }
+
+    static private InputStream bytes(String value) {
+        return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static private String read(InputStream input) throws IOException {
+        return new String(readBytes(input), StandardCharsets.UTF_8);
+    }
+
+    static private byte[] readBytes(InputStream input) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buf = new byte[8192];
+        int n;
+        while ((n = input.read(buf)) > 0) {
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    static private String repeat(String value, int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+}